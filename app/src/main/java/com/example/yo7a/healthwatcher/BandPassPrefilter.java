@@ -0,0 +1,205 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.Math.FilterDesignCache;
+import com.example.yo7a.healthwatcher.Math.FloatCascade;
+import com.example.yo7a.healthwatcher.Math.MultiChannelCascade;
+import com.example.yo7a.healthwatcher.Math.SosCoefficients;
+
+/**
+ * Streaming band-pass prefilter for camera PPG channels.
+ *
+ * - Wraps a Butterworth or Bessel band-pass from the Math package and filters
+ *   one sample per frame (causal, so it can run while frames arrive).
+ * - Several channels (e.g. green and red) can share one prefilter; they are
+ *   filtered frame by frame through one MultiChannelCascade, or in a
+ *   DspPrecision.FLOAT session through one FloatCascade per channel.
+ * - The first sample is taken as baseline and subtracted, so the large DC level
+ *   of the channel means does not excite a long start-up transient.
+ * - The design follows the sampling rate estimate: it is redesigned only when
+ *   the rate drifts more than REDESIGN_TOLERANCE from the design rate. Designs
+ *   come from the shared FilterDesignCache, so the rate is quantized to its
+ *   rate step and all prefilters with the same band share one coefficient set.
+ * - The group delay at the band centre is reported so beat / peak timestamps
+ *   taken from the filtered signal can be shifted back.
+ */
+public final class BandPassPrefilter {
+
+    public enum Type { BUTTERWORTH, BESSEL }
+
+    // heart rate band, slightly wider than the 0.7..4.0 Hz search band
+    public static final double HR_LOW_HZ = 0.5;
+    public static final double HR_HIGH_HZ = 4.5;
+    // respiration band, covers MIN_RESP_HZ..MAX_RESP_HZ of RespirationProcess
+    public static final double RESP_LOW_HZ = 0.05;
+    public static final double RESP_HIGH_HZ = 0.7;
+
+    private static final double REDESIGN_TOLERANCE = 0.10;
+
+    private final Type type;
+    private final int order;
+    private final double lowHz;
+    private final double highHz;
+    private final int channels;
+    private final DspPrecision precision;
+
+    // the cascade of the session's precision; the other one stays null
+    private MultiChannelCascade filter;
+    private FloatCascade[] floatFilters;
+    private double designRate = 0.0;
+    private double groupDelaySamples = 0.0;
+    private final double[] baseline;
+    private final double[] single = new double[1];
+
+    /**
+     * @param type         filter family
+     * @param order        prototype order (the band-pass has twice as many poles)
+     * @param lowHz        lower band edge in Hz
+     * @param highHz       upper band edge in Hz
+     * @param samplingFreq initial sampling rate estimate in Hz
+     */
+    public BandPassPrefilter(Type type, int order, double lowHz, double highHz, double samplingFreq) {
+        this(type, order, lowHz, highHz, samplingFreq, 1);
+    }
+
+    /**
+     * @param channels number of channels filtered together by process(double[])
+     */
+    public BandPassPrefilter(Type type, int order, double lowHz, double highHz, double samplingFreq,
+                             int channels) {
+        this(type, order, lowHz, highHz, samplingFreq, channels, DspPrecision.DOUBLE);
+    }
+
+    /**
+     * @param precision arithmetic of the filter state; the coefficients are
+     *                  always designed in double
+     */
+    public BandPassPrefilter(Type type, int order, double lowHz, double highHz, double samplingFreq,
+                             int channels, DspPrecision precision) {
+        if (order < 1 || lowHz <= 0 || highHz <= lowHz || channels < 1 || precision == null) {
+            throw new IllegalArgumentException("invalid band-pass parameters");
+        }
+        this.type = type;
+        this.order = order;
+        this.lowHz = lowHz;
+        this.highHz = highHz;
+        this.channels = channels;
+        this.precision = precision;
+        this.baseline = new double[channels];
+        design(samplingFreq);
+    }
+
+    public static BandPassPrefilter heartRate(double samplingFreq) {
+        return heartRate(samplingFreq, 1);
+    }
+
+    public static BandPassPrefilter heartRate(double samplingFreq, int channels) {
+        return heartRate(samplingFreq, channels, DspPrecision.DOUBLE);
+    }
+
+    public static BandPassPrefilter heartRate(double samplingFreq, int channels, DspPrecision precision) {
+        return new BandPassPrefilter(Type.BUTTERWORTH, 2, HR_LOW_HZ, HR_HIGH_HZ, samplingFreq,
+                channels, precision);
+    }
+
+    public static BandPassPrefilter respiration(double samplingFreq) {
+        return new BandPassPrefilter(Type.BUTTERWORTH, 2, RESP_LOW_HZ, RESP_HIGH_HZ, samplingFreq);
+    }
+
+    /**
+     * Updates the sampling rate estimate; redesigns (and resets) the filter only
+     * if it moved by more than REDESIGN_TOLERANCE from the current design rate.
+     *
+     * @return true if the filter was redesigned
+     */
+    public boolean setSamplingFreq(double samplingFreq) {
+        if (samplingFreq <= 0) return false;
+        if (Math.abs(samplingFreq - designRate) <= REDESIGN_TOLERANCE * designRate) return false;
+        design(samplingFreq);
+        return true;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public DspPrecision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Filters one sample of a single channel prefilter.
+     */
+    public double process(double x) {
+        if (channels != 1) {
+            throw new IllegalStateException("use process(double[]) for " + channels + " channels");
+        }
+        single[0] = x;
+        process(single);
+        return single[0];
+    }
+
+    /**
+     * Filters one frame (one sample per channel) in place.
+     */
+    public void process(double[] frame) {
+        for (int ch = 0; ch < channels; ch++) {
+            if (Double.isNaN(baseline[ch])) baseline[ch] = frame[ch];
+            frame[ch] -= baseline[ch];
+        }
+        if (floatFilters != null) {
+            for (int ch = 0; ch < channels; ch++) frame[ch] = floatFilters[ch].filter((float) frame[ch]);
+        } else {
+            filter.filter(frame);
+        }
+    }
+
+    public void reset() {
+        if (floatFilters != null) {
+            for (FloatCascade f : floatFilters) f.reset();
+        } else {
+            filter.reset();
+        }
+        java.util.Arrays.fill(baseline, Double.NaN);
+    }
+
+    public double getDesignRate() {
+        return designRate;
+    }
+
+    /**
+     * @return group delay at the band centre in samples
+     */
+    public double getGroupDelaySamples() {
+        return groupDelaySamples;
+    }
+
+    /**
+     * @return group delay at the band centre in seconds at the design rate
+     */
+    public double getGroupDelaySeconds() {
+        return groupDelaySamples / designRate;
+    }
+
+    private void design(double samplingFreq) {
+        FilterDesignCache cache = FilterDesignCache.getShared();
+        double rate = cache.quantize(samplingFreq);
+        double nyquist = 0.5 * rate;
+        double hi = Math.min(highHz, 0.95 * nyquist);
+        double lo = Math.min(lowHz, 0.5 * hi);
+        double center = 0.5 * (lo + hi);
+        double width = hi - lo;
+
+        FilterDesignCache.Family family = (type == Type.BESSEL)
+                ? FilterDesignCache.Family.BESSEL : FilterDesignCache.Family.BUTTERWORTH;
+        SosCoefficients coefficients = cache.bandPass(family, order, rate, center, width);
+        if (precision == DspPrecision.FLOAT) {
+            floatFilters = new FloatCascade[channels];
+            for (int ch = 0; ch < channels; ch++) floatFilters[ch] = new FloatCascade(coefficients);
+        } else {
+            filter = new MultiChannelCascade(coefficients, channels);
+        }
+        designRate = rate;
+        groupDelaySamples = coefficients.groupDelay(center / rate);
+        java.util.Arrays.fill(baseline, Double.NaN);
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.Math.RobustStats;
+
+/**
+ * Streaming pulse peak detector for the band-passed PPG.
+ *
+ * - Samples are pushed one at a time with add(x, t); every call is O(1) and
+ *   nothing is allocated after construction.
+ * - A candidate is a local maximum. Its amplitude is its height above the
+ *   lowest sample since the previous beat's peak and its time is refined with a
+ *   parabola through the three samples around it, so beat times are not
+ *   quantized to the frame period.
+ * - Candidates below a fraction of the running beat amplitude are ignored.
+ *   The fraction starts at HIGH_THRESHOLD_FRACTION right after a beat and
+ *   falls linearly to THRESHOLD_FRACTION over THRESHOLD_DECAY expected
+ *   intervals, so the dicrotic wave is rejected but a weak beat arriving on
+ *   time is not. The running amplitude is learned over the first LEARNING_SECONDS
+ *   and then follows the accepted beats; it is halved whenever no beat was
+ *   found for SEARCH_BACK_FACTOR expected intervals, so the detector recovers
+ *   when the pulse gets weaker.
+ * - Within the refractory period (REFRACTORY_FRACTION of the expected
+ *   interval, at least 60 / MAX_BPM seconds) only the highest candidate
+ *   survives, so a beat is reported one refractory period after its peak and
+ *   neither the dicrotic wave nor a noise bump just before the systolic peak
+ *   becomes a beat of its own.
+ * - Every beat has a timestamp, the interval to the previous beat (NaN for the
+ *   first beat and after a gap) and a confidence in [0, 1] from how well its
+ *   amplitude and interval agree with the running estimates.
+ *
+ * Camera PPG brightness drops with every pulse, so feed the negated band-passed
+ * intensity to find the systolic peaks.
+ */
+public final class BeatDetector {
+
+    public static final double MIN_BPM = 40.0;
+    public static final double MAX_BPM = 200.0;
+
+    // shortest / longest accepted inter-beat interval
+    private static final double MIN_IBI_SECONDS = 60.0 / MAX_BPM;
+    private static final double MAX_IBI_SECONDS = 60.0 / MIN_BPM;
+
+    private static final double REFRACTORY_FRACTION = 0.5;
+    private static final double LEARNING_SECONDS = 1.5;
+    private static final double THRESHOLD_FRACTION = 0.4;
+    private static final double HIGH_THRESHOLD_FRACTION = 0.8;
+    private static final double THRESHOLD_DECAY = 0.6;
+    // interval assumed before the first one is measured (75 bpm)
+    private static final double DEFAULT_IBI_SECONDS = 0.8;
+    private static final double SEARCH_BACK_FACTOR = 1.66;
+    private static final double AMPLITUDE_ALPHA = 0.125;
+    private static final double IBI_ALPHA = 0.2;
+    // relative interval deviation that scores zero
+    private static final double IBI_TOLERANCE = 0.3;
+    // consecutive off-rhythm beats after which the interval estimate restarts
+    private static final int MAX_IBI_OUTLIERS = 3;
+
+    /** Beats with at least this confidence count as clean. */
+    public static final double CLEAN_CONFIDENCE = 0.5;
+    /** Number of clean intervals getBeatRateBpm() takes the median of. */
+    public static final int RATE_BEATS = 8;
+
+    // last two samples
+    private double x1, x2;
+    private double t1, t2;
+    private int samples = 0;
+    private double startTime;
+    private boolean learning = true;
+    private double learnAmplitude = 0.0;
+
+    // lowest sample since the last accepted peak (or since learning ended)
+    private double trough = Double.POSITIVE_INFINITY;
+
+    // running estimates
+    private double amplitudeEstimate = 0.0;
+    private double ibiEstimate = Double.NaN;
+    private int ibiOutliers = 0;
+    private double decayTime;
+
+    // candidate waiting for its refractory period to pass
+    private boolean pending = false;
+    private double pendingTime;
+    private double pendingValue;
+    private double pendingBase;
+
+    // last reported beat
+    private double lastBeatTime = Double.NaN;
+    private double beatTime = Double.NaN;
+    private double ibi = Double.NaN;
+    private double confidence = 0.0;
+    private double beatAmplitude = 0.0;
+    private int beatCount = 0;
+    private int cleanRun = 0;
+    private boolean lastClean = false;
+    // interval the last clean beat overwrote in the full ring, NaN if none
+    private double overwritten = Double.NaN;
+
+    // ring of the newest clean intervals
+    private final double[] cleanIbis = new double[RATE_BEATS];
+    private final double[] work = new double[RATE_BEATS];
+    private int cleanPos = 0;
+    private int cleanCount = 0;
+
+    /**
+     * Pushes one sample.
+     *
+     * @param x band-passed sample, pulse peaks pointing up
+     * @param t sample time in seconds (monotonic, need not be evenly spaced)
+     * @return true if a beat was completed by this sample; its data is then
+     * available from getBeatTime(), getIbi(), getConfidence()
+     */
+    public boolean add(double x, double t) {
+        if (samples == 0) {
+            startTime = t;
+            decayTime = t;
+        }
+        boolean beat = false;
+
+        if (samples >= 2) {
+            if (learning && t - startTime >= LEARNING_SECONDS) {
+                learning = false;
+                amplitudeEstimate = learnAmplitude;
+                trough = x1;
+                decayTime = t;
+            }
+            // x1 is a local maximum (flat tops count once, at their first sample)
+            if (x1 > x2 && x1 >= x) {
+                candidate(x2, x1, x, t2, t1, t);
+            }
+        }
+        if (x < trough) trough = x;
+
+        if (pending && t - pendingTime >= refractory()) {
+            emit();
+            beat = true;
+        }
+
+        if (!learning && !pending) {
+            double expected = Double.isNaN(ibiEstimate) ? MAX_IBI_SECONDS : ibiEstimate;
+            if (t - decayTime > SEARCH_BACK_FACTOR * expected) {
+                amplitudeEstimate *= 0.5;
+                decayTime = t;
+            }
+        }
+
+        x2 = x1;
+        t2 = t1;
+        x1 = x;
+        t1 = t;
+        samples++;
+        return beat;
+    }
+
+    private double refractory() {
+        if (Double.isNaN(ibiEstimate)) return MIN_IBI_SECONDS;
+        return Math.max(MIN_IBI_SECONDS, REFRACTORY_FRACTION * ibiEstimate);
+    }
+
+    private void candidate(double y0, double y1, double y2, double ta, double tb, double tc) {
+        // parabolic peak refinement, offset p in [-0.5, 0.5] samples
+        double denom = y0 - 2 * y1 + y2;
+        double p = (denom < 0) ? 0.5 * (y0 - y2) / denom : 0.0;
+        double value = y1 - 0.25 * (y0 - y2) * p;
+        double time = tb + p * ((p > 0) ? (tc - tb) : (tb - ta));
+
+        if (learning) {
+            learnAmplitude = Math.max(learnAmplitude, value - trough);
+            return;
+        }
+
+        if (pending) {
+            // keep the highest peak of the refractory period
+            if (value > pendingValue) {
+                pendingTime = time;
+                pendingValue = value;
+            }
+            return;
+        }
+        if (!Double.isNaN(lastBeatTime) && time - lastBeatTime < MIN_IBI_SECONDS) return;
+
+        double fraction = THRESHOLD_FRACTION;
+        if (!Double.isNaN(lastBeatTime)) {
+            double expected = Double.isNaN(ibiEstimate) ? DEFAULT_IBI_SECONDS : ibiEstimate;
+            double left = 1.0 - (time - lastBeatTime) / (THRESHOLD_DECAY * expected);
+            if (left > 0) fraction += (HIGH_THRESHOLD_FRACTION - THRESHOLD_FRACTION) * left;
+        }
+        double amplitude = value - trough;
+        if (amplitude <= fraction * amplitudeEstimate) return;
+
+        pending = true;
+        pendingTime = time;
+        pendingValue = value;
+        pendingBase = trough;
+        // the trough of the next beat comes after this peak
+        trough = Double.POSITIVE_INFINITY;
+    }
+
+    private void emit() {
+        pending = false;
+        double amplitude = pendingValue - pendingBase;
+        double interval = pendingTime - lastBeatTime;
+        if (Double.isNaN(interval) || interval > MAX_IBI_SECONDS) interval = Double.NaN;
+
+        // scores against the estimates before this beat updates them
+        double ampScore = (amplitudeEstimate > 0)
+                ? Math.min(amplitude, amplitudeEstimate) / Math.max(amplitude, amplitudeEstimate)
+                : 0.5;
+        double ibiScore = 0.5;
+        if (!Double.isNaN(interval) && !Double.isNaN(ibiEstimate)) {
+            double dev = Math.abs(interval - ibiEstimate) / ibiEstimate;
+            ibiScore = Math.max(0.0, 1.0 - dev / IBI_TOLERANCE);
+        }
+
+        if (!Double.isNaN(interval)) {
+            if (Double.isNaN(ibiEstimate)) {
+                ibiEstimate = interval;
+            } else if (Math.abs(interval - ibiEstimate) <= IBI_TOLERANCE * ibiEstimate) {
+                ibiEstimate += IBI_ALPHA * (interval - ibiEstimate);
+                ibiOutliers = 0;
+            } else if (++ibiOutliers >= MAX_IBI_OUTLIERS) {
+                // the rhythm changed; follow it
+                ibiEstimate = interval;
+                ibiOutliers = 0;
+            }
+        }
+        // plain average over the first beats, then an EMA; one motion spike
+        // must not lift the threshold above the real beats
+        double alpha = Math.max(AMPLITUDE_ALPHA, 1.0 / (beatCount + 2));
+        amplitudeEstimate += alpha
+                * (Math.min(amplitude, 2.0 * amplitudeEstimate) - amplitudeEstimate);
+
+        beatTime = pendingTime;
+        ibi = interval;
+        confidence = ampScore * ibiScore;
+        beatAmplitude = amplitude;
+        lastBeatTime = pendingTime;
+        decayTime = pendingTime;
+        beatCount++;
+
+        lastClean = !Double.isNaN(interval) && confidence >= CLEAN_CONFIDENCE;
+        if (lastClean) {
+            cleanRun++;
+            overwritten = (cleanCount == RATE_BEATS) ? cleanIbis[cleanPos] : Double.NaN;
+            cleanIbis[cleanPos] = interval;
+            cleanPos = (cleanPos + 1) % RATE_BEATS;
+            if (cleanCount < RATE_BEATS) cleanCount++;
+        } else {
+            cleanRun = 0;
+        }
+    }
+
+    /**
+     * Overrides the last beat as not clean, e.g. after an external quality
+     * check (BeatQualityIndex) failed: its confidence drops to 0 and its
+     * interval leaves the rate estimate.
+     */
+    public void rejectBeat() {
+        confidence = 0.0;
+        cleanRun = 0;
+        if (!lastClean) return;
+        lastClean = false;
+        cleanPos = (cleanPos - 1 + RATE_BEATS) % RATE_BEATS;
+        if (Double.isNaN(overwritten)) {
+            cleanCount--;
+        } else {
+            cleanIbis[cleanPos] = overwritten;
+        }
+    }
+
+    /** Time of the last beat in seconds. */
+    public double getBeatTime() {
+        return beatTime;
+    }
+
+    /** Interval from the previous beat to the last one in seconds, NaN if there is none. */
+    public double getIbi() {
+        return ibi;
+    }
+
+    /** Confidence of the last beat in [0, 1]. */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /** Peak to trough amplitude of the last beat. */
+    public double getBeatAmplitude() {
+        return beatAmplitude;
+    }
+
+    public int getBeatCount() {
+        return beatCount;
+    }
+
+    /** Number of consecutive clean beats up to the last one. */
+    public int getCleanBeatCount() {
+        return cleanRun;
+    }
+
+    /**
+     * Heart rate from the median of the newest (up to RATE_BEATS) clean
+     * intervals, or NaN before the first clean interval.
+     */
+    public double getBeatRateBpm() {
+        if (cleanCount == 0) return Double.NaN;
+        return 60.0 / RobustStats.median(cleanIbis, cleanCount, work);
+    }
+
+    public void reset() {
+        samples = 0;
+        learning = true;
+        learnAmplitude = 0.0;
+        trough = Double.POSITIVE_INFINITY;
+        amplitudeEstimate = 0.0;
+        ibiEstimate = Double.NaN;
+        ibiOutliers = 0;
+        pending = false;
+        lastBeatTime = Double.NaN;
+        beatTime = Double.NaN;
+        ibi = Double.NaN;
+        confidence = 0.0;
+        beatAmplitude = 0.0;
+        beatCount = 0;
+        cleanRun = 0;
+        lastClean = false;
+        cleanPos = 0;
+        cleanCount = 0;
+    }
+}
@@ -0,0 +1,295 @@
+package com.example.yo7a.healthwatcher;
+
+/**
+ * Per-beat signal quality index (SQI) for the camera PPG.
+ *
+ * - Gets the same band-passed samples and times as the BeatDetector, plus the
+ *   raw channel level, through addSample(); they are kept in a short ring.
+ * - When the detector reports a beat, scoreBeat() cuts the pulse around it
+ *   (from half an interval before the peak to 0.4 intervals after it),
+ *   resamples it to TEMPLATE_POINTS points and correlates it with a running
+ *   template of the accepted pulses. The template follows the accepted beats
+ *   and restarts from the current beat after MAX_SHAPE_OUTLIERS consecutive
+ *   misfits, so a real change of pulse shape is learned.
+ * - A beat is flagged as motion if its raw level jumped by more than
+ *   MOTION_LEVEL_STEP since the previous beat or its amplitude exceeds
+ *   MOTION_AMPLITUDE_RATIO times the running amplitude, and as clipped if a
+ *   raw sample reached CLIP_LEVEL.
+ * - SQI = template correlation (0 for flagged beats); estimators should only
+ *   use beats with isAcceptable(). shouldAdjustFinger() turns true at once
+ *   for clipping, after ADJUST_BEATS unacceptable beats in a row or when no
+ *   beat came for NO_BEAT_SECONDS, so the UI can ask for the finger to be
+ *   repositioned without waiting for the end of the window.
+ *
+ * Everything is O(1) per sample and O(ring size) per beat, without allocations.
+ */
+public final class BeatQualityIndex {
+
+    public static final int TEMPLATE_POINTS = 32;
+    public static final double MIN_SQI = 0.8;
+    public static final int ADJUST_BEATS = 3;
+    public static final double NO_BEAT_SECONDS = 3.0;
+    // camera channel averages are 0..255
+    public static final double CLIP_LEVEL = 250.0;
+
+    private static final double MOTION_LEVEL_STEP = 0.05;
+    private static final double MOTION_AMPLITUDE_RATIO = 3.0;
+    private static final int MAX_SHAPE_OUTLIERS = 4;
+    private static final double TEMPLATE_ALPHA = 0.1;
+    private static final double AMPLITUDE_ALPHA = 0.125;
+    private static final double BEFORE_PEAK = 0.5;
+    private static final double AFTER_PEAK = 0.4;
+    private static final double DEFAULT_IBI_SECONDS = 0.8;
+    // covers BEFORE_PEAK + AFTER_PEAK of the longest interval plus the detector's delay at 60 fps
+    private static final int RING = 256;
+
+    private final double[] ringT = new double[RING];
+    private final double[] ringX = new double[RING];
+    private final double[] ringRaw = new double[RING];
+    private int ringPos = 0;
+    private int ringCount = 0;
+
+    private final double[] pulse = new double[TEMPLATE_POINTS];
+    private final double[] template = new double[TEMPLATE_POINTS];
+    private int templateBeats = 0;
+    private int shapeOutliers = 0;
+
+    private double interval = DEFAULT_IBI_SECONDS;
+    private double amplitudeEstimate = 0.0;
+    private double lastLevel = Double.NaN;
+    private double firstTime = Double.NaN;
+    private double lastBeatTime = Double.NaN;
+    private double lastSampleTime = Double.NaN;
+
+    // last beat
+    private double correlation = Double.NaN;
+    private double sqi = 0.0;
+    private boolean motion = false;
+    private boolean clipped = false;
+    private int badRun = 0;
+
+    /**
+     * Pushes one sample.
+     *
+     * @param x   band-passed sample as given to the BeatDetector
+     * @param raw raw channel level of the frame
+     * @param t   sample time as given to the BeatDetector
+     */
+    public void addSample(double x, double raw, double t) {
+        if (Double.isNaN(firstTime)) firstTime = t;
+        ringT[ringPos] = t;
+        ringX[ringPos] = x;
+        ringRaw[ringPos] = raw;
+        ringPos = (ringPos + 1) % RING;
+        if (ringCount < RING) ringCount++;
+        lastSampleTime = t;
+    }
+
+    /**
+     * Scores the beat the detector just reported. Call after addSample() of
+     * the sample that completed it.
+     *
+     * @param beatTime   time of the beat peak
+     * @param ibi        interval to the previous beat, NaN if unknown
+     * @param confidence the detector's confidence; only clean beats seed the template
+     * @return the beat's SQI in [0, 1]
+     */
+    public double scoreBeat(double beatTime, double ibi, double confidence) {
+        boolean timed = !Double.isNaN(ibi)
+                && ibi > 60.0 / BeatDetector.MAX_BPM && ibi < 60.0 / BeatDetector.MIN_BPM;
+        if (timed) interval = ibi;
+        lastBeatTime = beatTime;
+        correlation = Double.NaN;
+        motion = false;
+        clipped = false;
+        sqi = 0.0;
+        // the pulse is cut by the interval; the first template needs a known
+        // interval and a clean beat (not the prefilter's start-up transient)
+        if (templateBeats == 0 && (!timed || confidence < BeatDetector.CLEAN_CONFIDENCE)) {
+            if (timed) badRun++;
+            return sqi;
+        }
+
+        double start = beatTime - BEFORE_PEAK * interval;
+        double end = beatTime + AFTER_PEAK * interval;
+        if (!extract(start, end)) {
+            badRun++;
+            return sqi;
+        }
+
+        if (templateBeats == 0) {
+            System.arraycopy(pulse, 0, template, 0, TEMPLATE_POINTS);
+            templateBeats = 1;
+            correlation = 1.0;
+        } else {
+            correlation = correlate(pulse, template);
+        }
+
+        boolean shapeOk = correlation >= MIN_SQI;
+        if (!motion && !clipped) {
+            if (shapeOk) {
+                double alpha = Math.max(TEMPLATE_ALPHA, 1.0 / (templateBeats + 1));
+                for (int j = 0; j < TEMPLATE_POINTS; j++) {
+                    template[j] += alpha * (pulse[j] - template[j]);
+                }
+                templateBeats++;
+                shapeOutliers = 0;
+            } else if (++shapeOutliers >= MAX_SHAPE_OUTLIERS) {
+                // the pulse shape changed; follow it
+                System.arraycopy(pulse, 0, template, 0, TEMPLATE_POINTS);
+                templateBeats = 1;
+                shapeOutliers = 0;
+            }
+        }
+
+        sqi = (motion || clipped) ? 0.0 : Math.max(0.0, correlation);
+        if (sqi >= MIN_SQI) {
+            badRun = 0;
+        } else {
+            badRun++;
+        }
+        return sqi;
+    }
+
+    // resamples the band-passed pulse in [start, end] into `pulse` (zero mean,
+    // unit norm) and sets the motion / clipping flags
+    private boolean extract(double start, double end) {
+        if (ringCount < 2) return false;
+        int oldest = (ringPos - ringCount + RING) % RING;
+        if (ringT[oldest] > start) return false;
+        int newest = (ringPos - 1 + RING) % RING;
+        if (ringT[newest] < end) end = ringT[newest];
+        if (end <= start) return false;
+
+        // walk the ring once: resample, collect level, amplitude and clipping
+        int i = oldest;
+        int left = ringCount - 1;
+        double levelSum = 0.0;
+        int levelCount = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        double step = (end - start) / (TEMPLATE_POINTS - 1);
+        int j = 0;
+        while (left > 0 && j < TEMPLATE_POINTS) {
+            int next = (i + 1) % RING;
+            double t0 = ringT[i], t1 = ringT[next];
+            if (t1 >= start && t0 <= end) {
+                levelSum += ringRaw[next];
+                levelCount++;
+                if (ringRaw[next] >= CLIP_LEVEL) clipped = true;
+                if (ringX[next] < min) min = ringX[next];
+                if (ringX[next] > max) max = ringX[next];
+            }
+            double tau = start + j * step;
+            while (j < TEMPLATE_POINTS && tau <= t1) {
+                double w = (t1 > t0) ? (tau - t0) / (t1 - t0) : 0.0;
+                if (w < 0) w = 0.0;
+                pulse[j] = ringX[i] + w * (ringX[next] - ringX[i]);
+                j++;
+                tau = start + j * step;
+            }
+            i = next;
+            left--;
+        }
+        // the end may coincide with the newest sample
+        while (j < TEMPLATE_POINTS) pulse[j++] = ringX[newest];
+        if (!normalize(pulse)) return false;
+
+        double level = (levelCount > 0) ? levelSum / levelCount : Double.NaN;
+        double amplitude = max - min;
+        if (!Double.isNaN(lastLevel) && level > 0
+                && Math.abs(level - lastLevel) > MOTION_LEVEL_STEP * level) {
+            motion = true;
+        }
+        if (amplitudeEstimate > 0 && amplitude > MOTION_AMPLITUDE_RATIO * amplitudeEstimate) {
+            motion = true;
+        }
+        lastLevel = level;
+        if (!motion && !clipped) {
+            amplitudeEstimate = (amplitudeEstimate > 0)
+                    ? amplitudeEstimate + AMPLITUDE_ALPHA * (amplitude - amplitudeEstimate)
+                    : amplitude;
+        }
+        return true;
+    }
+
+    private static boolean normalize(double[] v) {
+        double mean = 0.0;
+        for (double x : v) mean += x;
+        mean /= v.length;
+        double norm = 0.0;
+        for (int j = 0; j < v.length; j++) {
+            v[j] -= mean;
+            norm += v[j] * v[j];
+        }
+        if (norm <= 0) return false;
+        norm = 1.0 / Math.sqrt(norm);
+        for (int j = 0; j < v.length; j++) v[j] *= norm;
+        return true;
+    }
+
+    // correlation of a unit, zero-mean vector with the (zero-mean) template
+    private static double correlate(double[] a, double[] b) {
+        double ab = 0.0, bb = 0.0;
+        for (int j = 0; j < a.length; j++) {
+            ab += a[j] * b[j];
+            bb += b[j] * b[j];
+        }
+        return (bb > 0) ? ab / Math.sqrt(bb) : 0.0;
+    }
+
+    /** SQI of the last beat in [0, 1]. */
+    public double getSqi() {
+        return sqi;
+    }
+
+    /** Template correlation of the last beat, NaN if it could not be cut out. */
+    public double getCorrelation() {
+        return correlation;
+    }
+
+    public boolean isMotion() {
+        return motion;
+    }
+
+    public boolean isClipped() {
+        return clipped;
+    }
+
+    /** Whether the last beat is good enough for the estimators. */
+    public boolean isAcceptable() {
+        return sqi >= MIN_SQI;
+    }
+
+    /** Number of consecutive unacceptable beats up to the last one. */
+    public int getBadRun() {
+        return badRun;
+    }
+
+    /**
+     * True if the finger should be repositioned now: the last beat clipped,
+     * ADJUST_BEATS unacceptable beats in a row or no beat for NO_BEAT_SECONDS.
+     */
+    public boolean shouldAdjustFinger() {
+        if (clipped || badRun >= ADJUST_BEATS) return true;
+        double since = Double.isNaN(lastBeatTime) ? firstTime : lastBeatTime;
+        return !Double.isNaN(since) && lastSampleTime - since > NO_BEAT_SECONDS;
+    }
+
+    public void reset() {
+        ringPos = 0;
+        ringCount = 0;
+        templateBeats = 0;
+        shapeOutliers = 0;
+        interval = DEFAULT_IBI_SECONDS;
+        amplitudeEstimate = 0.0;
+        lastLevel = Double.NaN;
+        firstTime = Double.NaN;
+        lastBeatTime = Double.NaN;
+        lastSampleTime = Double.NaN;
+        correlation = Double.NaN;
+        sqi = 0.0;
+        motion = false;
+        clipped = false;
+        badRun = 0;
+    }
+}
@@ -11,9 +11,7 @@ import android.view.SurfaceView;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class BloodPressureProcess extends Activity {
@@ -44,20 +42,25 @@ public class BloodPressureProcess extends Activity {
     private int frameCounter = 0;
     private double samplingFreq = 0.0;
 
-    // Result smoothing/history
-    private final Deque<Integer> recentHrDeque = new ArrayDeque<>(6);
+    // HR of the successive analyses with its confidence interval
+    private final HrTracker hrTracker = new HrTracker();
+    private final StoppingController stopping = new StoppingController(STOP_POLICY);
+    private double lastAnalysisSec = 0.0;
+    private boolean haveResult = false;
 
     // Blood pressure results
     private int SP = 0, DP = 0;
 
     // Constants & thresholds
-    private static final double REQUIRED_SECONDS_MIN = 12.0;
-    private static final double REQUIRED_SECONDS_MAX = 30.0;
+    private static final StoppingController.Policy STOP_POLICY = StoppingController.Policy.BLOOD_PRESSURE;
     private static final int MIN_FRAMES = 40;
     private static final int MIN_HR = 40;
     private static final int MAX_HR = 200;
     private static final double SNR_THRESHOLD = 4.0;
     private static final double CALIBRATION_MULTIPLIER = 1.0;
+    // the window is re-analysed at this interval; successive windows overlap,
+    // which the HR tracker is told about
+    private static final double ANALYSIS_HOP_SECONDS = 2.0;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -142,12 +145,16 @@ public class BloodPressureProcess extends Activity {
             if (elapsedSec > 0.5) samplingFreq = frameCounter / elapsedSec;
 
             if (progBP != null) {
-                int p = Math.min(100, (int) Math.round(Math.min(elapsedSec / REQUIRED_SECONDS_MAX, 1.0) * 100.0));
+                int p = (int) Math.round(stopping.getTimeFraction(elapsedSec) * 100.0);
                 progBP.setProgress(p);
             }
 
-            if (elapsedSec >= REQUIRED_SECONDS_MIN && frameCounter >= MIN_FRAMES) {
-                int desiredFrames = (int) Math.round(Math.max(MIN_FRAMES, REQUIRED_SECONDS_MAX * Math.max(1.0, samplingFreq)));
+            boolean usable = false;
+            if (elapsedSec >= STOP_POLICY.minSeconds && frameCounter >= MIN_FRAMES
+                    && elapsedSec - lastAnalysisSec >= ANALYSIS_HOP_SECONDS) {
+                double hopSec = elapsedSec - lastAnalysisSec;
+                lastAnalysisSec = elapsedSec;
+                int desiredFrames = (int) Math.round(Math.max(MIN_FRAMES, STOP_POLICY.maxSeconds * Math.max(1.0, samplingFreq)));
                 while (greenAvgList.size() > desiredFrames) {
                     greenAvgList.remove(0);
                     redAvgList.remove(0);
@@ -157,74 +164,46 @@ public class BloodPressureProcess extends Activity {
                 int N = frameCounter;
                 if (N < MIN_FRAMES) { processing.set(false); return; }
 
-                double[] samples = new double[N];
-                for (int i = 0; i < N; i++) samples[i] = greenAvgList.get(i);
+                double[] greenSamples = new double[N];
+                double[] redSamples = new double[N];
+                for (int i = 0; i < N; i++) {
+                    greenSamples[i] = greenAvgList.get(i);
+                    redSamples[i] = redAvgList.get(i);
+                }
 
-                SignalProcessing.removeLinearTrend(samples);
-                SignalProcessing.applyHammingWindow(samples);
+                SignalProcessing.removeLinearTrend(greenSamples);
+                SignalProcessing.applyHammingWindow(greenSamples);
+                SignalProcessing.removeLinearTrend(redSamples);
+                SignalProcessing.applyHammingWindow(redSamples);
 
+                // green and red fallback come out of a single paired FFT
                 double minHz = 0.7, maxHz = 4.0;
-                double[] outSNR = new double[1];
-                double freqHz = SignalProcessing.findDominantFrequencyHz(samples, samplingFreq, minHz, maxHz, outSNR);
-                double snr = (outSNR != null && outSNR.length > 0) ? outSNR[0] : 0.0;
+                double[] outFreq = new double[2];
+                double[] outSNR = new double[2];
+                SignalProcessing.findDominantFrequenciesHz(new double[][]{greenSamples, redSamples},
+                        samplingFreq, minHz, maxHz, outFreq, outSNR);
+                double freqHz = outFreq[0];
+                double snr = outSNR[0];
 
                 if (Double.isNaN(freqHz) || freqHz <= 0 || snr < SNR_THRESHOLD) {
-                    for (int i = 0; i < N; i++) samples[i] = redAvgList.get(i);
-                    SignalProcessing.removeLinearTrend(samples);
-                    SignalProcessing.applyHammingWindow(samples);
-                    freqHz = SignalProcessing.findDominantFrequencyHz(samples, samplingFreq, minHz, maxHz, outSNR);
-                    snr = (outSNR != null && outSNR.length > 0) ? outSNR[0] : 0.0;
+                    freqHz = outFreq[1];
+                    snr = outSNR[1];
                 }
 
                 int hr = (freqHz > 0 && !Double.isNaN(freqHz)) ? (int) Math.round(freqHz * 60.0) : 0;
-
-                if (hr < MIN_HR || hr > MAX_HR || snr < SNR_THRESHOLD) {
-                    if (elapsedSec >= REQUIRED_SECONDS_MAX) {
-                        showShortToast("Measurement failed — reposition finger and try again");
-                        resetBuffers();
-                        startTime = System.currentTimeMillis();
-                    }
-                    processing.set(false);
-                    return;
-                }
-
-                if (recentHrDeque.size() == 6) recentHrDeque.pollFirst();
-                recentHrDeque.offerLast(hr);
-                int finalHr = medianOfDeque(recentHrDeque);
-
-                double Qfactor = (gender == 1) ? 5.0 : 4.5;
-                double ROB = 18.5;
-                double ET = 364.5 - 1.23 * finalHr;
-                double BSA = 0.007184 * Math.pow(weight, 0.425) * Math.pow(height, 0.725);
-                double SV = -6.6 + 0.25 * (ET - 35) - 0.62 * finalHr + 40.4 * BSA - 0.51 * age;
-                if (Double.isNaN(SV) || SV <= 0) SV = Math.max(20.0, SV);
-                double PP = SV / ((0.013 * weight - 0.007 * age - 0.004 * finalHr) + 1.307);
-                if (Double.isNaN(PP) || PP <= 0) PP = 30.0;
-                double MPP = Qfactor * ROB;
-                double spRaw = (MPP + 1.5 * PP) * CALIBRATION_MULTIPLIER;
-                double dpRaw = (MPP - PP / 3.0) * CALIBRATION_MULTIPLIER;
-                SP = (int) Math.round(spRaw);
-                DP = (int) Math.round(dpRaw);
-
-                if (SP < 70 || SP > 260 || DP < 40 || DP > 180) {
-                    if (elapsedSec >= REQUIRED_SECONDS_MAX) {
-                        showShortToast("BP estimation failed — try again");
-                        resetBuffers();
-                        startTime = System.currentTimeMillis();
-                    }
-                    processing.set(false);
-                    return;
-                }
-
-                double snrScore = Math.min(1.0, snr / (SNR_THRESHOLD * 2.0));
-                double hrStability = computeStabilityScore(recentHrDeque);
-                double confidence = 0.6 * snrScore + 0.4 * hrStability;
-
-                if (confidence < 0.45 && elapsedSec < REQUIRED_SECONDS_MAX) {
-                    processing.set(false);
-                    return;
+                if (hr >= MIN_HR && hr <= MAX_HR && snr >= SNR_THRESHOLD) {
+                    hrTracker.updateSpectral(freqHz * 60.0, snr, 60.0 * samplingFreq / N,
+                            N / samplingFreq, hopSec, elapsedSec);
+                    usable = estimateBp((int) Math.round(hrTracker.getBpm()));
                 }
+            }
 
+            // the BP follows from the HR, so the HR interval decides when it is done
+            StoppingController.Decision decision = usable
+                    ? stopping.update(elapsedSec, hrTracker.getBpm(), hrTracker.getHalfWidth())
+                    : stopping.poll(elapsedSec);
+            if (decision == StoppingController.Decision.DONE
+                    || (decision == StoppingController.Decision.TIMEOUT && haveResult)) {
                 new Thread(() -> {
                     try {
                         int local = progP;
@@ -240,7 +219,12 @@ public class BloodPressureProcess extends Activity {
                 }).start();
 
                 resetBuffers();
-                processing.set(false);
+            } else if (decision == StoppingController.Decision.TIMEOUT) {
+                showShortToast("BP estimation failed — try again");
+                resetBuffers();
+            } else if (decision == StoppingController.Decision.ABORT) {
+                showShortToast("Measurement failed — reposition finger and try again");
+                resetBuffers();
             }
 
         } catch (Exception e) {
@@ -293,38 +277,42 @@ public class BloodPressureProcess extends Activity {
         return result;
     }
 
+    // SP / DP for the given HR; false (keeping the last result) if they are implausible
+    private boolean estimateBp(int finalHr) {
+        double Qfactor = (gender == 1) ? 5.0 : 4.5;
+        double ROB = 18.5;
+        double ET = 364.5 - 1.23 * finalHr;
+        double BSA = 0.007184 * Math.pow(weight, 0.425) * Math.pow(height, 0.725);
+        double SV = -6.6 + 0.25 * (ET - 35) - 0.62 * finalHr + 40.4 * BSA - 0.51 * age;
+        if (Double.isNaN(SV) || SV <= 0) SV = Math.max(20.0, SV);
+        double PP = SV / ((0.013 * weight - 0.007 * age - 0.004 * finalHr) + 1.307);
+        if (Double.isNaN(PP) || PP <= 0) PP = 30.0;
+        double MPP = Qfactor * ROB;
+        double spRaw = (MPP + 1.5 * PP) * CALIBRATION_MULTIPLIER;
+        double dpRaw = (MPP - PP / 3.0) * CALIBRATION_MULTIPLIER;
+        int sp = (int) Math.round(spRaw);
+        int dp = (int) Math.round(dpRaw);
+        if (sp < 70 || sp > 260 || dp < 40 || dp > 180) return false;
+        SP = sp;
+        DP = dp;
+        haveResult = true;
+        return true;
+    }
+
     private void resetBuffers() {
         redAvgList.clear();
         greenAvgList.clear();
         frameCounter = 0;
         startTime = System.currentTimeMillis();
         samplingFreq = 0.0;
-        recentHrDeque.clear();
+        hrTracker.reset();
+        stopping.reset();
+        lastAnalysisSec = 0.0;
+        haveResult = false;
         progP = 0;
         if (progBP != null) progBP.setProgress(0);
     }
 
-    private int medianOfDeque(Deque<Integer> dq) {
-        if (dq.isEmpty()) return 0;
-        int n = dq.size();
-        int[] arr = new int[n];
-        int i = 0;
-        for (int v : dq) arr[i++] = v;
-        java.util.Arrays.sort(arr);
-        return arr[n / 2];
-    }
-
-    private double computeStabilityScore(Deque<Integer> dq) {
-        if (dq.isEmpty()) return 0.0;
-        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
-        for (int v : dq) {
-            min = Math.min(min, v);
-            max = Math.max(max, v);
-        }
-        double span = Math.max(1.0, max - min);
-        return Math.max(0.0, 1.0 - (span / 10.0));
-    }
-
     private void showShortToast(String msg) {
         if (mainToast != null) mainToast.cancel();
         mainToast = Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_SHORT);
@@ -0,0 +1,38 @@
+package com.example.yo7a.healthwatcher;
+
+/**
+ * Arithmetic precision of a measurement session's signal path.
+ *
+ * DOUBLE is the reference path. FLOAT runs the per-frame band-pass of the
+ * heart rate and SpO2 sessions through FloatCascade and keeps the SpO2
+ * window's samples, detrending, windowing and FFTs in single precision,
+ * which halves the memory traffic; the inputs are 8-bit channel means, so
+ * float loses nothing measurable (see FloatPipelineAccuracyTest).
+ */
+public enum DspPrecision {
+    DOUBLE,
+    FLOAT;
+
+    /** Intent extra carrying the precision name for a measurement activity. */
+    public static final String EXTRA = "dspPrecision";
+
+    /**
+     * Precision for a session on this device: FLOAT on low-RAM devices, whose
+     * small in-order cores gain most from the halved memory traffic.
+     */
+    public static DspPrecision forDevice(boolean lowRamDevice) {
+        return lowRamDevice ? FLOAT : DOUBLE;
+    }
+
+    /**
+     * Parses a precision name, falling back to DOUBLE for null or unknown values.
+     */
+    public static DspPrecision fromName(String name) {
+        if (name != null) {
+            for (DspPrecision p : values()) {
+                if (p.name().equalsIgnoreCase(name)) return p;
+            }
+        }
+        return DOUBLE;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.Math.FloatFft1d;
+
+/**
+ * Single precision counterparts of the SignalProcessing helpers, used by
+ * sessions running with DspPrecision.FLOAT.
+ *
+ * Sample data, detrending, windowing and the FFT stay in float; sums over a
+ * whole window are accumulated in double so long windows do not lose
+ * precision. Magnitude spectra are returned as double so the peak search
+ * helpers of SignalProcessing can be shared.
+ */
+public final class FloatSignalProcessing {
+
+    private FloatSignalProcessing() {}
+
+    // last FFT plan; rebuilt only when the size changes
+    private static FloatFft1d fftPlan;
+
+    /**
+     * Remove linear trend from x[0..n) (in-place).
+     */
+    public static void removeLinearTrend(float[] x, int n) {
+        if (x == null || n < 2) return;
+        double sumX = 0.0, sumY = 0.0, sumXY = 0.0, sumXX = 0.0;
+        for (int i = 0; i < n; i++) {
+            sumX += i;
+            sumY += x[i];
+            sumXY += (double) i * x[i];
+            sumXX += (double) i * i;
+        }
+        double denom = n * sumXX - sumX * sumX;
+        if (Math.abs(denom) < 1e-12) return;
+        float slope = (float) ((n * sumXY - sumX * sumY) / denom);
+        float intercept = (float) ((sumY - slope * sumX) / n);
+        for (int i = 0; i < n; i++) {
+            x[i] -= slope * i + intercept;
+        }
+    }
+
+    /**
+     * Apply Hamming window to x[0..n) (in place).
+     */
+    public static void applyHammingWindow(float[] x, int n) {
+        if (x == null || n < 2) return;
+        for (int i = 0; i < n; i++) {
+            x[i] *= (float) (0.54 - 0.46 * Math.cos((2.0 * Math.PI * i) / (n - 1)));
+        }
+    }
+
+    public static double mean(float[] x, int n) {
+        double s = 0.0;
+        for (int i = 0; i < n; i++) s += x[i];
+        return (n > 0) ? s / n : 0.0;
+    }
+
+    /**
+     * Population standard deviation of x[0..n) around mean.
+     */
+    public static double std(float[] x, int n, double mean) {
+        double s = 0.0;
+        for (int i = 0; i < n; i++) {
+            double d = x[i] - mean;
+            s += d * d;
+        }
+        return (n > 0) ? Math.sqrt(s / n) : 0.0;
+    }
+
+    /**
+     * Magnitude spectra (fftSize / 2 bins each) of the first n samples of every
+     * channel, zero-padded to fftSize (a power of two).
+     */
+    public static double[][] magnitudeSpectra(float[][] channels, int n, int fftSize) {
+        FloatFft1d fft = plan(fftSize);
+        int half = fftSize / 2;
+        double[][] mags = new double[channels.length][half];
+        float[] buf = new float[fftSize];
+        for (int c = 0; c < channels.length; c++) {
+            int len = Math.min(n, fftSize);
+            System.arraycopy(channels[c], 0, buf, 0, len);
+            java.util.Arrays.fill(buf, len, fftSize, 0.0f);
+            fft.realForward(buf);
+            // packed layout: buf[0] = Re[0], buf[1] = Re[N/2], buf[2k], buf[2k+1] = Re, Im
+            double[] m = mags[c];
+            m[0] = Math.abs(buf[0]);
+            for (int k = 1; k < half; k++) {
+                m[k] = Math.hypot(buf[2 * k], buf[2 * k + 1]);
+            }
+        }
+        return mags;
+    }
+
+    /**
+     * Float variant of SignalProcessing.findDominantFrequencyHz on the first n
+     * samples; samples are not modified.
+     */
+    public static double findDominantFrequencyHz(float[] samples, int n, double samplingFreqHz,
+                                                 double minHz, double maxHz, double[] outSNR) {
+        if (samples == null || n < 4) return Double.NaN;
+        float[] x = new float[n];
+        System.arraycopy(samples, 0, x, 0, n);
+        removeLinearTrend(x, n);
+        applyHammingWindow(x, n);
+
+        int fftSize = SignalProcessing.nextPowerOfTwo(n);
+        double[] mags = magnitudeSpectra(new float[][]{x}, n, fftSize)[0];
+        return SignalProcessing.peakFrequencyHz(mags, samplingFreqHz / fftSize, minHz, maxHz, outSNR);
+    }
+
+    private static synchronized FloatFft1d plan(int fftSize) {
+        if (fftPlan == null || fftPlan.getSize() != fftSize) {
+            fftPlan = new FloatFft1d(fftSize);
+        }
+        return fftPlan;
+    }
+}
@@ -22,8 +22,6 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Queue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GlucoseActivity extends AppCompatActivity {
@@ -38,7 +36,10 @@ public class GlucoseActivity extends AppCompatActivity {
 
     private static final AtomicBoolean processing = new AtomicBoolean(false);
     private final ArrayList<Double> redAvgList = new ArrayList<>();
-    private final Queue<Integer> bpmQueue = new LinkedList<>();
+    // pulse of the successive spectra; its confidence interval ends the measurement
+    private final HrTracker hrTracker = new HrTracker();
+    private final StoppingController stopping = new StoppingController(StoppingController.Policy.GLUCOSE);
+    private double lastAnalysisSec = 0.0;
     private int frameCounter = 0;
     private long startTime = 0;
     private double samplingFreq;
@@ -49,8 +50,11 @@ public class GlucoseActivity extends AppCompatActivity {
     private int lastBPM = 0;
     private double lastGlucose = 0.0;
 
-    private static final double REQUIRED_SECONDS = 15.0;
     private static final int MIN_FRAMES = 40;
+    private static final double SNR_THRESHOLD = 4.0;
+    // the window is re-analysed at this interval; successive windows overlap,
+    // which the HR tracker is told about
+    private static final double ANALYSIS_HOP_SECONDS = 2.0;
     private static final int PERMISSION_REQUEST_CAMERA = 201;
 
     @Override
@@ -136,22 +140,33 @@ public class GlucoseActivity extends AppCompatActivity {
             double elapsedSec = (now - startTime) / 1000.0;
 
             runOnUiThread(() -> {
-                int progress = (int) Math.min(100, (elapsedSec / REQUIRED_SECONDS) * 100);
+                int progress = (int) Math.round(stopping.getTimeFraction(elapsedSec) * 100);
                 progGlucose.setProgress(progress);
                 textPercent.setText(progress + "%");
             });
 
-            if (elapsedSec >= REQUIRED_SECONDS && frameCounter >= MIN_FRAMES) {
+            boolean usable = false;
+            if (elapsedSec >= stopping.getPolicy().minSeconds && frameCounter >= MIN_FRAMES
+                    && elapsedSec - lastAnalysisSec >= ANALYSIS_HOP_SECONDS) {
+                double hopSec = elapsedSec - lastAnalysisSec;
+                lastAnalysisSec = elapsedSec;
                 samplingFreq = frameCounter / elapsedSec;
-                int fftSize = 1; while (fftSize < frameCounter) fftSize <<= 1;
-                double[] redArr = new double[fftSize];
-                for (int i = 0; i < fftSize; i++) redArr[i] = i < redAvgList.size() ? redAvgList.get(i) : 0.0;
-
-                int bpm = (int) Math.round(Fft.FFT(redArr) * 60.0);
-                bpmQueue.add(bpm);
-                if (bpmQueue.size() > 5) bpmQueue.poll();
-                int avgBPM = Math.round((float) bpmQueue.stream().mapToInt(Integer::intValue).sum() / bpmQueue.size());
+                double[] redArr = redAvgList.stream().mapToDouble(Double::doubleValue).toArray();
+                double[] snr = new double[1];
+                double freqHz = SignalProcessing.findDominantFrequencyHz(redArr, samplingFreq, 0.7, 4.0, snr);
+                if (freqHz > 0 && snr[0] >= SNR_THRESHOLD) {
+                    hrTracker.updateSpectral(freqHz * 60.0, snr[0], 60.0 * samplingFreq / redArr.length,
+                            redArr.length / samplingFreq, hopSec, elapsedSec);
+                    usable = true;
+                }
+            }
 
+            StoppingController.Decision decision = usable
+                    ? stopping.update(elapsedSec, hrTracker.getBpm(), hrTracker.getHalfWidth())
+                    : stopping.poll(elapsedSec);
+            if (decision == StoppingController.Decision.DONE
+                    || (decision == StoppingController.Decision.TIMEOUT && hrTracker.hasEstimate())) {
+                int avgBPM = (int) Math.round(hrTracker.getBpm());
                 double glucose = GlucoseEstimator.estimateCombinedGlucose(smoothedRed, avgBPM, mealFactor);
 
                 lastBPM = avgBPM;
@@ -162,6 +177,9 @@ public class GlucoseActivity extends AppCompatActivity {
                     textPulse.setText("Pulse: " + avgBPM + " BPM");
                 });
 
+                stopSensing();
+            } else if (decision != StoppingController.Decision.CONTINUE) {
+                showToast("No pulse found, reposition finger and try again");
                 stopSensing();
             }
 
@@ -189,7 +207,9 @@ public class GlucoseActivity extends AppCompatActivity {
 
     private void resetBuffers() {
         redAvgList.clear();
-        bpmQueue.clear();
+        hrTracker.reset();
+        stopping.reset();
+        lastAnalysisSec = 0.0;
         frameCounter = 0;
         if (progGlucose != null) {
             progGlucose.setProgress(0);
@@ -252,21 +272,4 @@ public class GlucoseActivity extends AppCompatActivity {
         }
         return result;
     }
-
-    /** Minimal FFT helper class for the activity */
-    public static class Fft {
-        // Simple peak frequency detection (placeholder)
-        public static double FFT(double[] data) {
-            if (data.length == 0) return 0.0;
-            double max = data[0];
-            int maxIndex = 0;
-            for (int i = 1; i < data.length; i++) {
-                if (data[i] > max) { max = data[i]; maxIndex = i; }
-            }
-            // frequency estimation placeholder: index / length
-            return (double) maxIndex / data.length;
-        }
-    }
 }
-
-
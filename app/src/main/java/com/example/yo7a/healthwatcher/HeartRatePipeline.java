@@ -0,0 +1,238 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.Math.DoubleRingBuffer;
+
+/**
+ * Per-frame heart rate measurement of HeartRateProcess, free of Android so
+ * that tests replay exactly what the activity does.
+ *
+ * - Frames are pushed with add(green, red, t): both channel means run
+ *   through one HR band-pass, re-tuned to the measured frame rate after the
+ *   first second and kept in single precision in a FLOAT session. Beats are detected on the band-passed green channel and
+ *   scored by a BeatQualityIndex; clean beats feed the HrvEngine and the
+ *   HrTracker.
+ * - Once SPECTRAL_MIN_SECONDS and MIN_FRAMES are in, every Welch hop adds
+ *   the averaged spectrum of the newest segments to a SpectralPeakTracker; if the track is
+ *   not above SNR_THRESHOLD, the band-passed green and red window (up to the
+ *   time limit) is analysed instead. A spectral estimate counts as usable
+ *   only if the HrTracker took it and the last beat was acceptable.
+ * - The StoppingController decides after every frame, by POLICY or by the
+ *   longer Policy.HRV of an HRV session; add() returns its decision and
+ *   getResultBpm() the rate to show on DONE or TIMEOUT.
+ *
+ * Nothing is allocated per frame except by the whole-window fallback.
+ */
+public final class HeartRatePipeline {
+
+    /** Policy of a plain heart rate session; it also bounds the fallback window. */
+    public static final StoppingController.Policy POLICY = StoppingController.Policy.HEART_RATE;
+    /** No spectral estimate before this much data is in. */
+    public static final double SPECTRAL_MIN_SECONDS = 8.0;
+    public static final int MIN_FRAMES = 40;
+    public static final int MIN_BPM = 40;
+    public static final int MAX_BPM = 200;
+
+    private static final double SNR_THRESHOLD = 4.0;
+    // fastest change of rate the spectral track follows
+    private static final double MAX_SLOPE_BPM_PER_SECOND = 5.0;
+    private static final double NOMINAL_FPS = 30.0;
+    // highest preview rate the window buffers are sized for
+    private static final double MAX_FPS = 60.0;
+    // the prefilter is re-tuned to the measured frame rate after this time
+    private static final double RATE_SETTLE_SECONDS = 1.0;
+
+    // ~8.5 s segments at 30 fps, 75% overlap; the average of the newest 4 spans ~15 s
+    private final WelchPsdEstimator welch = new WelchPsdEstimator(256, 64, 4);
+    // HR path through the newest ~17 s of averaged spectra, one column per Welch hop
+    private final SpectralPeakTracker peakTracker = new SpectralPeakTracker(
+            welch.getFftSize() / 2, 0.7, 4.0, MAX_SLOPE_BPM_PER_SECOND, 8);
+    private final double[] averagedPsd = new double[welch.getFftSize() / 2];
+    // HR band prefilter for green and red (frame = {green, red}); designed for the
+    // nominal preview rate, re-tuned as the frame rate settles
+    private final BandPassPrefilter ppgFilter;
+    private final double[] ppgFrame = new double[2];
+    // band-passed window for the whole-window fallback
+    private final DoubleRingBuffer greenWindow = new DoubleRingBuffer((int) (POLICY.maxSeconds * MAX_FPS));
+    private final DoubleRingBuffer redWindow = new DoubleRingBuffer((int) (POLICY.maxSeconds * MAX_FPS));
+    // beats on the band-passed green channel
+    private final BeatDetector beatDetector = new BeatDetector();
+    // per-beat quality; rejected beats count as unclean for the rate and HRV
+    private final BeatQualityIndex beatQuality = new BeatQualityIndex();
+    // HRV of the clean beats, stored with the result
+    private final HrvEngine hrv = new HrvEngine();
+    // fuses clean beat intervals and spectral peaks; its confidence interval ends the measurement
+    private final HrTracker tracker = new HrTracker();
+    private final StoppingController stopping;
+    private final double[] outFreq = new double[2];
+    private final double[] outSNR = new double[2];
+
+    private int frames = 0;
+    private double samplingFreq = 0.0;
+
+    public HeartRatePipeline() {
+        this(DspPrecision.DOUBLE);
+    }
+
+    /**
+     * @param precision arithmetic of the band-pass prefilter
+     */
+    public HeartRatePipeline(DspPrecision precision) {
+        this(precision, POLICY);
+    }
+
+    /**
+     * @param precision arithmetic of the band-pass prefilter
+     * @param policy    when to stop, e.g. StoppingController.Policy.HRV for a
+     *                  session long enough for LF/HF
+     */
+    public HeartRatePipeline(DspPrecision precision, StoppingController.Policy policy) {
+        ppgFilter = BandPassPrefilter.heartRate(NOMINAL_FPS, 2, precision);
+        stopping = new StoppingController(policy);
+    }
+
+    /**
+     * Pushes one frame.
+     *
+     * @param green mean green level of the frame
+     * @param red   mean red level of the frame
+     * @param t     seconds since the start of the measurement
+     * @return the stopping decision after this frame
+     */
+    public StoppingController.Decision add(double green, double red, double t) {
+        frames++;
+        samplingFreq = frames / Math.max(t, 0.001);
+        if (t > RATE_SETTLE_SECONDS) ppgFilter.setSamplingFreq(samplingFreq);
+
+        ppgFrame[0] = green;
+        ppgFrame[1] = red;
+        ppgFilter.process(ppgFrame);
+        double greenBp = ppgFrame[0];
+        double redBp = ppgFrame[1];
+        greenWindow.add(greenBp);
+        redWindow.add(redBp);
+        boolean newSegment = welch.add(greenBp);
+
+        // intensity drops with each pulse; beat times are shifted back by the prefilter delay
+        double beatClock = t - ppgFilter.getGroupDelaySeconds();
+        boolean beat = beatDetector.add(-greenBp, beatClock);
+        boolean usable = false;
+        beatQuality.addSample(-greenBp, green, beatClock);
+        if (beat) {
+            beatQuality.scoreBeat(beatDetector.getBeatTime(), beatDetector.getIbi(),
+                    beatDetector.getConfidence());
+            if (!beatQuality.isAcceptable()) beatDetector.rejectBeat();
+            boolean clean = beatDetector.getConfidence() >= BeatDetector.CLEAN_CONFIDENCE;
+            hrv.add(beatDetector.getBeatTime(), clean ? beatDetector.getIbi() : Double.NaN);
+            if (clean) {
+                tracker.updateBeat(beatDetector.getIbi(), beatDetector.getConfidence(),
+                        beatDetector.getBeatTime());
+                usable = true;
+            }
+        }
+
+        // one spectral measurement per Welch hop; the spectra of successive
+        // frames share nearly all their data
+        if (newSegment && t >= SPECTRAL_MIN_SECONDS && frames >= MIN_FRAMES
+                && updateSpectral(t)) {
+            // band-passed noise has a spectral peak of its own; only count
+            // spectra the tracker took while the beats look like a pulse
+            usable = beatQuality.getBadRun() == 0 && !beatQuality.shouldAdjustFinger();
+        }
+
+        return usable
+                ? stopping.update(t, tracker.getBpm(), tracker.getHalfWidth())
+                : stopping.poll(t);
+    }
+
+    private boolean updateSpectral(double t) {
+        // track through the averaged green spectra first (one periodogram per segment,
+        // averaged in O(bins)); they resolve like one segment but span all averaged ones
+        double freqHz = Double.NaN;
+        double snr = 0.0;
+        int resolved = welch.getSegmentLength();
+        int analysed = welch.getSegmentLength() + (welch.getSegmentCount() - 1) * welch.getHop();
+        welch.getPsd(averagedPsd);
+        if (peakTracker.add(averagedPsd, samplingFreq / welch.getFftSize(), t)) {
+            freqHz = peakTracker.getFrequencyHz();
+            snr = peakTracker.getSnr();
+        }
+
+        if (Double.isNaN(freqHz) || freqHz <= 0 || snr < SNR_THRESHOLD) {
+            // the window up to the time limit
+            analysed = Math.min(greenWindow.size(), (int) (POLICY.maxSeconds * samplingFreq));
+            resolved = analysed;
+            double[] greenSamples = new double[analysed];
+            double[] redSamples = new double[analysed];
+            greenWindow.copyLast(analysed, greenSamples);
+            redWindow.copyLast(analysed, redSamples);
+            SignalProcessing.removeLinearTrend(greenSamples);
+            SignalProcessing.applyHammingWindow(greenSamples);
+            SignalProcessing.removeLinearTrend(redSamples);
+            SignalProcessing.applyHammingWindow(redSamples);
+
+            // green and red fallback come out of a single paired FFT
+            SignalProcessing.findDominantFrequenciesHz(new double[][]{greenSamples, redSamples},
+                    samplingFreq, 0.7, 4.0, outFreq, outSNR);
+            freqHz = outFreq[0];
+            snr = outSNR[0];
+
+            if (Double.isNaN(freqHz) || freqHz <= 0 || snr < SNR_THRESHOLD) {
+                freqHz = outFreq[1];
+                snr = outSNR[1];
+            }
+        }
+
+        if (!(freqHz > 0) || snr < SNR_THRESHOLD) return false;
+        // successive analyses overlap by all but one Welch hop
+        return tracker.updateSpectral(freqHz * 60.0, snr, 60.0 * samplingFreq / resolved,
+                analysed, welch.getHop(), t);
+    }
+
+    /**
+     * Rounded rate to report on DONE or TIMEOUT, 0 if there is no estimate
+     * within [MIN_BPM, MAX_BPM].
+     */
+    public int getResultBpm() {
+        if (!tracker.hasEstimate()) return 0;
+        int bpm = (int) Math.round(tracker.getBpm());
+        return (bpm >= MIN_BPM && bpm <= MAX_BPM) ? bpm : 0;
+    }
+
+    /** See BeatQualityIndex.shouldAdjustFinger(). */
+    public boolean shouldAdjustFinger() {
+        return beatQuality.shouldAdjustFinger();
+    }
+
+    /** Progress towards the time limit in [0, 1]. */
+    public double getTimeFraction(double t) {
+        return stopping.getTimeFraction(t);
+    }
+
+    public HrTracker getTracker() {
+        return tracker;
+    }
+
+    /** HRV of the clean beats so far. */
+    public HrvEngine getHrv() {
+        return hrv;
+    }
+
+    public int getFrameCount() {
+        return frames;
+    }
+
+    public void reset() {
+        frames = 0;
+        samplingFreq = 0.0;
+        welch.reset();
+        peakTracker.reset();
+        ppgFilter.reset();
+        greenWindow.clear();
+        redWindow.clear();
+        beatDetector.reset();
+        beatQuality.reset();
+        hrv.reset();
+        tracker.reset();
+        stopping.reset();
+    }
+}
@@ -11,14 +11,13 @@ import android.view.SurfaceView;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HeartRateProcess extends Activity {
 
     private static final String TAG = "HeartRateProcess";
+    /** Boolean intent extra: measure long enough for LF/HF (StoppingController.Policy.HRV). */
+    public static final String EXTRA_HRV = "Hrv";
     private static final AtomicBoolean processing = new AtomicBoolean(false);
 
     private SurfaceView preview;
@@ -28,24 +27,15 @@ public class HeartRateProcess extends Activity {
     private ProgressBar progHR;
     private Toast mainToast;
     private String user;
+    private UserDB Data;
 
-    private final ArrayList<Double> greenList = new ArrayList<>();
-    private final ArrayList<Double> redList = new ArrayList<>();
     private long startTime;
-    private int frameCount = 0;
-    private double samplingFreq = 0.0;
+    private boolean adjustShown = false;
 
-    private final Deque<Integer> recentBpms = new ArrayDeque<>(6);
-    private double emaBpm = -1.0;
+    // prefilter, beats, spectra, trackers and the stopping decision per frame
+    private HeartRatePipeline pipeline;
 
-    private static final double MIN_SECONDS = 8.0;
-    private static final double MAX_SECONDS = 30.0;
-    private static final int MIN_FRAMES = 40;
-    private static final int MIN_BPM = 40;
-    private static final int MAX_BPM = 200;
-    private static final double SNR_THRESHOLD = 4.0;
-    private static final double STABLE_DELTA = 3.0;
-    private static final int STABLE_COUNT = 3;
+    private static final int HRV_MIN_INTERVALS = 5;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -53,6 +43,11 @@ public class HeartRateProcess extends Activity {
         setContentView(R.layout.activity_heart_rate_process);
 
         user = getIntent().getStringExtra("Usr");
+        Data = new UserDB(getApplicationContext());
+        pipeline = new HeartRatePipeline(
+                DspPrecision.fromName(getIntent().getStringExtra(DspPrecision.EXTRA)),
+                getIntent().getBooleanExtra(EXTRA_HRV, false)
+                        ? StoppingController.Policy.HRV : HeartRatePipeline.POLICY);
 
         preview = findViewById(R.id.preview);
         previewHolder = preview.getHolder();
@@ -109,66 +104,36 @@ public class HeartRateProcess extends Activity {
             double red = ImageProcessing.decodeYUV420SPtoRedBlueGreenAvg(data, size.width, size.height, 1);
 
             if (green < 35 || red < 35) {
-                if (frameCount == 0) showToast("Place finger firmly on camera");
+                if (pipeline.getFrameCount() == 0) showToast("Place finger firmly on camera");
                 processing.set(false);
                 return;
             }
 
-            greenList.add(green);
-            redList.add(red);
-            frameCount++;
-
             double elapsedSec = (System.currentTimeMillis() - startTime) / 1000.0;
-            samplingFreq = frameCount / Math.max(elapsedSec, 0.001);
+            StoppingController.Decision decision = pipeline.add(green, red, elapsedSec);
+
+            // ask for the finger to be repositioned as soon as the beats go bad
+            boolean adjust = pipeline.shouldAdjustFinger();
+            if (adjust && !adjustShown) showToast("Adjust finger: cover the lens fully and hold still");
+            adjustShown = adjust;
 
             // Update progress
             if (progHR != null) {
-                int p = Math.min(100, (int) Math.round(Math.min(elapsedSec / MAX_SECONDS, 1.0) * 100.0));
+                int p = (int) Math.round(pipeline.getTimeFraction(elapsedSec) * 100.0);
                 progHR.setProgress(p);
             }
 
-            if (elapsedSec >= MIN_SECONDS && frameCount >= MIN_FRAMES) {
-                // Limit window to MAX_SECONDS
-                int maxFrames = (int)(MAX_SECONDS * samplingFreq);
-                while (greenList.size() > maxFrames) { greenList.remove(0); redList.remove(0); frameCount--; }
-
-                double[] samples = greenList.stream().mapToDouble(d -> d).toArray();
-                SignalProcessing.removeLinearTrend(samples);
-                SignalProcessing.applyHammingWindow(samples);
-
-                double[] outSNR = new double[1];
-                double freqHz = SignalProcessing.findDominantFrequencyHz(samples, samplingFreq, 0.7, 4.0, outSNR);
-                double snr = outSNR[0];
-
-                if (Double.isNaN(freqHz) || freqHz <= 0 || snr < SNR_THRESHOLD) {
-                    samples = redList.stream().mapToDouble(d -> d).toArray();
-                    SignalProcessing.removeLinearTrend(samples);
-                    SignalProcessing.applyHammingWindow(samples);
-                    freqHz = SignalProcessing.findDominantFrequencyHz(samples, samplingFreq, 0.7, 4.0, outSNR);
-                    snr = outSNR[0];
-                }
-
-                int bpm = (freqHz > 0) ? (int)Math.round(freqHz * 60.0) : 0;
-                if (bpm < MIN_BPM || bpm > MAX_BPM || snr < SNR_THRESHOLD) {
-                    if (elapsedSec >= MAX_SECONDS) showToast("Measurement failed — reposition finger");
-                    processing.set(false);
-                    return;
-                }
-
-                emaBpm = (emaBpm < 0) ? bpm : 0.45 * bpm + 0.55 * emaBpm;
-
-                if (recentBpms.size() == 6) recentBpms.pollFirst();
-                recentBpms.offerLast((int)Math.round(emaBpm));
-
-                int finalBpm = medianOfDeque(recentBpms);
-                if (checkStability(recentBpms, STABLE_DELTA, STABLE_COUNT) || elapsedSec >= MAX_SECONDS) {
-                    Intent i = new Intent(HeartRateProcess.this, HeartRateResult.class);
-                    i.putExtra("BPM", finalBpm);
-                    i.putExtra("Usr", user);
-                    startActivity(i);
-                    finish();
+            if (decision == StoppingController.Decision.DONE || decision == StoppingController.Decision.TIMEOUT) {
+                int bpm = pipeline.getResultBpm();
+                if (bpm > 0) {
+                    showResult(bpm);
+                } else {
+                    showToast("Measurement failed — reposition finger");
                     resetBuffers();
                 }
+            } else if (decision == StoppingController.Decision.ABORT) {
+                showToast("No pulse found — reposition finger");
+                resetBuffers();
             }
 
         } catch (Exception e) {
@@ -216,14 +181,32 @@ public class HeartRateProcess extends Activity {
         return result;
     }
 
+    private void showResult(int bpm) {
+        storeHrv();
+        Intent i = new Intent(HeartRateProcess.this, HeartRateResult.class);
+        i.putExtra("BPM", bpm);
+        i.putExtra("Usr", user);
+        startActivity(i);
+        finish();
+        resetBuffers();
+    }
+
+    private void storeHrv() {
+        HrvEngine hrv = pipeline.getHrv();
+        if (user == null || hrv.getDiffCount() < HRV_MIN_INTERVALS) return;
+        hrv.computeSpectral();
+        try {
+            Data.updateHrv(user, hrv.getRmssd(), hrv.getSdnn(), hrv.getPnn50(),
+                    hrv.getSd1(), hrv.getSd2(), hrv.getLfHfRatio());
+        } catch (Exception e) {
+            Log.e(TAG, "Storing HRV failed", e);
+        }
+    }
+
     private void resetBuffers() {
-        greenList.clear();
-        redList.clear();
-        frameCount = 0;
         startTime = System.currentTimeMillis();
-        samplingFreq = 0;
-        recentBpms.clear();
-        emaBpm = -1;
+        pipeline.reset();
+        adjustShown = false;
         if (progHR != null) progHR.setProgress(0);
     }
 
@@ -240,25 +223,4 @@ public class HeartRateProcess extends Activity {
         startActivity(i);
         finish();
     }
-
-    private int medianOfDeque(Deque<Integer> dq) {
-        int n = dq.size();
-        int[] arr = new int[n];
-        int idx = 0;
-        for (int v : dq) arr[idx++] = v;
-        java.util.Arrays.sort(arr);
-        return arr[n/2];
-    }
-
-    private boolean checkStability(Deque<Integer> dq, double delta, int count) {
-        if (dq.size() < count) return false;
-        Integer[] arr = dq.toArray(new Integer[0]);
-        int len = arr.length;
-        int start = len - count;
-        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
-        for (int i = start; i < len; i++) { min = Math.min(min, arr[i]); max = Math.max(max, arr[i]); }
-        return (max - min) <= delta;
-    }
 }
-
-
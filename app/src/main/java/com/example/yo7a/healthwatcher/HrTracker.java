@@ -0,0 +1,181 @@
+package com.example.yo7a.healthwatcher;
+
+/**
+ * Kalman filter tracking the heart rate from spectral and beat-interval measurements.
+ *
+ * - The state is the rate in bpm with its variance; between measurements it
+ *   follows a random walk of PROCESS_NOISE bpm^2 per second, so the estimate
+ *   can follow a real change of rate while its uncertainty grows with time.
+ * - Every measurement comes with its own variance: a spectral peak is as good
+ *   as the spectrum's resolution over the square root of its SNR, the rate of
+ *   a single beat interval carries the beat-to-beat variability
+ *   (BEAT_SIGMA_BPM, scaled up for less confident beats). The filter weighs
+ *   them accordingly, so either source alone or both together give an
+ *   estimate. Feed a spectral measurement once per new spectrum (e.g. per
+ *   Welch hop), not once per frame. Successive windows that overlap share
+ *   most of their samples, so their variance is inflated by window / hop:
+ *   the new samples of a hop then count once, however often they are
+ *   analysed.
+ * - A measurement more than GATE standard deviations of its innovation away
+ *   is ignored (an octave error of the spectrum, a missed beat); after
+ *   MAX_GATED ignored measurements in a row the track is assumed lost and
+ *   restarts from the newest one.
+ * - getHalfWidth() is the half width of the 95% confidence interval after
+ *   every update, for a StoppingController to end the measurement on;
+ *   isSettled() is the same test on the tracker alone, after at least
+ *   MIN_UPDATES measurements.
+ *
+ * Every call is O(1) and nothing is allocated.
+ */
+public final class HrTracker {
+
+    /** Two-sided 95% quantile of the normal distribution. */
+    public static final double Z_95 = 1.96;
+    public static final int MIN_UPDATES = 3;
+
+    // random walk of the rate, bpm^2 per second
+    private static final double PROCESS_NOISE = 0.25;
+    // rate spread of single beats in a steady rhythm (respiratory sinus arrhythmia)
+    private static final double BEAT_SIGMA_BPM = 3.0;
+    // spectral peaks are never trusted beyond this
+    private static final double MIN_SPECTRAL_SIGMA_BPM = 0.5;
+    private static final double GATE = 3.0;
+    private static final int MAX_GATED = 4;
+
+    private double rate = Double.NaN;
+    private double variance = Double.POSITIVE_INFINITY;
+    private double time = Double.NaN;
+    private int updates = 0;
+    private int gated = 0;
+
+    /**
+     * Adds a spectral rate estimate.
+     *
+     * @param bpm           peak frequency in bpm
+     * @param snr           peak SNR as returned by the spectral search
+     * @param resolutionBpm frequency resolution of the spectrum in bpm
+     *                      (60 * sampling rate / samples analysed)
+     * @param t             time of the measurement in seconds
+     * @return true if the measurement was used
+     */
+    public boolean updateSpectral(double bpm, double snr, double resolutionBpm, double t) {
+        return updateSpectral(bpm, snr, resolutionBpm, 1.0, 1.0, t);
+    }
+
+    /**
+     * Adds a spectral rate estimate of a window overlapping the previous one.
+     *
+     * @param window length of the analysed window
+     * @param hop    time since the previous analysis, in the unit of window
+     *               (seconds or samples); the variance is multiplied by
+     *               window / hop when that exceeds 1
+     * @see #updateSpectral(double, double, double, double)
+     */
+    public boolean updateSpectral(double bpm, double snr, double resolutionBpm,
+                                  double window, double hop, double t) {
+        if (!(snr > 0) || !(resolutionBpm > 0) || !(window > 0) || !(hop > 0)) return false;
+        double sigma = Math.max(MIN_SPECTRAL_SIGMA_BPM, resolutionBpm / Math.sqrt(snr));
+        return update(bpm, sigma * sigma * Math.max(1.0, window / hop), t);
+    }
+
+    /**
+     * Adds the rate of one beat interval.
+     *
+     * @param ibi        interval to the previous beat in seconds
+     * @param confidence the detector's confidence in the beat, in (0, 1]
+     * @param t          time of the beat in seconds
+     * @return true if the measurement was used
+     */
+    public boolean updateBeat(double ibi, double confidence, double t) {
+        if (!(ibi > 0) || !(confidence > 0)) return false;
+        double sigma = BEAT_SIGMA_BPM / Math.sqrt(Math.min(1.0, confidence));
+        return update(60.0 / ibi, sigma * sigma, t);
+    }
+
+    /**
+     * Adds a rate measurement with a known variance.
+     *
+     * @return true if the measurement was used, false if it was gated out
+     */
+    public boolean update(double bpm, double measurementVariance, double t) {
+        if (Double.isNaN(bpm) || !(measurementVariance > 0)) return false;
+        if (bpm < BeatDetector.MIN_BPM || bpm > BeatDetector.MAX_BPM) return false;
+        if (Double.isNaN(rate)) {
+            start(bpm, measurementVariance, t);
+            return true;
+        }
+        predict(t);
+        double innovation = bpm - rate;
+        double s = variance + measurementVariance;
+        if (innovation * innovation > GATE * GATE * s) {
+            if (++gated >= MAX_GATED) {
+                start(bpm, measurementVariance, t);
+                return true;
+            }
+            return false;
+        }
+        double gain = variance / s;
+        rate += gain * innovation;
+        variance *= 1.0 - gain;
+        gated = 0;
+        updates++;
+        return true;
+    }
+
+    /** Moves the estimate forward to time t; the variance grows by the process noise. */
+    public void predict(double t) {
+        if (Double.isNaN(rate)) return;
+        if (t > time) {
+            variance += PROCESS_NOISE * (t - time);
+            time = t;
+        }
+    }
+
+    private void start(double bpm, double measurementVariance, double t) {
+        rate = bpm;
+        variance = measurementVariance;
+        time = t;
+        updates = 1;
+        gated = 0;
+    }
+
+    public boolean hasEstimate() {
+        return !Double.isNaN(rate);
+    }
+
+    /** Rate estimate in bpm, NaN before the first measurement. */
+    public double getBpm() {
+        return rate;
+    }
+
+    /** Standard deviation of the estimate in bpm. */
+    public double getStdDev() {
+        return Math.sqrt(variance);
+    }
+
+    /** Half width of the 95% confidence interval in bpm. */
+    public double getHalfWidth() {
+        return Z_95 * Math.sqrt(variance);
+    }
+
+    /** Measurements used since the track (re)started. */
+    public int getUpdateCount() {
+        return updates;
+    }
+
+    /**
+     * True once at least MIN_UPDATES measurements are in and the 95%
+     * confidence interval is no wider than +-maxHalfWidthBpm.
+     */
+    public boolean isSettled(double maxHalfWidthBpm) {
+        return updates >= MIN_UPDATES && getHalfWidth() <= maxHalfWidthBpm;
+    }
+
+    public void reset() {
+        rate = Double.NaN;
+        variance = Double.POSITIVE_INFINITY;
+        time = Double.NaN;
+        updates = 0;
+        gated = 0;
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.Math.LombScargle;
+
+/**
+ * Streaming heart rate variability over a sliding window of beats.
+ *
+ * - Normal-to-normal intervals are pushed one beat at a time with add(); the
+ *   window keeps the newest beats spanning at most windowSeconds.
+ * - Running sums of the intervals, their successive differences and the
+ *   differences above 50 ms are updated as beats enter and leave the window,
+ *   so SDNN, RMSSD, pNN50 and the Poincare SD1 / SD2 cost O(1) per beat.
+ * - A successive difference is only formed between two consecutive clean
+ *   beats; pass NaN for a missed or rejected beat to break the chain.
+ * - LF / HF power comes from a Lomb-Scargle periodogram of the (linearly
+ *   detrended) interval series at the beat times, so the irregular series is
+ *   never resampled. It is computed on request by computeSpectral() with the
+ *   fast (FFT based) periodogram, independent of the session length.
+ *
+ * Intervals are passed in seconds; all results are in milliseconds (pNN50 in
+ * percent, LF and HF in ms^2). No allocations happen after construction.
+ */
+public final class HrvEngine {
+
+    public static final double DEFAULT_WINDOW_SECONDS = 300.0;
+
+    public static final double LF_LOW_HZ = 0.04;
+    public static final double LF_HIGH_HZ = 0.15;
+    public static final double HF_HIGH_HZ = 0.4;
+    // shortest window LF / HF is reported for (less than one LF period of 25 s
+    // would make the LF estimate meaningless)
+    public static final double MIN_SPECTRAL_SECONDS = 60.0;
+
+    private static final double NN50_MS = 50.0;
+    private static final int OVERSAMPLING = 4;
+
+    private final double windowSeconds;
+    private final int capacity;
+
+    // ring of beats: time (s), interval (ms), difference to the previous interval (ms, NaN if none)
+    private final double[] times;
+    private final double[] nn;
+    private final double[] diff;
+    private int head = 0;
+    private int count = 0;
+    private boolean chained = false;
+
+    // running sums; intervals relative to `ref` to keep the sum of squares accurate
+    private double ref = Double.NaN;
+    private double nnSum, nnSqSum;
+    private int diffCount, nn50Count;
+    private double diffSum, diffSqSum;
+
+    // spectral scratch
+    private final double[] spT;
+    private final double[] spY;
+    private final double[] power;
+    private final LombScargle lomb;
+    private double lf = Double.NaN;
+    private double hf = Double.NaN;
+
+    public HrvEngine() {
+        this(DEFAULT_WINDOW_SECONDS);
+    }
+
+    /**
+     * @param windowSeconds length of the sliding window
+     */
+    public HrvEngine(double windowSeconds) {
+        if (windowSeconds <= 0) {
+            throw new IllegalArgumentException("windowSeconds must be positive");
+        }
+        this.windowSeconds = windowSeconds;
+        // enough for BeatDetector.MAX_BPM over the whole window
+        this.capacity = (int) Math.ceil(windowSeconds * BeatDetector.MAX_BPM / 60.0) + 1;
+        times = new double[capacity];
+        nn = new double[capacity];
+        diff = new double[capacity];
+        spT = new double[capacity];
+        spY = new double[capacity];
+        int maxFreqs = (int) Math.ceil(HF_HIGH_HZ * OVERSAMPLING * windowSeconds) + 1;
+        power = new double[maxFreqs];
+        lomb = new LombScargle(maxFreqs);
+    }
+
+    /**
+     * Adds one beat.
+     *
+     * @param beatTime time of the beat in seconds
+     * @param ibi      interval to the previous beat in seconds, or NaN if the
+     *                 beat (or its predecessor) was not clean
+     */
+    public void add(double beatTime, double ibi) {
+        // drop beats that left the window
+        while (count > 0 && (count == capacity || beatTime - times[head] > windowSeconds)) {
+            removeOldest();
+        }
+        if (Double.isNaN(ibi) || ibi <= 0) {
+            chained = false;
+            return;
+        }
+
+        double x = 1000.0 * ibi;
+        if (count == 0) {
+            ref = x;
+            nnSum = 0;
+            nnSqSum = 0;
+        }
+        double d = Double.NaN;
+        if (chained && count > 0) {
+            d = x - nn[(head + count - 1) % capacity];
+            diffCount++;
+            diffSum += d;
+            diffSqSum += d * d;
+            if (Math.abs(d) > NN50_MS) nn50Count++;
+        }
+        int pos = (head + count) % capacity;
+        times[pos] = beatTime;
+        nn[pos] = x;
+        diff[pos] = d;
+        count++;
+        double r = x - ref;
+        nnSum += r;
+        nnSqSum += r * r;
+        chained = true;
+    }
+
+    private void removeOldest() {
+        double r = nn[head] - ref;
+        nnSum -= r;
+        nnSqSum -= r * r;
+        removeDiff(head);
+        head = (head + 1) % capacity;
+        count--;
+        // the new oldest beat has no predecessor in the window any more
+        if (count > 0) removeDiff(head);
+    }
+
+    private void removeDiff(int pos) {
+        double d = diff[pos];
+        if (Double.isNaN(d)) return;
+        diffCount--;
+        diffSum -= d;
+        diffSqSum -= d * d;
+        if (Math.abs(d) > NN50_MS) nn50Count--;
+        diff[pos] = Double.NaN;
+    }
+
+    /** Number of intervals in the window. */
+    public int getCount() {
+        return count;
+    }
+
+    /** Number of successive differences in the window. */
+    public int getDiffCount() {
+        return diffCount;
+    }
+
+    public double getMeanNn() {
+        return (count > 0) ? ref + nnSum / count : Double.NaN;
+    }
+
+    public double getSdnn() {
+        if (count < 2) return Double.NaN;
+        double var = (nnSqSum - nnSum * nnSum / count) / (count - 1);
+        return Math.sqrt(Math.max(0.0, var));
+    }
+
+    public double getRmssd() {
+        if (diffCount < 1) return Double.NaN;
+        return Math.sqrt(Math.max(0.0, diffSqSum / diffCount));
+    }
+
+    /** Standard deviation of the successive differences. */
+    public double getSdsd() {
+        if (diffCount < 2) return Double.NaN;
+        double var = (diffSqSum - diffSum * diffSum / diffCount) / (diffCount - 1);
+        return Math.sqrt(Math.max(0.0, var));
+    }
+
+    /** Percentage of successive differences above 50 ms. */
+    public double getPnn50() {
+        if (diffCount < 1) return Double.NaN;
+        return 100.0 * nn50Count / diffCount;
+    }
+
+    /** Poincare plot width, SD1 = SDSD / sqrt(2). */
+    public double getSd1() {
+        return Math.sqrt(0.5) * getSdsd();
+    }
+
+    /** Poincare plot length, SD2 = sqrt(2 SDNN^2 - SD1^2). */
+    public double getSd2() {
+        double sdnn = getSdnn();
+        double sd1 = getSd1();
+        return Math.sqrt(Math.max(0.0, 2 * sdnn * sdnn - sd1 * sd1));
+    }
+
+    /**
+     * Updates LF and HF power from the beats in the window.
+     *
+     * @return false (and LF / HF are NaN) if the window spans less than
+     * MIN_SPECTRAL_SECONDS
+     */
+    public boolean computeSpectral() {
+        lf = Double.NaN;
+        hf = Double.NaN;
+        if (count < 3) return false;
+        double first = times[head];
+        double span = times[(head + count - 1) % capacity] - first;
+        if (span < MIN_SPECTRAL_SECONDS) return false;
+
+        // copy out and remove the linear trend (least squares in time)
+        double st = 0, sy = 0;
+        for (int i = 0; i < count; i++) {
+            int p = (head + i) % capacity;
+            spT[i] = times[p] - first;
+            spY[i] = nn[p];
+            st += spT[i];
+            sy += spY[i];
+        }
+        double mt = st / count, my = sy / count;
+        double stt = 0, sty = 0;
+        for (int i = 0; i < count; i++) {
+            double dt = spT[i] - mt;
+            stt += dt * dt;
+            sty += dt * (spY[i] - my);
+        }
+        double slope = (stt > 0) ? sty / stt : 0.0;
+        for (int i = 0; i < count; i++) {
+            spY[i] -= my + slope * (spT[i] - mt);
+        }
+
+        double df = 1.0 / (OVERSAMPLING * span);
+        int nf = Math.min(power.length, (int) Math.floor(HF_HIGH_HZ / df));
+        lomb.periodogram(spT, spY, count, df, nf, power);
+
+        // P(f) -> one-sided PSD: a sinusoid of amplitude A has P ~ n A^2 / 4 over
+        // a main lobe ~1 / span wide and variance A^2 / 2, so PSD = P * 2 span / n
+        double scale = 2.0 * span / count * df;
+        double lfSum = 0, hfSum = 0;
+        for (int k = 0; k < nf; k++) {
+            double f = (k + 1) * df;
+            if (f >= LF_LOW_HZ && f < LF_HIGH_HZ) lfSum += power[k];
+            else if (f >= LF_HIGH_HZ && f < HF_HIGH_HZ) hfSum += power[k];
+        }
+        lf = lfSum * scale;
+        hf = hfSum * scale;
+        return true;
+    }
+
+    /** LF power (0.04-0.15 Hz) in ms^2 from the last computeSpectral(). */
+    public double getLf() {
+        return lf;
+    }
+
+    /** HF power (0.15-0.4 Hz) in ms^2 from the last computeSpectral(). */
+    public double getHf() {
+        return hf;
+    }
+
+    public double getLfHfRatio() {
+        return (hf > 0) ? lf / hf : Double.NaN;
+    }
+
+    public void reset() {
+        head = 0;
+        count = 0;
+        chained = false;
+        ref = Double.NaN;
+        nnSum = nnSqSum = 0;
+        diffCount = nn50Count = 0;
+        diffSum = diffSqSum = 0;
+        lf = hf = Double.NaN;
+    }
+}
@@ -20,8 +20,6 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-
 /**
  * Transforms from an analogue bandpass filter to a digital bandstop filter
  */
@@ -36,6 +34,12 @@ public class BandPassTransform {
     private final double ab;
     private final double ab_2;
 
+    // transformed poles and zeros of one analogue pole/zero
+    private final ComplexPair p = new ComplexPair();
+    private final ComplexPair z = new ComplexPair();
+    // {c, sqrt, u / d, v / d} as (re, im)
+    private final double[] t = new double[8];
+
     public BandPassTransform(double fc, double fw, LayoutBase digital,
                              LayoutBase analog) {
 
@@ -64,18 +68,19 @@ public class BandPassTransform {
         int pairs = numPoles / 2;
         for (int i = 0; i < pairs; ++i) {
             PoleZeroPair pair = analog.getPair(i);
-            ComplexPair p1 = transform(pair.poles.first);
-            ComplexPair z1 = transform(pair.zeros.first);
+            transform(pair.poles.firstRe, pair.poles.firstIm, p);
+            transform(pair.zeros.firstRe, pair.zeros.firstIm, z);
 
-            digital.addPoleZeroConjugatePairs(p1.first, z1.first);
-            digital.addPoleZeroConjugatePairs(p1.second, z1.second);
+            digital.addPoleZeroConjugatePairs(p.firstRe, p.firstIm, z.firstRe, z.firstIm);
+            digital.addPoleZeroConjugatePairs(p.secondRe, p.secondIm, z.secondRe, z.secondIm);
         }
 
         if ((numPoles & 1) == 1) {
-            ComplexPair poles = transform(analog.getPair(pairs).poles.first);
-            ComplexPair zeros = transform(analog.getPair(pairs).zeros.first);
+            PoleZeroPair pair = analog.getPair(pairs);
+            transform(pair.poles.firstRe, pair.poles.firstIm, p);
+            transform(pair.zeros.firstRe, pair.zeros.firstIm, z);
 
-            digital.add(poles, zeros);
+            digital.add(p, z);
         }
 
         double wn = analog.getNormalW();
@@ -84,31 +89,39 @@ public class BandPassTransform {
                         * Math.tan((wc2 + wn) * 0.5))), analog.getNormalGain());
     }
 
-    private ComplexPair transform(Complex c) {
-        if (c.isInfinite()) {
-            return new ComplexPair(new Complex(-1), new Complex(1));
+    private void transform(double re, double im, ComplexPair out) {
+        if (MathSupplement.isInfinite(re, im)) {
+            out.set(-1, 0, 1, 0);
+            return;
         }
 
-        c = ((new Complex(1)).add(c)).divide((new Complex(1)).subtract(c)); // bilinear
-
-        Complex v = new Complex(0);
-        v = MathSupplement.addmul(v, 4 * (b2 * (a2 - 1) + 1), c);
-        v = v.add(8 * (b2 * (a2 - 1) - 1));
-        v = v.multiply(c);
-        v = v.add(4 * (b2 * (a2 - 1) + 1));
-        v = v.sqrt();
-
-        Complex u = v.multiply(-1);
-        u = MathSupplement.addmul(u, ab_2, c);
-        u = u.add(ab_2);
-
-        v = MathSupplement.addmul(v, ab_2, c);
-        v = v.add(ab_2);
-
-        Complex d = new Complex(0);
-        d = MathSupplement.addmul(d, 2 * (b - 1), c).add(2 * (1 + b));
-
-        return new ComplexPair(u.divide(d), v.divide(d));
+        MathSupplement.bilinear(re, im, t, 0);
+        double cRe = t[0];
+        double cIm = t[1];
+
+        // v = sqrt((k1 c + k2) c + k1)
+        double k1 = 4 * (b2 * (a2 - 1) + 1);
+        double vRe = 0.0 + k1 * cRe + 8 * (b2 * (a2 - 1) - 1);
+        double vIm = 0.0 + k1 * cIm;
+        double tmp = vRe * cRe - vIm * cIm;
+        vIm = vRe * cIm + vIm * cRe;
+        vRe = tmp + k1;
+        MathSupplement.sqrt(vRe, vIm, t, 2);
+        vRe = t[2];
+        vIm = t[3];
+
+        double uRe = -vRe + ab_2 * cRe + ab_2;
+        double uIm = -vIm + ab_2 * cIm;
+
+        vRe = vRe + ab_2 * cRe + ab_2;
+        vIm = vIm + ab_2 * cIm;
+
+        double dRe = 0.0 + 2 * (b - 1) * cRe + 2 * (1 + b);
+        double dIm = 0.0 + 2 * (b - 1) * cIm;
+
+        MathSupplement.divide(uRe, uIm, dRe, dIm, t, 4);
+        MathSupplement.divide(vRe, vIm, dRe, dIm, t, 6);
+        out.set(t[4], t[5], t[6], t[7]);
     }
 
 }
@@ -20,8 +20,6 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-
 /**
  * Transforms from an analogue lowpass filter to a digital bandstop filter
  */
@@ -35,6 +33,12 @@ public class BandStopTransform {
     private final double a2;
     private final double b2;
 
+    // transformed poles and zeros of one analogue pole/zero
+    private final ComplexPair p = new ComplexPair();
+    private final ComplexPair z = new ComplexPair();
+    // {c, sqrt, u / d, v / d} as (re, im)
+    private final double[] t = new double[8];
+
 
     public BandStopTransform(double fc,
                              double fw,
@@ -63,17 +67,18 @@ public class BandStopTransform {
         int pairs = numPoles / 2;
         for (int i = 0; i < pairs; i++) {
             PoleZeroPair pair = analog.getPair(i);
-            ComplexPair p = transform(pair.poles.first);
-            ComplexPair z = transform(pair.zeros.first);
-            digital.addPoleZeroConjugatePairs(p.first, z.first);
-            digital.addPoleZeroConjugatePairs(p.second, z.second);
+            transform(pair.poles.firstRe, pair.poles.firstIm, p);
+            transform(pair.zeros.firstRe, pair.zeros.firstIm, z);
+            digital.addPoleZeroConjugatePairs(p.firstRe, p.firstIm, z.firstRe, z.firstIm);
+            digital.addPoleZeroConjugatePairs(p.secondRe, p.secondIm, z.secondRe, z.secondIm);
         }
 
         if ((numPoles & 1) == 1) {
-            ComplexPair poles = transform(analog.getPair(pairs).poles.first);
-            ComplexPair zeros = transform(analog.getPair(pairs).zeros.first);
+            PoleZeroPair pair = analog.getPair(pairs);
+            transform(pair.poles.firstRe, pair.poles.firstIm, p);
+            transform(pair.zeros.firstRe, pair.zeros.firstIm, z);
 
-            digital.add(poles, zeros);
+            digital.add(p, z);
         }
 
         if (fc < 0.25)
@@ -82,31 +87,40 @@ public class BandStopTransform {
             digital.setNormal(0, analog.getNormalGain());
     }
 
-    private ComplexPair transform(Complex c) {
-        if (c.isInfinite())
-            c = new Complex(-1);
-        else
-            c = ((new Complex(1)).add(c)).divide((new Complex(1)).subtract(c)); // bilinear
+    private void transform(double re, double im, ComplexPair out) {
+        double cRe;
+        double cIm;
+        if (MathSupplement.isInfinite(re, im)) {
+            cRe = -1;
+            cIm = 0;
+        } else {
+            MathSupplement.bilinear(re, im, t, 0);
+            cRe = t[0];
+            cIm = t[1];
+        }
 
-        Complex u = new Complex(0);
-        u = MathSupplement.addmul(u, 4 * (b2 + a2 - 1), c);
-        u = u.add(8 * (b2 - a2 + 1));
-        u = u.multiply(c);
-        u = u.add(4 * (a2 + b2 - 1));
-        u = u.sqrt();
+        // u = sqrt((k1 c + k2) c + k3)
+        double uRe = 0.0 + 4 * (b2 + a2 - 1) * cRe + 8 * (b2 - a2 + 1);
+        double uIm = 0.0 + 4 * (b2 + a2 - 1) * cIm;
+        double tmp = uRe * cRe - uIm * cIm;
+        uIm = uRe * cIm + uIm * cRe;
+        uRe = tmp + 4 * (a2 + b2 - 1);
+        MathSupplement.sqrt(uRe, uIm, t, 2);
+        uRe = t[2];
+        uIm = t[3];
 
-        Complex v = u.multiply(-.5);
-        v = v.add(a);
-        v = MathSupplement.addmul(v, -a, c);
+        double vRe = uRe * -.5 + a - a * cRe;
+        double vIm = uIm * -.5 - a * cIm;
 
-        u = u.multiply(.5);
-        u = u.add(a);
-        u = MathSupplement.addmul(u, -a, c);
+        uRe = uRe * .5 + a - a * cRe;
+        uIm = uIm * .5 - a * cIm;
 
-        Complex d = new Complex(b + 1);
-        d = MathSupplement.addmul(d, b - 1, c);
+        double dRe = (b + 1) + (b - 1) * cRe;
+        double dIm = 0.0 + (b - 1) * cIm;
 
-        return new ComplexPair(u.divide(d), v.divide(d));
+        MathSupplement.divide(uRe, uIm, dRe, dIm, t, 4);
+        MathSupplement.divide(vRe, vIm, dRe, dIm, t, 6);
+        out.set(t[4], t[5], t[6], t[7]);
     }
 
 }
@@ -20,9 +20,6 @@ package com.example.yo7a.healthwatcher.Math;
  *  Copyright (c) 2016 by Bernd Porr
  */
 
-import org.apache.commons.math3.analysis.solvers.LaguerreSolver;
-import org.apache.commons.math3.complex.Complex;
-
 /**
  * User facing class which contains all the methods the user uses to create
  * Bessel filters. This done in this way: Bessel bessel = new Bessel(); Then
@@ -48,7 +45,8 @@ public class Bessel extends Cascade {
         int degree;
 
         double[] m_a;
-        Complex[] m_root;
+        double[] m_rootRe;
+        double[] m_rootIm;
 
         // returns the k-th zero based coefficient of the reverse bessel
         // polynomial of degree n
@@ -64,7 +62,8 @@ public class Bessel extends Cascade {
             super(_degree);
             degree = _degree;
             m_a = new double[degree + 1]; // input coefficients (degree+1 elements)
-            m_root = new Complex[degree]; // array of roots (degree elements)
+            m_rootRe = new double[degree]; // roots (degree elements)
+            m_rootIm = new double[degree];
             setNormal(0, 1);
         }
 
@@ -75,19 +74,35 @@ public class Bessel extends Cascade {
                 m_a[i] = reversebessel(i, degree);
             }
 
-            LaguerreSolver laguerreSolver = new LaguerreSolver();
+            MathSupplement.polynomialRoots(m_a, m_rootRe, m_rootIm);
 
-            m_root = laguerreSolver.solveAllComplex(m_a, 0.0);
+            // the real root (odd degree) is the one closest to the real axis
+            int real = -1;
+            if ((degree & 1) == 1) {
+                real = 0;
+                for (int i = 1; i < degree; ++i)
+                    if (Math.abs(m_rootIm[i]) < Math.abs(m_rootIm[real]))
+                        real = i;
+            }
 
-            Complex inf = Complex.INF;
+            // one root of every conjugate pair: the upper half plane ones,
+            // ordered by decreasing imaginary part
             int pairs = degree / 2;
-            for (int i = 0; i < pairs; ++i) {
-                Complex c = m_root[i];
-                addPoleZeroConjugatePairs(c, inf);
+            for (int n = 0; n < pairs; ++n) {
+                int best = -1;
+                for (int i = 0; i < degree; ++i) {
+                    if (i == real || Double.isNaN(m_rootIm[i]))
+                        continue;
+                    if (best < 0 || m_rootIm[i] > m_rootIm[best])
+                        best = i;
+                }
+                addPoleZeroConjugatePairs(m_rootRe[best], Math.abs(m_rootIm[best]),
+                        Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+                m_rootIm[best] = Double.NaN;
             }
 
-            if ((degree & 1) == 1)
-                add(new Complex(m_root[pairs].getReal()), inf);
+            if (real >= 0)
+                add(m_rootRe[real], 0, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
         }
 
     }
@@ -126,7 +141,8 @@ public class Bessel extends Cascade {
      * @param sampleRate      The sampling rate of the system
      * @param cutoffFrequency The cutoff frequency
      * @param directFormType  The filter topology. This is either
-     *                        DirectFormAbstract.DIRECT_FORM_I or DIRECT_FORM_II
+     *                        DirectFormAbstract.DIRECT_FORM_I, DIRECT_FORM_II
+     *                        or DIRECT_FORM_II_TRANSPOSED
      */
     public void lowPass(int order, double sampleRate, double cutoffFrequency,
                         int directFormType) {
@@ -20,9 +20,6 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.complex.ComplexUtils;
-
 /**
  * Contains the coefficients of a 2nd order digital filter with two poles and two zeros
  */
@@ -59,30 +56,12 @@ public class Biquad {
         return m_b2 * m_a0;
     }
 
-    public Complex response(double normalizedFrequency) {
-        double a0 = getA0();
-        double a1 = getA1();
-        double a2 = getA2();
-        double b0 = getB0();
-        double b1 = getB1();
-        double b2 = getB2();
-
-        double w = 2 * Math.PI * normalizedFrequency;
-        Complex czn1 = ComplexUtils.polar2Complex(1., -w);
-        Complex czn2 = ComplexUtils.polar2Complex(1., -2 * w);
-        Complex ch = new Complex(1);
-        Complex cbot = new Complex(1);
-
-        Complex ct = new Complex(b0 / a0);
-        Complex cb = new Complex(1);
-        ct = MathSupplement.addmul(ct, b1 / a0, czn1);
-        ct = MathSupplement.addmul(ct, b2 / a0, czn2);
-        cb = MathSupplement.addmul(cb, a1 / a0, czn1);
-        cb = MathSupplement.addmul(cb, a2 / a0, czn2);
-        ch = ch.multiply(ct);
-        cbot = cbot.multiply(cb);
-
-        return ch.divide(cbot);
+    /**
+     * Writes {re, im} of the response at normalizedFrequency (cycles per
+     * sample) to reIm[0], reIm[1].
+     */
+    public void response(double normalizedFrequency, double[] reIm) {
+        CascadeKernels.biquadResponse(m_b0, m_b1, m_b2, m_a1, m_a2, normalizedFrequency, reIm, 0);
     }
 
     public void setCoefficients(double a0, double a1, double a2,
@@ -95,44 +74,47 @@ public class Biquad {
         m_b2 = b2 / a0;
     }
 
-    public void setOnePole(Complex pole, Complex zero) {
+    // real pole and zero
+    public void setOnePole(double pole, double zero) {
         double a0 = 1;
-        double a1 = -pole.getReal();
+        double a1 = -pole;
         double a2 = 0;
-        double b0 = -zero.getReal();
+        double b0 = -zero;
         double b1 = 1;
         double b2 = 0;
         setCoefficients(a0, a1, a2, b0, b1, b2);
     }
 
-    public void setTwoPole(Complex pole1, Complex zero1,
-                           Complex pole2, Complex zero2) {
+    public void setTwoPole(double pole1Re, double pole1Im, double zero1Re, double zero1Im,
+                           double pole2Re, double pole2Im, double zero2Re, double zero2Im) {
         double a0 = 1;
         double a1;
         double a2;
 
-        if (pole1.getImaginary() != 0) {
+        if (pole1Im != 0) {
 
-            a1 = -2 * pole1.getReal();
-            a2 = pole1.abs() * pole1.abs();
+            double abs = MathSupplement.abs(pole1Re, pole1Im);
+            a1 = -2 * pole1Re;
+            a2 = abs * abs;
         } else {
 
-            a1 = -(pole1.getReal() + pole2.getReal());
-            a2 = pole1.getReal() * pole2.getReal();
+            a1 = -(pole1Re + pole2Re);
+            a2 = pole1Re * pole2Re;
         }
 
         double b0 = 1;
         double b1;
         double b2;
 
-        if (zero1.getImaginary() != 0) {
+        if (zero1Im != 0) {
 
-            b1 = -2 * zero1.getReal();
-            b2 = zero1.abs() * zero1.abs();
+            double abs = MathSupplement.abs(zero1Re, zero1Im);
+            b1 = -2 * zero1Re;
+            b2 = abs * abs;
         } else {
 
-            b1 = -(zero1.getReal() + zero2.getReal());
-            b2 = zero1.getReal() * zero2.getReal();
+            b1 = -(zero1Re + zero2Re);
+            b2 = zero1Re * zero2Re;
         }
 
         setCoefficients(a0, a1, a2, b0, b1, b2);
@@ -156,10 +138,12 @@ public class Biquad {
 
     public void setPoleZeroPair(PoleZeroPair pair) {
         if (pair.isSinglePole()) {
-            setOnePole(pair.poles.first, pair.zeros.first);
+            setOnePole(pair.poles.firstRe, pair.zeros.firstRe);
         } else {
-            setTwoPole(pair.poles.first, pair.zeros.first,
-                    pair.poles.second, pair.zeros.second);
+            ComplexPair p = pair.poles;
+            ComplexPair z = pair.zeros;
+            setTwoPole(p.firstRe, p.firstIm, z.firstRe, z.firstIm,
+                    p.secondRe, p.secondIm, z.secondRe, z.secondIm);
         }
     }
 }
@@ -20,22 +20,19 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-
-import org.apache.commons.math3.complex.Complex;
-
 /**
  * PoleZeroPair with gain factor
  */
 public class BiquadPoleState extends PoleZeroPair {
 
 
-    public BiquadPoleState(Complex p, Complex z) {
-        super(p, z);
+    public BiquadPoleState(double pRe, double pIm, double zRe, double zIm) {
+        super(pRe, pIm, zRe, zIm);
     }
 
-    public BiquadPoleState(Complex p1, Complex z1,
-                           Complex p2, Complex z2) {
-        super(p1, z1, p2, z2);
+    public BiquadPoleState(double p1Re, double p1Im, double z1Re, double z1Im,
+                           double p2Re, double p2Im, double z2Re, double z2Im) {
+        super(p1Re, p1Im, z1Re, z1Im, p2Re, p2Im, z2Re, z2Im);
     }
 
     double gain;
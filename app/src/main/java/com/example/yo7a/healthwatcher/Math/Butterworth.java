@@ -20,9 +20,6 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.complex.ComplexUtils;
-
 /**
  * User facing class which contains all the methods the user uses
  * to create Butterworth filters. This done in this way:
@@ -48,13 +45,13 @@ public class Butterworth extends Cascade {
             double n2 = 2 * nPoles;
             int pairs = nPoles / 2;
             for (int i = 0; i < pairs; ++i) {
-                Complex c = ComplexUtils.polar2Complex(1F, Math.PI / 2.0
-                        + (2 * i + 1) * Math.PI / n2);
-                addPoleZeroConjugatePairs(c, Complex.INF);
+                double theta = Math.PI / 2.0 + (2 * i + 1) * Math.PI / n2;
+                addPoleZeroConjugatePairs(Math.cos(theta), Math.sin(theta),
+                        Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
             }
 
             if ((nPoles & 1) == 1)
-                add(new Complex(-1), Complex.INF);
+                add(-1, 0, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
         }
     }
 
@@ -91,7 +88,8 @@ public class Butterworth extends Cascade {
      * @param sampleRate      The sampling rate of the system
      * @param cutoffFrequency The cutoff frequency
      * @param directFormType  The filter topology. This is either
-     *                        DirectFormAbstract.DIRECT_FORM_I or DIRECT_FORM_II
+     *                        DirectFormAbstract.DIRECT_FORM_I, DIRECT_FORM_II
+     *                        or DIRECT_FORM_II_TRANSPOSED
      */
     public void lowPass(int order, double sampleRate, double cutoffFrequency,
                         int directFormType) {
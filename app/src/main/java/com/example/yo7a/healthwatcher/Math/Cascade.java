@@ -21,21 +21,26 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.complex.ComplexUtils;
-
 /**
  * The mother of all filters. It contains the coefficients of all
  * filter stages as a sequence of 2nd order filters and the states
- * of the 2nd order filters which also imply if it's direct form I or II
+ * of the 2nd order filters which also imply if it's direct form I, II
+ * or transposed II. Coefficients and states are kept in flat primitive
+ * arrays so that samples can be filtered one by one or in blocks.
  */
 public class Cascade {
 
     // coefficients
     private Biquad[] m_biquads;
 
-    // the states of the filters
-    private DirectFormAbstract[] m_states;
+    // coefficients flattened as {b0, b1, b2, a1, a2} per biquad (see CascadeKernels)
+    private double[] m_coeffs;
+
+    // filter states, CascadeKernels.STATE_STRIDE doubles per biquad
+    private double[] m_state;
+
+    // DirectFormAbstract.DIRECT_FORM_I, DIRECT_FORM_II or DIRECT_FORM_II_TRANSPOSED
+    private int m_directFormType;
 
     // number of biquads in the system
     private int m_numBiquads;
@@ -50,47 +55,171 @@ public class Cascade {
         return m_biquads[index];
     }
 
+    public int getDirectFormType() {
+        return m_directFormType;
+    }
+
+    /**
+     * Immutable copy of the current coefficients, which can be shared by
+     * several SosFilter states.
+     */
+    public SosCoefficients getCoefficients() {
+        return new SosCoefficients(m_coeffs, m_numBiquads);
+    }
+
     public Cascade() {
         m_numBiquads = 0;
         m_biquads = null;
-        m_states = null;
+        m_coeffs = null;
+        m_state = null;
     }
 
     public void reset() {
-        for (int i = 0; i < m_numBiquads; i++)
-            m_states[i].reset();
+        if (m_state != null)
+            java.util.Arrays.fill(m_state, 0);
     }
 
     public double filter(double in) {
-        double out = in;
-        for (int i = 0; i < m_numBiquads; i++) {
-            if (m_states[i] != null) {
-                out = m_states[i].process1(out, m_biquads[i]);
-            }
+        if (m_numBiquads == 0)
+            return in;
+        return CascadeKernels.processSample(m_directFormType, m_coeffs, m_state,
+                m_numBiquads, in);
+    }
+
+    /**
+     * Filters a block of samples. Gives exactly the same output and final
+     * state as calling filter(double) for every sample, but runs one biquad at
+     * a time over the whole block with its coefficients and state in registers.
+     *
+     * @param in  input samples in[off..off+len)
+     * @param out output samples out[off..off+len), may be the same array as in
+     * @param off index of the first sample
+     * @param len number of samples
+     */
+    public void filter(double[] in, double[] out, int off, int len) {
+        if (m_numBiquads == 0) {
+            if (in != out)
+                System.arraycopy(in, off, out, off, len);
+            return;
+        }
+        CascadeKernels.processBlock(m_directFormType, m_coeffs, m_state,
+                m_numBiquads, in, out, off, len);
+    }
+
+    /**
+     * Number of samples reflected at each end by filtfilt (3 * number of taps,
+     * as in scipy's sosfiltfilt), before clipping to the signal length.
+     */
+    public int getFiltFiltPadding() {
+        int ntaps = 2 * m_numBiquads + 1;
+        int trivialB = 0, trivialA = 0;
+        for (int s = 0; s < m_numBiquads; s++) {
+            if (m_coeffs[s * CascadeKernels.COEFF_STRIDE + 2] == 0) trivialB++;
+            if (m_coeffs[s * CascadeKernels.COEFF_STRIDE + 4] == 0) trivialA++;
         }
-        return out;
-    }
-
-    public Complex response(double normalizedFrequency) {
-        double w = 2 * Math.PI * normalizedFrequency;
-        Complex czn1 = ComplexUtils.polar2Complex(1., -w);
-        Complex czn2 = ComplexUtils.polar2Complex(1., -2 * w);
-        Complex ch = new Complex(1);
-        Complex cbot = new Complex(1);
-
-        for (int i = 0; i < m_numBiquads; i++) {
-            Biquad stage = m_biquads[i];
-            Complex cb = new Complex(1);
-            Complex ct = new Complex(stage.getB0() / stage.getA0());
-            ct = MathSupplement.addmul(ct, stage.getB1() / stage.getA0(), czn1);
-            ct = MathSupplement.addmul(ct, stage.getB2() / stage.getA0(), czn2);
-            cb = MathSupplement.addmul(cb, stage.getA1() / stage.getA0(), czn1);
-            cb = MathSupplement.addmul(cb, stage.getA2() / stage.getA0(), czn2);
-            ch = ch.multiply(ct);
-            cbot = cbot.multiply(cb);
+        return 3 * (ntaps - Math.min(trivialB, trivialA));
+    }
+
+    /**
+     * Size of the workspace filtfilt needs for len samples.
+     */
+    public int getFiltFiltWorkspaceSize(int len) {
+        int pad = Math.min(getFiltFiltPadding(), Math.max(0, len - 1));
+        return m_numBiquads * CascadeKernels.STATE_STRIDE * 2 + len + 2 * pad;
+    }
+
+    /**
+     * Zero-phase forward-backward filtering of in[off..off+len) into
+     * out[off..off+len), using this cascade's coefficients (the streaming state
+     * used by filter() is not touched).
+     * <p>
+     * Both ends are extended by odd reflection and every pass starts from the
+     * steady state matching its first sample, so the edges do not ring. The
+     * magnitude response is squared and the phase is zero.
+     *
+     * @param work workspace of at least getFiltFiltWorkspaceSize(len) entries,
+     *             or null to allocate one
+     */
+    public void filtfilt(double[] in, double[] out, int off, int len, double[] work) {
+        if (len <= 0)
+            return;
+        if (m_numBiquads == 0) {
+            if (in != out)
+                System.arraycopy(in, off, out, off, len);
+            return;
         }
+        int need = getFiltFiltWorkspaceSize(len);
+        if (work == null || work.length < need)
+            work = new double[need];
+
+        int pad = Math.min(getFiltFiltPadding(), len - 1);
+        int stateSize = m_numBiquads * CascadeKernels.STATE_STRIDE;
+        // layout: [state | unit steady state | extended signal]
+        int ziOff = stateSize;
+        int data = 2 * stateSize;
+        int extLen = len + 2 * pad;
+        int last = off + len - 1;
+
+        double first = in[off];
+        double end = in[last];
+        for (int i = 0; i < pad; i++) {
+            work[data + i] = 2 * first - in[off + pad - i];
+            work[data + pad + len + i] = 2 * end - in[last - 1 - i];
+        }
+        System.arraycopy(in, off, work, data + pad, len);
+
+        CascadeKernels.steadyStateTdf2(m_coeffs, m_numBiquads, work, ziOff);
+
+        // forward pass
+        double x0 = work[data];
+        for (int i = 0; i < stateSize; i++)
+            work[i] = work[ziOff + i] * x0;
+        CascadeKernels.processBlock(DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED,
+                m_coeffs, work, m_numBiquads, work, work, data, extLen);
+
+        // backward pass on the reversed signal
+        reverse(work, data, extLen);
+        x0 = work[data];
+        for (int i = 0; i < stateSize; i++)
+            work[i] = work[ziOff + i] * x0;
+        CascadeKernels.processBlock(DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED,
+                m_coeffs, work, m_numBiquads, work, work, data, extLen);
+        reverse(work, data, extLen);
+
+        System.arraycopy(work, data + pad, out, off, len);
+    }
+
+    private static void reverse(double[] a, int from, int len) {
+        for (int i = from, j = from + len - 1; i < j; i++, j--) {
+            double t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /**
+     * Writes {re, im} of the response at normalizedFrequency (cycles per
+     * sample) to reIm[0], reIm[1] without allocating.
+     */
+    public void response(double normalizedFrequency, double[] reIm) {
+        CascadeKernels.response(m_coeffs, m_numBiquads, normalizedFrequency, reIm, 0);
+    }
+
+    /**
+     * Evaluates the response over a whole frequency grid (cycles per sample).
+     *
+     * @param magnitude receives |H| for every frequency
+     * @param phase     receives arg(H) in (-pi, pi] for every frequency, or null
+     */
+    public void response(double[] normalizedFrequencies, double[] magnitude, double[] phase) {
+        CascadeKernels.magnitudePhase(m_coeffs, m_numBiquads, normalizedFrequencies, magnitude, phase);
+    }
 
-        return ch.divide(cbot);
+    /**
+     * Group delay in samples at normalizedFrequency (cycles per sample).
+     */
+    public double groupDelay(double normalizedFrequency) {
+        return CascadeKernels.groupDelay(m_coeffs, m_numBiquads, normalizedFrequency);
     }
 
     public void applyScale(double scale) {
@@ -98,6 +227,7 @@ public class Cascade {
         // to spread this factor between all the stages.
         if (m_biquads.length > 0) {
             m_biquads[0].applyScale(scale);
+            CascadeKernels.flatten(m_biquads, m_numBiquads, m_coeffs);
         }
     }
 
@@ -107,26 +237,24 @@ public class Cascade {
         m_biquads = new Biquad[m_numBiquads];
         switch (filterTypes) {
             case DirectFormAbstract.DIRECT_FORM_I:
-                m_states = new DirectFormI[m_numBiquads];
-                for (int i = 0; i < m_numBiquads; i++) {
-                    m_states[i] = new DirectFormI();
-                }
+            case DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED:
+                m_directFormType = filterTypes;
                 break;
             case DirectFormAbstract.DIRECT_FORM_II:
             default:
-                m_states = new DirectFormII[m_numBiquads];
-                for (int i = 0; i < m_numBiquads; i++) {
-                    m_states[i] = new DirectFormII();
-                }
+                m_directFormType = DirectFormAbstract.DIRECT_FORM_II;
                 break;
         }
+        m_coeffs = new double[m_numBiquads * CascadeKernels.COEFF_STRIDE];
+        m_state = new double[m_numBiquads * CascadeKernels.STATE_STRIDE];
         for (int i = 0; i < m_numBiquads; ++i) {
             PoleZeroPair p = proto.getPair(i);
             m_biquads[i] = new Biquad();
             m_biquads[i].setPoleZeroPair(p);
         }
+        CascadeKernels.flatten(m_biquads, m_numBiquads, m_coeffs);
         applyScale(proto.getNormalGain()
-                / ((response(proto.getNormalW() / (2 * Math.PI)))).abs());
+                / CascadeKernels.magnitude(m_coeffs, m_numBiquads, proto.getNormalW() / (2 * Math.PI)));
     }
 
 }
@@ -0,0 +1,283 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Biquad cascade kernels working on flattened primitive arrays.
+ * <p>
+ * Coefficients are stored COEFF_STRIDE doubles per stage as
+ * {b0, b1, b2, a1, a2}, already divided by a0. State is stored
+ * STATE_STRIDE doubles per stage:
+ * <ul>
+ * <li>direct form I: {x1, x2, y1, y2}</li>
+ * <li>direct form II: {v1, v2, -, -}</li>
+ * <li>transposed direct form II: {s1, s2, -, -}</li>
+ * </ul>
+ * The block kernels run stage by stage over the whole block with the
+ * coefficients and state held in locals. Every sample sees exactly the same
+ * arithmetic as DirectFormI/DirectFormII.process1, so block and per-sample
+ * filtering give identical results as long as the state stays above
+ * DirectFormAbstract.DENORMAL_THRESHOLD.
+ * <p>
+ * Recursive states are flushed to zero below that threshold: after every
+ * sample in processSample, and once per stage at the end of a block in
+ * processBlock (a state needs thousands of samples to decay from the
+ * threshold into the subnormal range, far longer than a typical block).
+ */
+final class CascadeKernels {
+
+    static final int COEFF_STRIDE = 5;
+    static final int STATE_STRIDE = 4;
+
+    private CascadeKernels() {
+    }
+
+    static double processSample(int form, double[] c, double[] st, int numStages, double in) {
+        double out = in;
+        switch (form) {
+            case DirectFormAbstract.DIRECT_FORM_I:
+                for (int s = 0, ci = 0, si = 0; s < numStages; s++, ci += COEFF_STRIDE, si += STATE_STRIDE) {
+                    double y = c[ci] * out + c[ci + 1] * st[si] + c[ci + 2] * st[si + 1]
+                            - c[ci + 3] * st[si + 2] - c[ci + 4] * st[si + 3];
+                    st[si + 1] = st[si];
+                    st[si + 3] = st[si + 2];
+                    st[si] = out;
+                    st[si + 2] = DirectFormAbstract.flushDenormal(y);
+                    out = y;
+                }
+                break;
+            case DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED:
+                for (int s = 0, ci = 0, si = 0; s < numStages; s++, ci += COEFF_STRIDE, si += STATE_STRIDE) {
+                    double y = c[ci] * out + st[si];
+                    st[si] = DirectFormAbstract.flushDenormal(c[ci + 1] * out - c[ci + 3] * y + st[si + 1]);
+                    st[si + 1] = DirectFormAbstract.flushDenormal(c[ci + 2] * out - c[ci + 4] * y);
+                    out = y;
+                }
+                break;
+            case DirectFormAbstract.DIRECT_FORM_II:
+            default:
+                for (int s = 0, ci = 0, si = 0; s < numStages; s++, ci += COEFF_STRIDE, si += STATE_STRIDE) {
+                    double w = out - c[ci + 3] * st[si] - c[ci + 4] * st[si + 1];
+                    double y = c[ci] * w + c[ci + 1] * st[si] + c[ci + 2] * st[si + 1];
+                    st[si + 1] = st[si];
+                    st[si] = DirectFormAbstract.flushDenormal(w);
+                    out = y;
+                }
+                break;
+        }
+        return out;
+    }
+
+    /**
+     * Filters in[off..off+len) into out[off..off+len). in and out may be the
+     * same array.
+     */
+    static void processBlock(int form, double[] c, double[] st, int numStages,
+                             double[] in, double[] out, int off, int len) {
+        processBlock(form, c, st, numStages, in, out, off, len, true);
+    }
+
+    /**
+     * processBlock with the state flush switchable; without it the kernel is
+     * the plain unguarded recursion, which DenormalBenchmark times against the
+     * guarded one.
+     */
+    static void processBlock(int form, double[] c, double[] st, int numStages,
+                             double[] in, double[] out, int off, int len, boolean flush) {
+        if (in != out) {
+            System.arraycopy(in, off, out, off, len);
+        }
+        int end = off + len;
+        for (int s = 0, ci = 0, si = 0; s < numStages; s++, ci += COEFF_STRIDE, si += STATE_STRIDE) {
+            double b0 = c[ci], b1 = c[ci + 1], b2 = c[ci + 2], a1 = c[ci + 3], a2 = c[ci + 4];
+            switch (form) {
+                case DirectFormAbstract.DIRECT_FORM_I: {
+                    double x1 = st[si], x2 = st[si + 1], y1 = st[si + 2], y2 = st[si + 3];
+                    for (int i = off; i < end; i++) {
+                        double x = out[i];
+                        double y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+                        x2 = x1;
+                        y2 = y1;
+                        x1 = x;
+                        y1 = y;
+                        out[i] = y;
+                    }
+                    st[si] = x1;
+                    st[si + 1] = x2;
+                    st[si + 2] = flush ? DirectFormAbstract.flushDenormal(y1) : y1;
+                    st[si + 3] = flush ? DirectFormAbstract.flushDenormal(y2) : y2;
+                    break;
+                }
+                case DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED: {
+                    double s1 = st[si], s2 = st[si + 1];
+                    for (int i = off; i < end; i++) {
+                        double x = out[i];
+                        double y = b0 * x + s1;
+                        s1 = b1 * x - a1 * y + s2;
+                        s2 = b2 * x - a2 * y;
+                        out[i] = y;
+                    }
+                    st[si] = flush ? DirectFormAbstract.flushDenormal(s1) : s1;
+                    st[si + 1] = flush ? DirectFormAbstract.flushDenormal(s2) : s2;
+                    break;
+                }
+                case DirectFormAbstract.DIRECT_FORM_II:
+                default: {
+                    double v1 = st[si], v2 = st[si + 1];
+                    for (int i = off; i < end; i++) {
+                        double w = out[i] - a1 * v1 - a2 * v2;
+                        double y = b0 * w + b1 * v1 + b2 * v2;
+                        v2 = v1;
+                        v1 = w;
+                        out[i] = y;
+                    }
+                    st[si] = flush ? DirectFormAbstract.flushDenormal(v1) : v1;
+                    st[si + 1] = flush ? DirectFormAbstract.flushDenormal(v2) : v2;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Transposed direct form II states {s1, s2} per stage that make the cascade
+     * settle immediately for a unit step input (the SOS analogue of lfilter_zi).
+     * Stage k sees the DC gain of stages 0..k-1 as its input level.
+     */
+    static void steadyStateTdf2(double[] c, int numStages, double[] zi, int ziOff) {
+        double level = 1.0;
+        for (int s = 0, ci = 0, zo = ziOff; s < numStages; s++, ci += COEFF_STRIDE, zo += STATE_STRIDE) {
+            double b0 = c[ci], b1 = c[ci + 1], b2 = c[ci + 2], a1 = c[ci + 3], a2 = c[ci + 4];
+            double den = 1.0 + a1 + a2;
+            double dc = (Math.abs(den) > 1e-300) ? (b0 + b1 + b2) / den : 0.0;
+            double y = dc * level;
+            zi[zo] = (b1 + b2) * level - (a1 + a2) * y;
+            zi[zo + 1] = b2 * level - a2 * y;
+            zi[zo + 2] = 0.0;
+            zi[zo + 3] = 0.0;
+            level = y;
+        }
+    }
+
+    /**
+     * Complex response H(e^jw) of the cascade at the given frequency (in
+     * cycles per sample), written as {re, im} to out[outOff], out[outOff + 1].
+     */
+    static void response(double[] c, int numStages, double normalizedFrequency,
+                         double[] out, int outOff) {
+        double w = 2 * Math.PI * normalizedFrequency;
+        // z^-1 and z^-2 on the unit circle
+        double z1r = Math.cos(w), z1i = -Math.sin(w);
+        double z2r = Math.cos(2 * w), z2i = -Math.sin(2 * w);
+        double nr = 1, ni = 0, dr = 1, di = 0;
+        for (int s = 0, ci = 0; s < numStages; s++, ci += COEFF_STRIDE) {
+            double tr = c[ci] + c[ci + 1] * z1r + c[ci + 2] * z2r;
+            double ti = c[ci + 1] * z1i + c[ci + 2] * z2i;
+            double br = 1 + c[ci + 3] * z1r + c[ci + 4] * z2r;
+            double bi = c[ci + 3] * z1i + c[ci + 4] * z2i;
+            double r = nr * tr - ni * ti;
+            ni = nr * ti + ni * tr;
+            nr = r;
+            r = dr * br - di * bi;
+            di = dr * bi + di * br;
+            dr = r;
+        }
+        double den = dr * dr + di * di;
+        out[outOff] = (nr * dr + ni * di) / den;
+        out[outOff + 1] = (ni * dr - nr * di) / den;
+    }
+
+    /**
+     * Response of a single biquad with a0 == 1, written like response().
+     */
+    static void biquadResponse(double b0, double b1, double b2, double a1, double a2,
+                               double normalizedFrequency, double[] out, int outOff) {
+        double w = 2 * Math.PI * normalizedFrequency;
+        double z1r = Math.cos(w), z1i = -Math.sin(w);
+        double z2r = Math.cos(2 * w), z2i = -Math.sin(2 * w);
+        double nr = b0 + b1 * z1r + b2 * z2r;
+        double ni = b1 * z1i + b2 * z2i;
+        double dr = 1 + a1 * z1r + a2 * z2r;
+        double di = a1 * z1i + a2 * z2i;
+        double den = dr * dr + di * di;
+        out[outOff] = (nr * dr + ni * di) / den;
+        out[outOff + 1] = (ni * dr - nr * di) / den;
+    }
+
+    /**
+     * |H(e^jw)| of the cascade, frequency in cycles per sample.
+     */
+    static double magnitude(double[] c, int numStages, double normalizedFrequency) {
+        double w = 2 * Math.PI * normalizedFrequency;
+        double z1r = Math.cos(w), z1i = -Math.sin(w);
+        double z2r = Math.cos(2 * w), z2i = -Math.sin(2 * w);
+        double g = 1;
+        for (int s = 0, ci = 0; s < numStages; s++, ci += COEFF_STRIDE) {
+            double tr = c[ci] + c[ci + 1] * z1r + c[ci + 2] * z2r;
+            double ti = c[ci + 1] * z1i + c[ci + 2] * z2i;
+            double br = 1 + c[ci + 3] * z1r + c[ci + 4] * z2r;
+            double bi = c[ci + 3] * z1i + c[ci + 4] * z2i;
+            g *= Math.sqrt((tr * tr + ti * ti) / (br * br + bi * bi));
+        }
+        return g;
+    }
+
+    /**
+     * Magnitude and phase over a frequency grid. Phase is in radians, wrapped
+     * to (-pi, pi], and may be null if only the magnitude is needed.
+     */
+    static void magnitudePhase(double[] c, int numStages, double[] normalizedFrequencies,
+                               double[] magnitude, double[] phase) {
+        double[] h = new double[2];
+        for (int k = 0; k < normalizedFrequencies.length; k++) {
+            if (phase == null) {
+                magnitude[k] = magnitude(c, numStages, normalizedFrequencies[k]);
+            } else {
+                response(c, numStages, normalizedFrequencies[k], h, 0);
+                magnitude[k] = Math.hypot(h[0], h[1]);
+                phase[k] = Math.atan2(h[1], h[0]);
+            }
+        }
+    }
+
+    /**
+     * Group delay -d(phase)/dw of the cascade in samples, frequency in cycles
+     * per sample. Evaluated exactly per stage as
+     * Re(sum k b_k z^-k / B) - Re(sum k a_k z^-k / A).
+     */
+    static double groupDelay(double[] c, int numStages, double normalizedFrequency) {
+        double w = 2 * Math.PI * normalizedFrequency;
+        double z1r = Math.cos(w), z1i = -Math.sin(w);
+        double z2r = Math.cos(2 * w), z2i = -Math.sin(2 * w);
+        double tau = 0;
+        for (int s = 0, ci = 0; s < numStages; s++, ci += COEFF_STRIDE) {
+            tau += delayTerm(c[ci], c[ci + 1], c[ci + 2], z1r, z1i, z2r, z2i)
+                    - delayTerm(1, c[ci + 3], c[ci + 4], z1r, z1i, z2r, z2i);
+        }
+        return tau;
+    }
+
+    // Re((p1 z^-1 + 2 p2 z^-2) / (p0 + p1 z^-1 + p2 z^-2))
+    private static double delayTerm(double p0, double p1, double p2,
+                                    double z1r, double z1i, double z2r, double z2i) {
+        double nr = p1 * z1r + 2 * p2 * z2r;
+        double ni = p1 * z1i + 2 * p2 * z2i;
+        double dr = p0 + p1 * z1r + p2 * z2r;
+        double di = p1 * z1i + p2 * z2i;
+        double den = dr * dr + di * di;
+        if (den < 1e-300) return 0;
+        return (nr * dr + ni * di) / den;
+    }
+
+    /**
+     * Copies the normalized coefficients of the biquads into the flat layout.
+     */
+    static void flatten(Biquad[] biquads, int numStages, double[] c) {
+        for (int s = 0, ci = 0; s < numStages; s++, ci += COEFF_STRIDE) {
+            Biquad b = biquads[s];
+            c[ci] = b.m_b0;
+            c[ci + 1] = b.m_b1;
+            c[ci + 2] = b.m_b2;
+            c[ci + 3] = b.m_a1;
+            c[ci + 4] = b.m_a2;
+        }
+    }
+}
@@ -21,47 +21,56 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-
 /**
- * A complex pair
+ * A complex pair, kept as primitive (re, im) doubles
  */
 public class ComplexPair {
 
-    public Complex first;
-    public Complex second;
+    public double firstRe;
+    public double firstIm;
+    public double secondRe;
+    public double secondIm;
+
+    ComplexPair() {
+    }
+
+    ComplexPair(double re1, double im1,
+                double re2, double im2) {
+        set(re1, im1, re2, im2);
+    }
 
-    ComplexPair(Complex c1,
-                Complex c2) {
-        first = c1;
-        second = c2;
+    ComplexPair(double re, double im) {
+        set(re, im, 0, 0);
     }
 
-    ComplexPair(Complex c1) {
-        first = c1;
-        second = new Complex(0, 0);
+    void set(double re1, double im1, double re2, double im2) {
+        firstRe = re1;
+        firstIm = im1;
+        secondRe = re2;
+        secondIm = im2;
     }
 
     boolean isConjugate() {
-        return second.equals(first.conjugate());
+        return secondRe == firstRe && secondIm == -firstIm;
     }
 
     boolean isReal() {
-        return first.getImaginary() == 0 && second.getImaginary() == 0;
+        return firstIm == 0 && secondIm == 0;
     }
 
     // Returns true if this is either a conjugate pair,
     // or a pair of reals where neither is zero.
     boolean isMatchedPair() {
-        if (first.getImaginary() != 0)
-            return second.equals(first.conjugate());
+        if (firstIm != 0)
+            return isConjugate();
         else
-            return second.getImaginary() == 0 &&
-                    second.getReal() != 0 &&
-                    first.getReal() != 0;
+            return secondIm == 0 &&
+                    secondRe != 0 &&
+                    firstRe != 0;
     }
 
     boolean is_nan() {
-        return first.isNaN() || second.isNaN();
+        return Double.isNaN(firstRe) || Double.isNaN(firstIm)
+                || Double.isNaN(secondRe) || Double.isNaN(secondIm);
     }
 }
@@ -0,0 +1,154 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * FFT based (Wiener-Khinchin) auto- and cross-correlation.
+ *
+ * Signals are zero-padded to a power of two of at least n + maxLag samples so the
+ * circular correlation computed by the FFT equals the linear one for every lag
+ * that is returned. Buffers are allocated once per instance; any signal of up to
+ * maxN samples and any lag up to maxLag can be processed without allocation.
+ *
+ * Cost is O(L log L) with L = nextPow2(n + maxLag), instead of O(n * maxLag)
+ * for the direct sums.
+ */
+public class Correlation {
+
+    private final int maxN;
+    private final int maxLag;
+    private final int fftSize;
+    private final DoubleFft1d fft;
+
+    private final double[] bufX;
+    private final double[] bufY;
+
+    /**
+     * @param maxN   largest signal length that will be passed in
+     * @param maxLag largest lag that will be requested
+     */
+    public Correlation(int maxN, int maxLag) {
+        if (maxN < 1 || maxLag < 0) {
+            throw new IllegalArgumentException("maxN must be > 0 and maxLag >= 0");
+        }
+        this.maxN = maxN;
+        this.maxLag = maxLag;
+        this.fftSize = Math.max(4, ConcurrencyUtils.nextPow2(maxN + maxLag));
+        this.fft = new DoubleFft1d(fftSize);
+        this.bufX = new double[fftSize];
+        this.bufY = new double[fftSize];
+    }
+
+    public int getMaxN() {
+        return maxN;
+    }
+
+    public int getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * Checks if this instance can process n samples up to the given lag.
+     */
+    public boolean fits(int n, int lag) {
+        return n <= maxN && lag <= maxLag;
+    }
+
+    /**
+     * Autocorrelation r[k] = sum_i x[i] * x[i + k] for k = 0..lag.
+     *
+     * @param x          input signal
+     * @param n          number of samples of x to use
+     * @param lag        largest lag to compute
+     * @param out        receives lag + 1 values
+     * @param unbiased   divide r[k] by the number of overlapping samples (n - k)
+     * @param normalized divide the result by r[0] so that out[0] == 1
+     */
+    public void autocorrelation(double[] x, int n, int lag, double[] out,
+                                boolean unbiased, boolean normalized) {
+        check(n, lag);
+        System.arraycopy(x, 0, bufX, 0, n);
+        java.util.Arrays.fill(bufX, n, fftSize, 0.0);
+
+        fft.realForward(bufX);
+        // |X|^2; packed layout: a[0] = Re[0], a[1] = Re[N/2], a[2k], a[2k+1] = Re, Im
+        bufX[0] = bufX[0] * bufX[0];
+        bufX[1] = bufX[1] * bufX[1];
+        for (int k = 2; k < fftSize; k += 2) {
+            double re = bufX[k];
+            double im = bufX[k + 1];
+            bufX[k] = re * re + im * im;
+            bufX[k + 1] = 0.0;
+        }
+        fft.realInverse(bufX, true);
+
+        int last = Math.min(lag, n - 1);
+        for (int k = 0; k <= last; k++) {
+            out[k] = unbiased ? bufX[k] / (n - k) : bufX[k];
+        }
+        for (int k = last + 1; k <= lag; k++) out[k] = 0.0;
+
+        if (normalized) {
+            double r0 = Math.max(1e-12, Math.abs(out[0]));
+            for (int k = 0; k <= lag; k++) out[k] /= r0;
+        }
+    }
+
+    /**
+     * Cross-correlation r[k] = sum_i x[i] * y[i + k] for k = -lag..lag.
+     * out[lag + k] holds r[k], so out needs 2 * lag + 1 entries and a peak at
+     * index lag + d means y lags x by d samples.
+     *
+     * @param unbiased   divide r[k] by the number of overlapping samples (n - |k|)
+     * @param normalized divide by sqrt(rxx[0] * ryy[0]) (scaled like r[k]), giving
+     *                   correlation coefficients in [-1, 1] for unbiased == false
+     */
+    public void crossCorrelation(double[] x, double[] y, int n, int lag, double[] out,
+                                 boolean unbiased, boolean normalized) {
+        check(n, lag);
+        System.arraycopy(x, 0, bufX, 0, n);
+        java.util.Arrays.fill(bufX, n, fftSize, 0.0);
+        System.arraycopy(y, 0, bufY, 0, n);
+        java.util.Arrays.fill(bufY, n, fftSize, 0.0);
+
+        double exx = 0.0, eyy = 0.0;
+        for (int i = 0; i < n; i++) {
+            exx += x[i] * x[i];
+            eyy += y[i] * y[i];
+        }
+
+        fft.realForward(bufX);
+        fft.realForward(bufY);
+        // conj(X) * Y
+        bufX[0] = bufX[0] * bufY[0];
+        bufX[1] = bufX[1] * bufY[1];
+        for (int k = 2; k < fftSize; k += 2) {
+            double xr = bufX[k], xi = bufX[k + 1];
+            double yr = bufY[k], yi = bufY[k + 1];
+            bufX[k] = xr * yr + xi * yi;
+            bufX[k + 1] = xr * yi - xi * yr;
+        }
+        fft.realInverse(bufX, true);
+
+        for (int k = -lag; k <= lag; k++) {
+            int abs = Math.abs(k);
+            double v = 0.0;
+            if (abs < n) {
+                v = bufX[k >= 0 ? k : fftSize + k];
+                if (unbiased) v /= (n - abs);
+            }
+            out[lag + k] = v;
+        }
+
+        if (normalized) {
+            double scale = Math.sqrt(exx * eyy);
+            if (unbiased) scale /= n;
+            scale = Math.max(1e-12, scale);
+            for (int k = 0; k <= 2 * lag; k++) out[k] /= scale;
+        }
+    }
+
+    private void check(int n, int lag) {
+        if (n < 1 || lag < 0 || !fits(n, lag)) {
+            throw new IllegalArgumentException("n/lag exceed the correlation capacity");
+        }
+    }
+}
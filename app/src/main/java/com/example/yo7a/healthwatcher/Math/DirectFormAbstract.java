@@ -23,7 +23,7 @@ package com.example.yo7a.healthwatcher.Math;
 /**
  * Abstract form of the a filter which can have different state variables
  * <p>
- * Direct form I or II is derived from it
+ * Direct form I, II or transposed II is derived from it
  */
 public abstract class DirectFormAbstract {
 
@@ -37,5 +37,19 @@ public abstract class DirectFormAbstract {
 
     public static final int DIRECT_FORM_I = 0;
     public static final int DIRECT_FORM_II = 1;
+    public static final int DIRECT_FORM_II_TRANSPOSED = 2;
+
+    /**
+     * Filter states below this magnitude are flushed to zero. When the input
+     * goes quiet the recursive states decay into subnormal doubles (and can
+     * stay there in a rounding limit cycle), which is many times slower on
+     * most ARM and x86 cores. The threshold is far below any signal level the
+     * filters are used with.
+     */
+    public static final double DENORMAL_THRESHOLD = 1e-30;
+
+    static double flushDenormal(double v) {
+        return (Math.abs(v) < DENORMAL_THRESHOLD) ? 0.0 : v;
+    }
 
 }
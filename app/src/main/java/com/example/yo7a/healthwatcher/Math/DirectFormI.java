@@ -44,7 +44,7 @@ public class DirectFormI extends DirectFormAbstract {
         m_x2 = m_x1;
         m_y2 = m_y1;
         m_x1 = in;
-        m_y1 = out;
+        m_y1 = flushDenormal(out);
 
         return out;
     }
@@ -43,7 +43,7 @@ public class DirectFormII extends DirectFormAbstract {
             double out = s.m_b0 * w + s.m_b1 * m_v1 + s.m_b2 * m_v2;
 
             m_v2 = m_v1;
-            m_v1 = w;
+            m_v1 = flushDenormal(w);
 
             return out;
         } else {
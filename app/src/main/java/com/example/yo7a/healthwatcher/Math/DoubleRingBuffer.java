@@ -0,0 +1,66 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Fixed capacity ring buffer of double samples, the full precision
+ * counterpart of FloatRingBuffer. Once full, every add() overwrites the
+ * oldest sample, so the buffer always holds the newest capacity samples
+ * without shifting or boxing.
+ */
+public class DoubleRingBuffer {
+
+    private final double[] data;
+    private int head;   // next slot to write
+    private int count;
+
+    public DoubleRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        data = new double[capacity];
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    public void add(double v) {
+        data[head] = v;
+        head = (head + 1 == data.length) ? 0 : head + 1;
+        if (count < data.length) count++;
+    }
+
+    /**
+     * @param i index from the oldest sample (0) to the newest (size() - 1)
+     */
+    public double get(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + count);
+        }
+        int idx = head - count + i;
+        if (idx < 0) idx += data.length;
+        return data[idx];
+    }
+
+    /**
+     * Copies the newest n samples, oldest first, into dst[0..n).
+     */
+    public void copyLast(int n, double[] dst) {
+        if (n < 0 || n > count) {
+            throw new IllegalArgumentException("n must be in [0, size()]");
+        }
+        int start = head - n;
+        if (start < 0) start += data.length;
+        int first = Math.min(n, data.length - start);
+        System.arraycopy(data, start, dst, 0, first);
+        System.arraycopy(data, 0, dst, first, n - first);
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.yo7a.healthwatcher.Math;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe LRU cache of Butterworth / Bessel designs.
+ * <p>
+ * Designing a filter goes through LayoutBase, PoleZeroPair and many Complex
+ * allocations, while the camera sampling rate is re-estimated all the time.
+ * Sampling rates are therefore quantized to multiples of the rate step and
+ * the filter is designed at the quantized rate, so nearby estimates share one
+ * entry. Entries are immutable SosCoefficients and can be used by any number
+ * of SosFilter states at once.
+ */
+public class FilterDesignCache {
+
+    public enum Family { BUTTERWORTH, BESSEL }
+
+    public enum Kind { LOW_PASS, HIGH_PASS, BAND_PASS, BAND_STOP }
+
+    public static final int DEFAULT_CAPACITY = 32;
+    public static final double DEFAULT_RATE_STEP_HZ = 0.25;
+
+    private static FilterDesignCache shared;
+
+    private final double rateStep;
+    private final LinkedHashMap<Key, SosCoefficients> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity maximum number of designs kept
+     * @param rateStep sampling rate quantization step in Hz
+     */
+    public FilterDesignCache(final int capacity, double rateStep) {
+        if (capacity < 1 || rateStep <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0 and rateStep > 0");
+        }
+        this.rateStep = rateStep;
+        this.entries = new LinkedHashMap<Key, SosCoefficients>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, SosCoefficients> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Process wide instance with the default capacity and rate step.
+     */
+    public static synchronized FilterDesignCache getShared() {
+        if (shared == null) {
+            shared = new FilterDesignCache(DEFAULT_CAPACITY, DEFAULT_RATE_STEP_HZ);
+        }
+        return shared;
+    }
+
+    public double getRateStep() {
+        return rateStep;
+    }
+
+    /**
+     * The sampling rate a design requested for sampleRate is made at.
+     */
+    public double quantize(double sampleRate) {
+        return Math.max(1, Math.round(sampleRate / rateStep)) * rateStep;
+    }
+
+    public SosCoefficients lowPass(Family family, int order, double sampleRate, double cutoffFrequency) {
+        return get(family, Kind.LOW_PASS, order, sampleRate, cutoffFrequency, 0);
+    }
+
+    public SosCoefficients highPass(Family family, int order, double sampleRate, double cutoffFrequency) {
+        return get(family, Kind.HIGH_PASS, order, sampleRate, cutoffFrequency, 0);
+    }
+
+    public SosCoefficients bandPass(Family family, int order, double sampleRate,
+                                    double centerFrequency, double frequencyWidth) {
+        return get(family, Kind.BAND_PASS, order, sampleRate, centerFrequency, frequencyWidth);
+    }
+
+    public SosCoefficients bandStop(Family family, int order, double sampleRate,
+                                    double centerFrequency, double frequencyWidth) {
+        return get(family, Kind.BAND_STOP, order, sampleRate, centerFrequency, frequencyWidth);
+    }
+
+    /**
+     * Returns the cached design, designing it on a miss. For LOW_PASS and
+     * HIGH_PASS f1 is the cutoff and f2 is ignored; for BAND_PASS and
+     * BAND_STOP f1 is the center frequency and f2 the width.
+     */
+    public SosCoefficients get(Family family, Kind kind, int order, double sampleRate,
+                               double f1, double f2) {
+        long rateIndex = Math.max(1, Math.round(sampleRate / rateStep));
+        if (kind == Kind.LOW_PASS || kind == Kind.HIGH_PASS) f2 = 0;
+        Key key = new Key(family, kind, order, rateIndex, f1, f2);
+
+        synchronized (this) {
+            SosCoefficients c = entries.get(key);
+            if (c != null) {
+                hits++;
+                return c;
+            }
+            misses++;
+        }
+
+        // design outside the lock; a concurrent miss on the same key designs
+        // twice but both callers end up with the instance that was stored first
+        SosCoefficients designed = design(key, rateIndex * rateStep);
+        synchronized (this) {
+            SosCoefficients c = entries.get(key);
+            if (c != null) return c;
+            entries.put(key, designed);
+            return designed;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static SosCoefficients design(Key key, double rate) {
+        Cascade cascade;
+        if (key.family == Family.BESSEL) {
+            Bessel b = new Bessel();
+            switch (key.kind) {
+                case LOW_PASS: b.lowPass(key.order, rate, key.f1); break;
+                case HIGH_PASS: b.highPass(key.order, rate, key.f1); break;
+                case BAND_PASS: b.bandPass(key.order, rate, key.f1, key.f2); break;
+                default: b.bandStop(key.order, rate, key.f1, key.f2); break;
+            }
+            cascade = b;
+        } else {
+            Butterworth b = new Butterworth();
+            switch (key.kind) {
+                case LOW_PASS: b.lowPass(key.order, rate, key.f1); break;
+                case HIGH_PASS: b.highPass(key.order, rate, key.f1); break;
+                case BAND_PASS: b.bandPass(key.order, rate, key.f1, key.f2); break;
+                default: b.bandStop(key.order, rate, key.f1, key.f2); break;
+            }
+            cascade = b;
+        }
+        return cascade.getCoefficients();
+    }
+
+    private static final class Key {
+        final Family family;
+        final Kind kind;
+        final int order;
+        final long rateIndex;
+        final double f1;
+        final double f2;
+
+        Key(Family family, Kind kind, int order, long rateIndex, double f1, double f2) {
+            this.family = family;
+            this.kind = kind;
+            this.order = order;
+            this.rateIndex = rateIndex;
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return family == k.family && kind == k.kind && order == k.order
+                    && rateIndex == k.rateIndex
+                    && Double.compare(f1, k.f1) == 0 && Double.compare(f2, k.f2) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = family.hashCode();
+            h = 31 * h + kind.hashCode();
+            h = 31 * h + order;
+            h = 31 * h + (int) (rateIndex ^ (rateIndex >>> 32));
+            long b1 = Double.doubleToLongBits(f1);
+            long b2 = Double.doubleToLongBits(f2);
+            h = 31 * h + (int) (b1 ^ (b1 >>> 32));
+            h = 31 * h + (int) (b2 ^ (b2 >>> 32));
+            return h;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Single precision biquad cascade in transposed direct form II.
+ *
+ * Coefficients are taken from a double precision design (SosCoefficients)
+ * and rounded once. Transposed direct form II keeps the state at signal
+ * level, which is the best suited form for float arithmetic; very narrow
+ * bands far below the sampling rate (e.g. the respiration band at camera
+ * rate) should still be checked against the double Cascade.
+ * <p>
+ * States are flushed to zero below DirectFormAbstract.DENORMAL_THRESHOLD,
+ * which matters even more in float where the subnormal range starts at
+ * about 1e-38.
+ */
+public class FloatCascade {
+
+    private final float[] m_coeffs;
+    private final float[] m_state;
+    private final int m_numStages;
+
+    private static final float DENORMAL_THRESHOLD = (float) DirectFormAbstract.DENORMAL_THRESHOLD;
+
+    public FloatCascade(SosCoefficients coefficients) {
+        m_numStages = coefficients.getNumStages();
+        double[] c = coefficients.array();
+        m_coeffs = new float[c.length];
+        for (int i = 0; i < c.length; i++) m_coeffs[i] = (float) c[i];
+        m_state = new float[2 * m_numStages];
+    }
+
+    public int getNumStages() {
+        return m_numStages;
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(m_state, 0.0f);
+    }
+
+    public float filter(float in) {
+        float out = in;
+        float[] c = m_coeffs;
+        float[] st = m_state;
+        for (int s = 0, ci = 0, si = 0; s < m_numStages; s++, ci += CascadeKernels.COEFF_STRIDE, si += 2) {
+            float y = c[ci] * out + st[si];
+            st[si] = flushDenormal(c[ci + 1] * out - c[ci + 3] * y + st[si + 1]);
+            st[si + 1] = flushDenormal(c[ci + 2] * out - c[ci + 4] * y);
+            out = y;
+        }
+        return out;
+    }
+
+    /**
+     * Filters in[off..off+len) into out[off..off+len); in and out may be the
+     * same array.
+     */
+    public void filter(float[] in, float[] out, int off, int len) {
+        if (in != out) {
+            System.arraycopy(in, off, out, off, len);
+        }
+        int end = off + len;
+        float[] c = m_coeffs;
+        for (int s = 0, ci = 0, si = 0; s < m_numStages; s++, ci += CascadeKernels.COEFF_STRIDE, si += 2) {
+            float b0 = c[ci], b1 = c[ci + 1], b2 = c[ci + 2], a1 = c[ci + 3], a2 = c[ci + 4];
+            float s1 = m_state[si], s2 = m_state[si + 1];
+            for (int i = off; i < end; i++) {
+                float x = out[i];
+                float y = b0 * x + s1;
+                s1 = b1 * x - a1 * y + s2;
+                s2 = b2 * x - a2 * y;
+                out[i] = y;
+            }
+            m_state[si] = flushDenormal(s1);
+            m_state[si + 1] = flushDenormal(s2);
+        }
+    }
+
+    private static float flushDenormal(float v) {
+        return (Math.abs(v) < DENORMAL_THRESHOLD) ? 0.0f : v;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Single precision counterpart of DoubleFft1d for power-of-two sizes.
+ *
+ * Uses the same sign convention and data layouts as DoubleFft1d:
+ * complex data is interleaved {re, im}, and realForward packs the n real
+ * input samples as a[0] = Re[0], a[1] = Re[n/2], a[2k] = Re[k],
+ * a[2k+1] = Im[k]. Unscaled inverses return the input multiplied by n
+ * (complex) or n/2 (real), as DoubleFft1d does.
+ *
+ * Twiddle factors are computed in double and rounded once, so the error
+ * stays at a few float ulps per stage.
+ */
+public class FloatFft1d {
+
+    private final int n;
+    // complex transform of n/2 points used by the real transforms
+    private final int m;
+    private final float[] cosM;
+    private final float[] sinM;
+    private final int[] bitrevM;
+    // complex transform of n points
+    private final float[] cosN;
+    private final float[] sinN;
+    private final int[] bitrevN;
+    // real transform split twiddles e^{-2 pi i k / n}, k = 0..n/2
+    private final float[] cosR;
+    private final float[] sinR;
+
+    /**
+     * @param n size of the transform, a power of two >= 2
+     */
+    public FloatFft1d(int n) {
+        if (n < 2 || !ConcurrencyUtils.isPowerOf2(n)) {
+            throw new IllegalArgumentException("n must be a power of two >= 2");
+        }
+        this.n = n;
+        this.m = n / 2;
+        cosN = new float[n / 2];
+        sinN = new float[n / 2];
+        bitrevN = bitReversal(n);
+        twiddles(n, cosN, sinN);
+        cosM = new float[Math.max(1, m / 2)];
+        sinM = new float[Math.max(1, m / 2)];
+        bitrevM = bitReversal(m);
+        twiddles(m, cosM, sinM);
+        cosR = new float[m + 1];
+        sinR = new float[m + 1];
+        for (int k = 0; k <= m; k++) {
+            double w = 2 * Math.PI * k / n;
+            cosR[k] = (float) Math.cos(w);
+            sinR[k] = (float) Math.sin(w);
+        }
+    }
+
+    public int getSize() {
+        return n;
+    }
+
+    /**
+     * In-place forward complex FFT of n interleaved points (2 * n floats).
+     */
+    public void complexForward(float[] a) {
+        complex(a, n, cosN, sinN, bitrevN, -1);
+    }
+
+    /**
+     * In-place inverse complex FFT of n interleaved points.
+     *
+     * @param scale divide the result by n
+     */
+    public void complexInverse(float[] a, boolean scale) {
+        complex(a, n, cosN, sinN, bitrevN, 1);
+        if (scale) {
+            float s = 1.0f / n;
+            for (int i = 0; i < 2 * n; i++) a[i] *= s;
+        }
+    }
+
+    /**
+     * In-place forward FFT of n real samples, result in the packed layout.
+     */
+    public void realForward(float[] a) {
+        complex(a, m, cosM, sinM, bitrevM, -1);
+        // split the half-size transform Z into the spectrum X of the real input
+        float z0r = a[0], z0i = a[1];
+        a[0] = z0r + z0i;
+        a[1] = z0r - z0i;
+        for (int k = 1, j = m - 1; k <= j; k++, j--) {
+            float zkr = a[2 * k], zki = a[2 * k + 1];
+            float zjr = a[2 * j], zji = a[2 * j + 1];
+            // even / odd parts: E = (Zk + conj(Zj)) / 2, O = (Zk - conj(Zj)) / 2i
+            float er = 0.5f * (zkr + zjr), ei = 0.5f * (zki - zji);
+            float or = 0.5f * (zki + zji), oi = -0.5f * (zkr - zjr);
+            float c = cosR[k], s = sinR[k];
+            // X[k] = E + e^{-i w k} O and X[m-k] = conj(E - e^{-i w k} O)
+            float tr = c * or + s * oi, ti = c * oi - s * or;
+            a[2 * k] = er + tr;
+            a[2 * k + 1] = ei + ti;
+            if (k != j) {
+                a[2 * j] = er - tr;
+                a[2 * j + 1] = -(ei - ti);
+            }
+        }
+    }
+
+    /**
+     * Inverse of realForward.
+     *
+     * @param scale divide the result by n / 2 so that it equals the input of
+     *              realForward
+     */
+    public void realInverse(float[] a, boolean scale) {
+        float x0 = a[0], xm = a[1];
+        a[0] = 0.5f * (x0 + xm);
+        a[1] = 0.5f * (x0 - xm);
+        for (int k = 1, j = m - 1; k <= j; k++, j--) {
+            float xkr = a[2 * k], xki = a[2 * k + 1];
+            float xjr = a[2 * j], xji = a[2 * j + 1];
+            float er = 0.5f * (xkr + xjr), ei = 0.5f * (xki - xji);
+            float dr = 0.5f * (xkr - xjr), di = 0.5f * (xki + xji);
+            float c = cosR[k], s = sinR[k];
+            // O = D * e^{+i w k}, Z[k] = E + i O, Z[j] = conj(E) + i conj(O)
+            float or = dr * c - di * s, oi = dr * s + di * c;
+            a[2 * k] = er - oi;
+            a[2 * k + 1] = ei + or;
+            if (k != j) {
+                a[2 * j] = er + oi;
+                a[2 * j + 1] = or - ei;
+            }
+        }
+        complex(a, m, cosM, sinM, bitrevM, 1);
+        if (scale) {
+            float s = 1.0f / m;
+            for (int i = 0; i < n; i++) a[i] *= s;
+        }
+    }
+
+    // iterative radix-2 DIT; sign -1 forward, +1 inverse (unscaled)
+    private static void complex(float[] a, int size, float[] cos, float[] sin, int[] bitrev, int sign) {
+        if (size < 2) return;
+        for (int i = 0; i < size; i++) {
+            int j = bitrev[i];
+            if (j > i) {
+                float tr = a[2 * i], ti = a[2 * i + 1];
+                a[2 * i] = a[2 * j];
+                a[2 * i + 1] = a[2 * j + 1];
+                a[2 * j] = tr;
+                a[2 * j + 1] = ti;
+            }
+        }
+        for (int len = 2; len <= size; len <<= 1) {
+            int half = len >> 1;
+            int step = size / len;
+            for (int start = 0; start < size; start += len) {
+                for (int k = 0, t = 0; k < half; k++, t += step) {
+                    float wr = cos[t];
+                    float wi = sign * sin[t];
+                    int p = 2 * (start + k);
+                    int q = 2 * (start + k + half);
+                    float xr = a[q] * wr - a[q + 1] * wi;
+                    float xi = a[q] * wi + a[q + 1] * wr;
+                    a[q] = a[p] - xr;
+                    a[q + 1] = a[p + 1] - xi;
+                    a[p] += xr;
+                    a[p + 1] += xi;
+                }
+            }
+        }
+    }
+
+    private static void twiddles(int size, float[] cos, float[] sin) {
+        for (int k = 0; k < size / 2; k++) {
+            double w = 2 * Math.PI * k / size;
+            cos[k] = (float) Math.cos(w);
+            sin[k] = (float) Math.sin(w);
+        }
+    }
+
+    private static int[] bitReversal(int size) {
+        int[] rev = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            rev[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        return rev;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Fixed capacity ring buffer of float samples. Once full, every add()
+ * overwrites the oldest sample, so the buffer always holds the newest
+ * capacity samples without shifting or boxing.
+ */
+public class FloatRingBuffer {
+
+    private final float[] data;
+    private int head;   // next slot to write
+    private int count;
+
+    public FloatRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        data = new float[capacity];
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    public void add(float v) {
+        data[head] = v;
+        head = (head + 1 == data.length) ? 0 : head + 1;
+        if (count < data.length) count++;
+    }
+
+    /**
+     * @param i index from the oldest sample (0) to the newest (size() - 1)
+     */
+    public float get(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + count);
+        }
+        int idx = head - count + i;
+        if (idx < 0) idx += data.length;
+        return data[idx];
+    }
+
+    /**
+     * Copies the newest n samples, oldest first, into dst[0..n).
+     */
+    public void copyLast(int n, float[] dst) {
+        int start = checkLast(n);
+        int first = Math.min(n, data.length - start);
+        System.arraycopy(data, start, dst, 0, first);
+        System.arraycopy(data, 0, dst, first, n - first);
+    }
+
+    /**
+     * Copies the newest n samples, oldest first, into dst[0..n) widened to double.
+     */
+    public void copyLast(int n, double[] dst) {
+        int start = checkLast(n);
+        for (int i = 0, idx = start; i < n; i++) {
+            dst[i] = data[idx];
+            if (++idx == data.length) idx = 0;
+        }
+    }
+
+    private int checkLast(int n) {
+        if (n < 0 || n > count) {
+            throw new IllegalArgumentException("n must be in [0, size()]");
+        }
+        int start = head - n;
+        return (start < 0) ? start + data.length : start;
+    }
+}
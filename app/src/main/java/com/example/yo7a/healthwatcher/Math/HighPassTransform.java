@@ -20,8 +20,6 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-
 /**
  * Transforms from an analogue lowpass filter to a digital highpass filter
  */
@@ -29,6 +27,9 @@ public class HighPassTransform {
 
     double f;
 
+    // transformed {pole re, pole im, zero re, zero im}
+    private final double[] pz = new double[4];
+
     public HighPassTransform(double fc, LayoutBase digital, LayoutBase analog) {
         digital.reset();
 
@@ -39,29 +40,34 @@ public class HighPassTransform {
         int pairs = numPoles / 2;
         for (int i = 0; i < pairs; ++i) {
             PoleZeroPair pair = analog.getPair(i);
-            digital.addPoleZeroConjugatePairs(transform(pair.poles.first),
-                    transform(pair.zeros.first));
+            transform(pair.poles.firstRe, pair.poles.firstIm, pz, 0);
+            transform(pair.zeros.firstRe, pair.zeros.firstIm, pz, 2);
+            digital.addPoleZeroConjugatePairs(pz[0], pz[1], pz[2], pz[3]);
         }
 
         if ((numPoles & 1) == 1) {
             PoleZeroPair pair = analog.getPair(pairs);
-            digital.add(transform(pair.poles.first),
-                    transform(pair.zeros.first));
+            transform(pair.poles.firstRe, pair.poles.firstIm, pz, 0);
+            transform(pair.zeros.firstRe, pair.zeros.firstIm, pz, 2);
+            digital.add(pz[0], pz[1], pz[2], pz[3]);
         }
 
         digital.setNormal(Math.PI - analog.getNormalW(), analog.getNormalGain());
     }
 
-    private Complex transform(Complex c) {
-        if (c.isInfinite())
-            return new Complex(1, 0);
+    private void transform(double re, double im, double[] out, int off) {
+        if (MathSupplement.isInfinite(re, im)) {
+            out[off] = 1;
+            out[off + 1] = 0;
+            return;
+        }
 
         // frequency transform
-        c = c.multiply(f);
+        re *= f;
+        im *= f;
 
-        // bilinear high pass transform
-        return new Complex(-1).multiply((new Complex(1)).add(c)).divide(
-                (new Complex(1)).subtract(c));
+        // bilinear high pass transform -(1 + c) / (1 - c)
+        MathSupplement.divide(-(1 + re), -im + 0.0, 1 - re, 0.0 - im, out, off);
     }
 
 }
@@ -20,8 +20,6 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-
 /**
  * Digital/analogue filter coefficient storage space organising the
  * storage as PoleZeroPairs so that we have as always a 2nd order filter
@@ -55,24 +53,23 @@ public class LayoutBase {
         return m_numPoles;
     }
 
-    public void add(Complex pole, Complex zero) {
-        m_pair[m_numPoles / 2] = new PoleZeroPair(pole, zero);
+    public void add(double poleRe, double poleIm, double zeroRe, double zeroIm) {
+        m_pair[m_numPoles / 2] = new PoleZeroPair(poleRe, poleIm, zeroRe, zeroIm);
         ++m_numPoles;
     }
 
-    public void addPoleZeroConjugatePairs(Complex pole, Complex zero) {
-        if (pole == null) System.out.println("LayoutBase addConj() pole == null");
-        if (zero == null) System.out.println("LayoutBase addConj() zero == null");
-        if (m_pair == null) System.out.println("LayoutBase addConj() m_pair == null");
-        m_pair[m_numPoles / 2] = new PoleZeroPair(pole, zero, pole.conjugate(),
-                zero.conjugate());
+    public void addPoleZeroConjugatePairs(double poleRe, double poleIm,
+                                          double zeroRe, double zeroIm) {
+        m_pair[m_numPoles / 2] = new PoleZeroPair(poleRe, poleIm, zeroRe, zeroIm,
+                poleRe, -poleIm, zeroRe, -zeroIm);
         m_numPoles += 2;
     }
 
     public void add(ComplexPair poles, ComplexPair zeros) {
-        System.out.println("LayoutBase add() numPoles=" + m_numPoles);
-        m_pair[m_numPoles / 2] = new PoleZeroPair(poles.first, zeros.first,
-                poles.second, zeros.second);
+        m_pair[m_numPoles / 2] = new PoleZeroPair(poles.firstRe, poles.firstIm,
+                zeros.firstRe, zeros.firstIm,
+                poles.secondRe, poles.secondIm,
+                zeros.secondRe, zeros.secondIm);
         m_numPoles += 2;
     }
 
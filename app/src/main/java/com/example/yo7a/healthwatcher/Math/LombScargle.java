@@ -0,0 +1,300 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Lomb-Scargle periodogram of unevenly sampled data.
+ * <p>
+ * The periodogram is evaluated on the uniform grid f_k = (k + 1) * df,
+ * k = 0..nf-1, directly from the sample times, so no resampling onto a
+ * uniform time grid is needed. The mean of y is removed first.
+ * <p>
+ * The power is the classic (unnormalized) form
+ * P(f) = 1/2 [ (sum y cos w(t - tau))^2 / sum cos^2 w(t - tau)
+ *            + (sum y sin w(t - tau))^2 / sum sin^2 w(t - tau) ],
+ * so a sinusoid of amplitude A gives a peak of about n A^2 / 4. Divide by
+ * the variance of y for the normalized periodogram.
+ * <p>
+ * periodogram() is the fast algorithm of Press and Rybicki: every sample
+ * (and, for the tau shift, a unit weight at twice its phase) is extirpolated
+ * onto a regular grid of MACC neighbouring points, and two real FFTs give
+ * the trigonometric sums at all frequencies at once, in O(n + nf log nf).
+ * periodogramDirect() accumulates the same sums exactly in O(n nf).
+ * <p>
+ * findPeak() reports the highest peak in a band with its false alarm
+ * probability, i.e. the probability that pure noise of the same variance
+ * gives a peak at least as high somewhere in the band.
+ */
+public final class LombScargle {
+
+    // extirpolation order (points per sample)
+    private static final int MACC = 4;
+
+    private final int maxFreqs;
+    private final int gridSize;
+    private final DoubleFft1d fft;
+    private final double[] grid1;
+    private final double[] grid2;
+    private final double[] sums;
+
+    // statistics of the last periodogram
+    private double lastVariance = 0.0;
+    private double lastSpan = 0.0;
+
+    // last peak
+    private double peakFrequency = Double.NaN;
+    private double peakPower = 0.0;
+    private double falseAlarmProbability = 1.0;
+
+    /**
+     * @param maxFreqs largest nf periodogram() will be called with
+     */
+    public LombScargle(int maxFreqs) {
+        if (maxFreqs < 1) {
+            throw new IllegalArgumentException("maxFreqs must be positive");
+        }
+        this.maxFreqs = maxFreqs;
+        // the grid's Nyquist bin must exceed the highest frequency MACC times
+        // over for accurate extirpolation (about 1e-4 of the peak power)
+        int size = 64;
+        while (size < 2 * MACC * maxFreqs) size <<= 1;
+        gridSize = size;
+        fft = new DoubleFft1d(gridSize);
+        grid1 = new double[gridSize];
+        grid2 = new double[gridSize];
+        sums = new double[4 * maxFreqs];
+    }
+
+    public int getMaxFreqs() {
+        return maxFreqs;
+    }
+
+    /**
+     * Fast periodogram; same arguments and result as periodogramDirect().
+     * Nothing is allocated.
+     */
+    public void periodogram(double[] t, double[] y, int n, double df, int nf, double[] power) {
+        if (nf > maxFreqs) {
+            throw new IllegalArgumentException("nf " + nf + " > maxFreqs " + maxFreqs);
+        }
+        if (nf <= 0)
+            return;
+        double mean = stats(t, y, n);
+        if (n < 3) {
+            java.util.Arrays.fill(power, 0, nf, 0.0);
+            return;
+        }
+
+        java.util.Arrays.fill(grid1, 0.0);
+        java.util.Arrays.fill(grid2, 0.0);
+        double t0 = t[0];
+        double fac = df * gridSize;
+        for (int j = 0; j < n; j++) {
+            // grid position of the phase of f = df (grid bin k then holds f_k = k df)
+            double ck = ((t[j] - t0) * fac) % gridSize;
+            if (ck < 0) ck += gridSize;
+            double ckk = (2 * ck) % gridSize;
+            spread(y[j] - mean, grid1, ck);
+            spread(1.0, grid2, ckk);
+        }
+        fft.realForward(grid1);
+        fft.realForward(grid2);
+
+        // bin k + 1 of both grids has the sums for f_k (grid2 holds the doubled
+        // phases); the forward transform uses exp(-i w t), hence the negated sines
+        int ys = nf, c2 = 2 * nf, s2 = 3 * nf;
+        for (int k = 0; k < nf; k++) {
+            int b = 2 * (k + 1);
+            sums[k] = grid1[b];
+            sums[ys + k] = -grid1[b + 1];
+            sums[c2 + k] = grid2[b];
+            sums[s2 + k] = -grid2[b + 1];
+        }
+        finish(sums, n, nf, power);
+    }
+
+    // adds w at fractional position x of the periodic grid by Lagrange
+    // interpolation weights of its MACC nearest points ("extirpolation")
+    private void spread(double w, double[] g, double x) {
+        int ix = (int) x;
+        if (x == ix) {
+            g[ix] += w;
+            return;
+        }
+        int lo = (int) Math.floor(x) - (MACC / 2 - 1);
+        for (int j = 0; j < MACC; j++) {
+            double pj = lo + j;
+            double weight = 1.0;
+            for (int i = 0; i < MACC; i++) {
+                if (i == j) continue;
+                double pi = lo + i;
+                weight *= (x - pi) / (pj - pi);
+            }
+            int idx = (lo + j) % gridSize;
+            if (idx < 0) idx += gridSize;
+            g[idx] += w * weight;
+        }
+    }
+
+    // mean of y; also keeps n, variance and time span for findPeak()
+    private double stats(double[] t, double[] y, int n) {
+        if (n < 1) {
+            lastVariance = 0.0;
+            lastSpan = 0.0;
+            return 0.0;
+        }
+        double mean = 0;
+        double tMin = t[0], tMax = t[0];
+        for (int j = 0; j < n; j++) {
+            mean += y[j];
+            if (t[j] < tMin) tMin = t[j];
+            if (t[j] > tMax) tMax = t[j];
+        }
+        mean /= n;
+        double var = 0;
+        for (int j = 0; j < n; j++) {
+            double d = y[j] - mean;
+            var += d * d;
+        }
+        lastVariance = (n > 1) ? var / (n - 1) : 0.0;
+        lastSpan = tMax - tMin;
+        return mean;
+    }
+
+    /**
+     * Finds the highest peak of the last periodogram() in [fMin, fMax], refined
+     * by a parabola through the neighbouring frequencies.
+     *
+     * @param power periodogram computed by the last periodogram() call
+     * @return peak frequency, or NaN if the band holds no grid frequency
+     */
+    public double findPeak(double[] power, double df, int nf, double fMin, double fMax) {
+        peakFrequency = Double.NaN;
+        peakPower = 0.0;
+        falseAlarmProbability = 1.0;
+        int kLo = Math.max(0, (int) Math.ceil(fMin / df) - 1);
+        int kHi = Math.min(nf - 1, (int) Math.floor(fMax / df) - 1);
+        if (kHi < kLo || lastVariance <= 0) return Double.NaN;
+
+        int best = kLo;
+        for (int k = kLo + 1; k <= kHi; k++) {
+            if (power[k] > power[best]) best = k;
+        }
+        double offset = 0.0;
+        if (best > 0 && best < nf - 1) {
+            double a = power[best - 1], b = power[best], c = power[best + 1];
+            double denom = a - 2 * b + c;
+            if (denom < 0) offset = 0.5 * (a - c) / denom;
+        }
+        peakFrequency = (best + 1 + offset) * df;
+        peakPower = power[best] / lastVariance;
+        falseAlarmProbability = falseAlarmProbability(peakPower, (fMax - fMin) * lastSpan * 2.0);
+        return peakFrequency;
+    }
+
+    /**
+     * False alarm probability of a normalized peak power z among m independent
+     * frequencies: 1 - (1 - exp(-z))^m (Scargle 1982). For a band of width B
+     * and a record of length T, m is about 2 B T.
+     */
+    public static double falseAlarmProbability(double z, double m) {
+        m = Math.max(1.0, m);
+        double p = Math.exp(-z);
+        double fap = m * p;
+        // series form underflows to 0 less early for tiny probabilities
+        if (fap > 0.01) fap = 1.0 - Math.pow(1.0 - p, m);
+        return Math.min(1.0, fap);
+    }
+
+    public double getPeakFrequency() {
+        return peakFrequency;
+    }
+
+    /** Peak power normalized by the sample variance. */
+    public double getPeakPower() {
+        return peakPower;
+    }
+
+    public double getFalseAlarmProbability() {
+        return falseAlarmProbability;
+    }
+
+    /**
+     * Size of the work array periodogramDirect() needs for nf frequencies.
+     */
+    public static int getWorkSize(int nf) {
+        return 4 * nf;
+    }
+
+    /**
+     * Exact periodogram by direct summation, O(n nf).
+     *
+     * @param t     sample times t[0..n), any order and spacing
+     * @param y     samples y[0..n)
+     * @param df    frequency step and lowest frequency, in 1 / units of t
+     * @param nf    number of frequencies
+     * @param power receives P(f_k) in power[0..nf)
+     * @param work  workspace of at least getWorkSize(nf) entries, or null to allocate one
+     */
+    public static void periodogramDirect(double[] t, double[] y, int n, double df, int nf,
+                                         double[] power, double[] work) {
+        if (nf <= 0)
+            return;
+        if (work == null || work.length < getWorkSize(nf))
+            work = new double[getWorkSize(nf)];
+        if (n < 3) {
+            java.util.Arrays.fill(power, 0, nf, 0.0);
+            return;
+        }
+
+        double mean = 0;
+        for (int j = 0; j < n; j++)
+            mean += y[j];
+        mean /= n;
+
+        // work = {sum y cos wt | sum y sin wt | sum cos 2wt | sum sin 2wt}
+        java.util.Arrays.fill(work, 0, 4 * nf, 0.0);
+        int ys = nf, c2 = 2 * nf, s2 = 3 * nf;
+        double t0 = t[0];
+        for (int j = 0; j < n; j++) {
+            double yj = y[j] - mean;
+            double a = 2 * Math.PI * df * (t[j] - t0);
+            // rotate through the grid: (c, s) = cos/sin of (k + 1) a
+            double ca = Math.cos(a), sa = Math.sin(a);
+            double cb = ca * ca - sa * sa, sb = 2 * sa * ca;
+            double c = ca, s = sa;
+            double cc = cb, ss = sb;
+            for (int k = 0; k < nf; k++) {
+                work[k] += yj * c;
+                work[ys + k] += yj * s;
+                work[c2 + k] += cc;
+                work[s2 + k] += ss;
+                double tmp = c * ca - s * sa;
+                s = s * ca + c * sa;
+                c = tmp;
+                tmp = cc * cb - ss * sb;
+                ss = ss * cb + cc * sb;
+                cc = tmp;
+            }
+        }
+        finish(work, n, nf, power);
+    }
+
+    // per frequency: shift by tau and form the two terms (as in Numerical Recipes' fasper)
+    static void finish(double[] work, int n, int nf, double[] power) {
+        int ys = nf, c2 = 2 * nf, s2 = 3 * nf;
+        for (int k = 0; k < nf; k++) {
+            double yc = work[k], yss = work[ys + k];
+            double cw = work[c2 + k], sw = work[s2 + k];
+            double hypo = Math.sqrt(cw * cw + sw * sw);
+            double hc2wt = (hypo > 0) ? 0.5 * cw / hypo : 0.5;
+            double hs2wt = (hypo > 0) ? 0.5 * sw / hypo : 0.0;
+            double cwt = Math.sqrt(0.5 + hc2wt);
+            double swt = Math.copySign(Math.sqrt(Math.max(0.0, 0.5 - hc2wt)), hs2wt);
+            double den = 0.5 * n + hc2wt * cw + hs2wt * sw;
+            double cterm = cwt * yc + swt * yss;
+            double sterm = cwt * yss - swt * yc;
+            cterm = (den > 0) ? cterm * cterm / den : 0.0;
+            sterm = (n - den > 0) ? sterm * sterm / (n - den) : 0.0;
+            power[k] = 0.5 * (cterm + sterm);
+        }
+    }
+}
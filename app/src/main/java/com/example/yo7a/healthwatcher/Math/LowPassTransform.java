@@ -21,8 +21,6 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-
 /**
  * Transforms from an analogue lowpass filter to a digital lowpass filter
  */
@@ -30,17 +28,18 @@ public class LowPassTransform {
 
     private final double f;
 
-    private Complex transform(Complex c) {
-        if (c.isInfinite())
-            return new Complex(-1, 0);
-
-        // frequency transform
-        c = c.multiply(f);
+    // transformed {pole re, pole im, zero re, zero im}
+    private final double[] pz = new double[4];
 
-        Complex one = new Complex(1, 0);
+    private void transform(double re, double im, double[] out, int off) {
+        if (MathSupplement.isInfinite(re, im)) {
+            out[off] = -1;
+            out[off + 1] = 0;
+            return;
+        }
 
-        // bilinear low pass transform
-        return (one.add(c)).divide(one.subtract(c));
+        // frequency transform, then bilinear low pass transform
+        MathSupplement.bilinear(re * f, im * f, out, off);
     }
 
     public LowPassTransform(double fc, LayoutBase digital, LayoutBase analog) {
@@ -53,14 +52,16 @@ public class LowPassTransform {
         int pairs = numPoles / 2;
         for (int i = 0; i < pairs; ++i) {
             PoleZeroPair pair = analog.getPair(i);
-            digital.addPoleZeroConjugatePairs(transform(pair.poles.first),
-                    transform(pair.zeros.first));
+            transform(pair.poles.firstRe, pair.poles.firstIm, pz, 0);
+            transform(pair.zeros.firstRe, pair.zeros.firstIm, pz, 2);
+            digital.addPoleZeroConjugatePairs(pz[0], pz[1], pz[2], pz[3]);
         }
 
         if ((numPoles & 1) == 1) {
             PoleZeroPair pair = analog.getPair(pairs);
-            digital.add(transform(pair.poles.first),
-                    transform(pair.zeros.first));
+            transform(pair.poles.firstRe, pair.poles.firstIm, pz, 0);
+            transform(pair.zeros.firstRe, pair.zeros.firstIm, pz, 2);
+            digital.add(pz[0], pz[1], pz[2], pz[3]);
         }
 
         digital.setNormal(analog.getNormalW(), analog.getNormalGain());
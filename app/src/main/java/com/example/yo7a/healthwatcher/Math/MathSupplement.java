@@ -20,41 +20,163 @@
 
 package com.example.yo7a.healthwatcher.Math;
 
-import org.apache.commons.math3.complex.Complex;
-
 /**
  * Useful math functions which come back over and over again
+ * <p>
+ * Complex numbers are passed as separate (re, im) doubles and complex
+ * results are written to out[off] (real part) and out[off + 1] (imaginary
+ * part), so that the filter design does not allocate. divide, sqrt and abs
+ * use the same formulas as commons-math's Complex, which the design path
+ * used before.
  */
 public class MathSupplement {
 
     public static double doubleLn10 = 2.3025850929940456840179914546844;
 
-    public static Complex solve_quadratic_1(double a, double b, double c) {
-        return (new Complex(-b).add(new Complex(b * b - 4 * a * c, 0)).sqrt())
-                .divide(2. * a);
+    private static final int MAX_ROOT_ITERATIONS = 200;
+
+    public static boolean isInfinite(double re, double im) {
+        return (Double.isInfinite(re) || Double.isInfinite(im))
+                && !Double.isNaN(re) && !Double.isNaN(im);
+    }
+
+    // |re + i im| without overflow of the squares
+    public static double abs(double re, double im) {
+        if (Math.abs(re) < Math.abs(im)) {
+            if (im == 0.0)
+                return Math.abs(re);
+            double q = re / im;
+            return Math.abs(im) * Math.sqrt(1 + q * q);
+        } else {
+            if (re == 0.0)
+                return Math.abs(im);
+            double q = im / re;
+            return Math.abs(re) * Math.sqrt(1 + q * q);
+        }
     }
 
-    public static Complex solve_quadratic_2(double a, double b, double c) {
-        return (new Complex(-b).subtract(new Complex(b * b - 4 * a * c, 0))
-                .sqrt()).divide(2. * a);
+    // (aRe + i aIm) / (bRe + i bIm) by Smith's algorithm
+    public static void divide(double aRe, double aIm, double bRe, double bIm,
+                              double[] out, int off) {
+        if (bRe == 0.0 && bIm == 0.0) {
+            out[off] = Double.NaN;
+            out[off + 1] = Double.NaN;
+        } else if (Math.abs(bRe) < Math.abs(bIm)) {
+            double q = bRe / bIm;
+            double denominator = bRe * q + bIm;
+            out[off] = (aRe * q + aIm) / denominator;
+            out[off + 1] = (aIm * q - aRe) / denominator;
+        } else {
+            double q = bIm / bRe;
+            double denominator = bIm * q + bRe;
+            out[off] = (aIm * q + aRe) / denominator;
+            out[off + 1] = (aIm - aRe * q) / denominator;
+        }
     }
 
-    public static Complex adjust_imag(Complex c) {
-        if (Math.abs(c.getImaginary()) < 1e-30)
-            return new Complex(c.getReal(), 0);
-        else
-            return c;
+    // principal square root, branch cut along the negative real axis
+    public static void sqrt(double re, double im, double[] out, int off) {
+        if (re == 0.0 && im == 0.0) {
+            out[off] = 0.0;
+            out[off + 1] = 0.0;
+            return;
+        }
+        double t = Math.sqrt((Math.abs(re) + abs(re, im)) / 2.0);
+        if (re >= 0.0) {
+            out[off] = t;
+            out[off + 1] = im / (2.0 * t);
+        } else {
+            out[off] = Math.abs(im) / (2.0 * t);
+            out[off + 1] = Math.copySign(1d, im) * t;
+        }
     }
 
-    public static Complex addmul(Complex c, double v, Complex c1) {
-        return new Complex(c.getReal() + v * c1.getReal(), c.getImaginary() + v
-                * c1.getImaginary());
+    // bilinear transform (1 + c) / (1 - c)
+    public static void bilinear(double re, double im, double[] out, int off) {
+        divide(1 + re, 0.0 + im, 1 - re, 0.0 - im, out, off);
     }
 
-    public static Complex recip(Complex c) {
-        double n = 1.0 / (c.abs() * c.abs());
+    /**
+     * All complex roots of the real polynomial
+     * a[0] + a[1] x + ... + a[n] x^n (a[n] != 0) by Aberth's simultaneous
+     * iteration, followed by one Newton step per root.
+     *
+     * @param re receives the real parts of the n roots
+     * @param im receives the imaginary parts of the n roots
+     */
+    public static void polynomialRoots(double[] a, double[] re, double[] im) {
+        int n = a.length - 1;
+        if (n < 1)
+            return;
+        double[] t = new double[6];
+
+        // start on a circle around the centroid of the roots, with the radius
+        // of their geometric mean, rotated off the real axis
+        double center = -a[n - 1] / (n * a[n]);
+        double radius = Math.pow(Math.abs(a[0] / a[n]), 1.0 / n);
+        if (radius == 0 || Double.isNaN(radius) || Double.isInfinite(radius))
+            radius = 1;
+        for (int k = 0; k < n; k++) {
+            double phi = 2 * Math.PI * k / n + Math.PI / (2 * n) + 0.4;
+            re[k] = center + radius * Math.cos(phi);
+            im[k] = radius * Math.sin(phi);
+        }
+
+        for (int iter = 0; iter < MAX_ROOT_ITERATIONS; iter++) {
+            double maxStep = 0;
+            for (int k = 0; k < n; k++) {
+                newtonRatio(a, re[k], im[k], t);
+                double rRe = t[0], rIm = t[1];
+                if (rRe == 0 && rIm == 0)
+                    continue;
+                // sum of 1 / (z_k - z_j)
+                double sRe = 0, sIm = 0;
+                for (int j = 0; j < n; j++) {
+                    if (j == k)
+                        continue;
+                    divide(1, 0, re[k] - re[j], im[k] - im[j], t, 2);
+                    sRe += t[2];
+                    sIm += t[3];
+                }
+                // w = ratio / (1 - ratio * sum)
+                divide(rRe, rIm, 1 - (rRe * sRe - rIm * sIm),
+                        -(rRe * sIm + rIm * sRe), t, 4);
+                re[k] -= t[4];
+                im[k] -= t[5];
+                double step = abs(t[4], t[5]) / Math.max(1, abs(re[k], im[k]));
+                if (!(step <= maxStep))
+                    maxStep = step;
+            }
+            if (maxStep < 1e-15)
+                break;
+        }
+
+        for (int k = 0; k < n; k++) {
+            newtonRatio(a, re[k], im[k], t);
+            re[k] -= t[0];
+            im[k] -= t[1];
+        }
+    }
 
-        return new Complex(n * c.getReal(), n * c.getImaginary());
+    // p(z) / p'(z) by Horner's scheme into out[0], out[1]
+    private static void newtonRatio(double[] a, double zRe, double zIm, double[] out) {
+        int n = a.length - 1;
+        double pRe = a[n], pIm = 0;
+        double dRe = 0, dIm = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            double tRe = dRe * zRe - dIm * zIm + pRe;
+            dIm = dRe * zIm + dIm * zRe + pIm;
+            dRe = tRe;
+            tRe = pRe * zRe - pIm * zIm + a[i];
+            pIm = pRe * zIm + pIm * zRe;
+            pRe = tRe;
+        }
+        if (pRe == 0 && pIm == 0) {
+            out[0] = 0;
+            out[1] = 0;
+        } else {
+            divide(pRe, pIm, dRe, dIm, out, 0);
+        }
     }
 
     public static double asinh(double x) {
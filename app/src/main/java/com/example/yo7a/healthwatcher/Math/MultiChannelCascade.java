@@ -0,0 +1,93 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Biquad cascade running C channels through one shared coefficient set.
+ *
+ * Samples are interleaved (frame by frame, channel by channel) and every
+ * stage loads its coefficients once and then updates all channels, each with
+ * its own transposed direct form II state. This replaces one Cascade per
+ * colour channel or ROI and the repeated coefficient loads and calls that
+ * come with it.
+ */
+public class MultiChannelCascade {
+
+    private final SosCoefficients m_coefficients;
+    private final int m_channels;
+    // {s1, s2} per channel per stage: index (stage * channels + channel) * 2
+    private final double[] m_state;
+
+    public MultiChannelCascade(SosCoefficients coefficients, int channels) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("channels must be > 0");
+        }
+        m_coefficients = coefficients;
+        m_channels = channels;
+        m_state = new double[coefficients.getNumStages() * channels * 2];
+    }
+
+    public SosCoefficients getCoefficients() {
+        return m_coefficients;
+    }
+
+    public int getChannels() {
+        return m_channels;
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(m_state, 0.0);
+    }
+
+    public void reset(int channel) {
+        for (int s = 0; s < m_coefficients.getNumStages(); s++) {
+            int si = (s * m_channels + channel) * 2;
+            m_state[si] = 0.0;
+            m_state[si + 1] = 0.0;
+        }
+    }
+
+    /**
+     * Filters one frame (one sample of every channel) in place.
+     */
+    public void filter(double[] frame) {
+        double[] c = m_coefficients.array();
+        double[] st = m_state;
+        int numStages = m_coefficients.getNumStages();
+        for (int s = 0, ci = 0; s < numStages; s++, ci += CascadeKernels.COEFF_STRIDE) {
+            double b0 = c[ci], b1 = c[ci + 1], b2 = c[ci + 2], a1 = c[ci + 3], a2 = c[ci + 4];
+            for (int ch = 0, si = s * m_channels * 2; ch < m_channels; ch++, si += 2) {
+                double x = frame[ch];
+                double y = b0 * x + st[si];
+                st[si] = DirectFormAbstract.flushDenormal(b1 * x - a1 * y + st[si + 1]);
+                st[si + 1] = DirectFormAbstract.flushDenormal(b2 * x - a2 * y);
+                frame[ch] = y;
+            }
+        }
+    }
+
+    /**
+     * Filters frames interleaved samples in place, starting at data[off]
+     * (data[off + f * channels + ch] is channel ch of frame f).
+     */
+    public void filter(double[] data, int off, int frames) {
+        double[] c = m_coefficients.array();
+        double[] st = m_state;
+        int numStages = m_coefficients.getNumStages();
+        int end = off + frames * m_channels;
+        for (int s = 0, ci = 0; s < numStages; s++, ci += CascadeKernels.COEFF_STRIDE) {
+            double b0 = c[ci], b1 = c[ci + 1], b2 = c[ci + 2], a1 = c[ci + 3], a2 = c[ci + 4];
+            int base = s * m_channels * 2;
+            for (int i = off; i < end; i += m_channels) {
+                for (int ch = 0, si = base; ch < m_channels; ch++, si += 2) {
+                    double x = data[i + ch];
+                    double y = b0 * x + st[si];
+                    st[si] = b1 * x - a1 * y + st[si + 1];
+                    st[si + 1] = b2 * x - a2 * y;
+                    data[i + ch] = y;
+                }
+            }
+            for (int si = base; si < base + m_channels * 2; si++) {
+                st[si] = DirectFormAbstract.flushDenormal(st[si]);
+            }
+        }
+    }
+}
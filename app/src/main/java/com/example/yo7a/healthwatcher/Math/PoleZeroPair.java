@@ -20,8 +20,6 @@ package com.example.yo7a.healthwatcher.Math;
  *  Copyright (c) 2016 by Bernd Porr
  */
 
-import org.apache.commons.math3.complex.Complex;
-
 /**
  * It's written on the tin.
  */
@@ -31,20 +29,21 @@ public class PoleZeroPair {
     public ComplexPair zeros;
 
     // single pole/zero
-    public PoleZeroPair(Complex p, Complex z) {
-        poles = new ComplexPair(p);
-        zeros = new ComplexPair(z);
+    public PoleZeroPair(double pRe, double pIm, double zRe, double zIm) {
+        poles = new ComplexPair(pRe, pIm);
+        zeros = new ComplexPair(zRe, zIm);
     }
 
     // pole/zero pair
-    public PoleZeroPair(Complex p1, Complex z1, Complex p2, Complex z2) {
-        poles = new ComplexPair(p1, p2);
-        zeros = new ComplexPair(z1, z2);
+    public PoleZeroPair(double p1Re, double p1Im, double z1Re, double z1Im,
+                        double p2Re, double p2Im, double z2Re, double z2Im) {
+        poles = new ComplexPair(p1Re, p1Im, p2Re, p2Im);
+        zeros = new ComplexPair(z1Re, z1Im, z2Re, z2Im);
     }
 
     public boolean isSinglePole() {
-        return poles.second.equals(new Complex(0, 0))
-                && zeros.second.equals(new Complex(0, 0));
+        return poles.secondRe == 0 && poles.secondIm == 0
+                && zeros.secondRe == 0 && zeros.secondIm == 0;
     }
 
     public boolean is_nan() {
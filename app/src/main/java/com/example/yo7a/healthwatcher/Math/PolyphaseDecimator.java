@@ -0,0 +1,200 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Real-time multistage FIR decimator.
+ *
+ * The total factor is split into stages of at most MAX_STAGE_FACTOR (largest
+ * first). Every stage is a linear phase windowed-sinc low-pass followed by
+ * downsampling; like a polyphase implementation it only evaluates the filter
+ * for the samples that are kept, so a stage costs taps / factor
+ * multiplications per input sample. Later stages run at the already reduced
+ * rate, which keeps the total filter length far below that of a single stage
+ * with the same transition band.
+ */
+public class PolyphaseDecimator {
+
+    public static final int MAX_STAGE_FACTOR = 8;
+
+    // filter half-length in output samples of a stage; taps = 2 * TAPS_PER_SIDE * factor + 1
+    private static final int TAPS_PER_SIDE = 4;
+    // cutoff as fraction of the output Nyquist frequency of a stage
+    private static final double CUTOFF_FRACTION = 0.8;
+
+    private final int factor;
+    private final Stage[] stages;
+    private double output;
+
+    /**
+     * @param factor total decimation factor (>= 1, 1 passes samples through)
+     */
+    public PolyphaseDecimator(int factor) {
+        this(stageFactors(factor));
+    }
+
+    /**
+     * @param stageFactors decimation factor of each stage, applied in order
+     */
+    public PolyphaseDecimator(int[] stageFactors) {
+        int total = 1;
+        stages = new Stage[stageFactors.length];
+        for (int i = 0; i < stageFactors.length; i++) {
+            if (stageFactors[i] < 2) {
+                throw new IllegalArgumentException("stage factors must be >= 2");
+            }
+            stages[i] = new Stage(stageFactors[i]);
+            total *= stageFactors[i];
+        }
+        factor = total;
+    }
+
+    /**
+     * Splits factor into stages of at most MAX_STAGE_FACTOR, largest first.
+     */
+    public static int[] stageFactors(int factor) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("factor must be >= 1");
+        }
+        int[] primes = new int[32];
+        int n = 0;
+        int rest = factor;
+        for (int p = 2; p * p <= rest; p++) {
+            while (rest % p == 0) {
+                primes[n++] = p;
+                rest /= p;
+            }
+        }
+        if (rest > 1) primes[n++] = rest;
+
+        // greedily merge the largest remaining prime with the smallest ones
+        int[] stages = new int[n];
+        int count = 0;
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            int s = primes[hi--];
+            while (lo <= hi && s * primes[lo] <= MAX_STAGE_FACTOR) {
+                s *= primes[lo++];
+            }
+            stages[count++] = s;
+        }
+        java.util.Arrays.sort(stages, 0, count);
+        int[] out = new int[count];
+        for (int i = 0; i < count; i++) out[i] = stages[count - 1 - i];
+        return out;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    public int getNumStages() {
+        return stages.length;
+    }
+
+    /**
+     * @return group delay of the decimator in input samples
+     */
+    public double getDelaySamples() {
+        double delay = 0.0;
+        int scale = 1;
+        for (Stage s : stages) {
+            delay += 0.5 * (s.taps.length - 1) * scale;
+            scale *= s.factor;
+        }
+        return delay;
+    }
+
+    public void reset() {
+        for (Stage s : stages) s.reset();
+        output = 0.0;
+    }
+
+    /**
+     * Pushes one input sample.
+     *
+     * @return true if a new output sample is available from getOutput()
+     */
+    public boolean add(double x) {
+        double v = x;
+        for (Stage s : stages) {
+            if (!s.add(v)) return false;
+            v = s.output;
+        }
+        output = v;
+        return true;
+    }
+
+    /**
+     * @return the most recent output sample
+     */
+    public double getOutput() {
+        return output;
+    }
+
+    /**
+     * Decimates in[off..off+len) into out starting at outOff.
+     *
+     * @return number of output samples written
+     */
+    public int process(double[] in, int off, int len, double[] out, int outOff) {
+        int n = 0;
+        for (int i = off; i < off + len; i++) {
+            if (add(in[i])) out[outOff + n++] = output;
+        }
+        return n;
+    }
+
+    private static final class Stage {
+        final int factor;
+        final double[] taps;
+        // history stored twice so the taps window is always contiguous
+        final double[] history;
+        int pos;
+        int phase;
+        double output;
+
+        Stage(int factor) {
+            this.factor = factor;
+            this.taps = lowPass(2 * TAPS_PER_SIDE * factor + 1, CUTOFF_FRACTION * 0.5 / factor);
+            this.history = new double[2 * taps.length];
+        }
+
+        void reset() {
+            java.util.Arrays.fill(history, 0.0);
+            pos = 0;
+            phase = 0;
+            output = 0.0;
+        }
+
+        boolean add(double x) {
+            int n = taps.length;
+            history[pos] = x;
+            history[pos + n] = x;
+            pos = (pos + 1 == n) ? 0 : pos + 1;
+            if (++phase < factor) return false;
+            phase = 0;
+            // taps are symmetric, so history[pos..pos+n) can be used oldest first
+            double acc = 0.0;
+            for (int k = 0; k < n; k++) acc += taps[k] * history[pos + k];
+            output = acc;
+            return true;
+        }
+
+        // Blackman windowed sinc with unit DC gain; cutoff in cycles per sample
+        static double[] lowPass(int n, double cutoff) {
+            double[] h = new double[n];
+            int mid = (n - 1) / 2;
+            double sum = 0.0;
+            for (int k = 0; k < n; k++) {
+                int m = k - mid;
+                double sinc = (m == 0) ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * m) / (Math.PI * m);
+                double w = 0.42 - 0.5 * Math.cos(2 * Math.PI * k / (n - 1))
+                        + 0.08 * Math.cos(4 * Math.PI * k / (n - 1));
+                h[k] = sinc * w;
+                sum += h[k];
+            }
+            for (int k = 0; k < n; k++) h[k] /= sum;
+            return h;
+        }
+    }
+}
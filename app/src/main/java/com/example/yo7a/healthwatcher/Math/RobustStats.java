@@ -0,0 +1,213 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Robust statistics (median, MAD, percentiles) on primitive arrays using
+ * selection instead of full sorts.
+ *
+ * Selection is an introselect: quickselect with median-of-three pivots that
+ * falls back to sorting the remaining range if partitioning degenerates, so
+ * the expected cost is O(n) and the worst case O(n log n).
+ *
+ * Methods that take a work array copy the input into it and leave the input
+ * untouched; pass a buffer of at least n entries to avoid allocation.
+ */
+public class RobustStats {
+
+    private RobustStats() {
+    }
+
+    /**
+     * Rearranges a[from..to) so that a[k] holds the value it would have after
+     * sorting, everything before it is <= a[k] and everything after is >= a[k].
+     *
+     * @return a[k]
+     */
+    public static double select(double[] a, int from, int to, int k) {
+        if (k < from || k >= to) {
+            throw new IllegalArgumentException("k outside of range");
+        }
+        int lo = from;
+        int hi = to - 1;
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+        while (hi > lo) {
+            if (depth-- == 0) {
+                java.util.Arrays.sort(a, lo, hi + 1);
+                return a[k];
+            }
+            int mid = (lo + hi) >>> 1;
+            // median of three, moved to a[mid]
+            if (a[mid] < a[lo]) swap(a, mid, lo);
+            if (a[hi] < a[lo]) swap(a, hi, lo);
+            if (a[hi] < a[mid]) swap(a, hi, mid);
+            double pivot = a[mid];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    swap(a, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return a[k];
+            }
+        }
+        return a[k];
+    }
+
+    /**
+     * int variant of select(double[], int, int, int).
+     */
+    public static int select(int[] a, int from, int to, int k) {
+        if (k < from || k >= to) {
+            throw new IllegalArgumentException("k outside of range");
+        }
+        int lo = from;
+        int hi = to - 1;
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+        while (hi > lo) {
+            if (depth-- == 0) {
+                java.util.Arrays.sort(a, lo, hi + 1);
+                return a[k];
+            }
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < a[lo]) swap(a, mid, lo);
+            if (a[hi] < a[lo]) swap(a, hi, lo);
+            if (a[hi] < a[mid]) swap(a, hi, mid);
+            int pivot = a[mid];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    swap(a, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return a[k];
+            }
+        }
+        return a[k];
+    }
+
+    /**
+     * Median of x[0..n) (mean of the two middle values for even n).
+     *
+     * @param work scratch buffer with at least n entries, or null to allocate
+     */
+    public static double median(double[] x, int n, double[] work) {
+        if (n <= 0) return Double.NaN;
+        double[] w = copy(x, n, work);
+        return medianInPlace(w, n);
+    }
+
+    /**
+     * Median absolute deviation of x[0..n) around its median (not scaled by 1.4826).
+     *
+     * @param work scratch buffer with at least n entries, or null to allocate
+     */
+    public static double mad(double[] x, int n, double[] work) {
+        if (n <= 0) return Double.NaN;
+        double[] w = copy(x, n, work);
+        double med = medianInPlace(w, n);
+        for (int i = 0; i < n; i++) w[i] = Math.abs(x[i] - med);
+        return medianInPlace(w, n);
+    }
+
+    /**
+     * Percentile of x[0..n) with linear interpolation between closest ranks.
+     *
+     * @param p    percentile in [0, 100]
+     * @param work scratch buffer with at least n entries, or null to allocate
+     */
+    public static double percentile(double[] x, int n, double p, double[] work) {
+        if (n <= 0) return Double.NaN;
+        if (p < 0 || p > 100) throw new IllegalArgumentException("p must be in [0, 100]");
+        double[] w = copy(x, n, work);
+        double rank = p / 100.0 * (n - 1);
+        int k = (int) Math.floor(rank);
+        double frac = rank - k;
+        double v = select(w, 0, n, k);
+        if (frac == 0.0 || k + 1 >= n) return v;
+        // a[k+1..n) is >= a[k] after selection, so the next rank is its minimum
+        double next = w[k + 1];
+        for (int i = k + 2; i < n; i++) {
+            if (w[i] < next) next = w[i];
+        }
+        return v + frac * (next - v);
+    }
+
+    /**
+     * Mean of x[0..n) without the lowest and highest trim * n values each.
+     *
+     * @param trim fraction cut from each end, in [0, 0.5)
+     * @param work scratch buffer with at least n entries, or null to allocate
+     */
+    public static double trimmedMean(double[] x, int n, double trim, double[] work) {
+        if (n <= 0) return Double.NaN;
+        if (trim < 0 || trim >= 0.5) throw new IllegalArgumentException("trim must be in [0, 0.5)");
+        double[] w = copy(x, n, work);
+        int cut = (int) (trim * n);
+        if (cut > 0) {
+            // w[0..cut) <= w[cut..n - cut) <= w[n - cut..n)
+            select(w, 0, n, cut);
+            select(w, cut, n, n - cut - 1);
+        }
+        double sum = 0.0;
+        for (int i = cut; i < n - cut; i++) sum += w[i];
+        return sum / (n - 2 * cut);
+    }
+
+    /**
+     * Upper median (element n/2 of the sorted order) of a[0..n), reordering a.
+     */
+    public static int upperMedianInPlace(int[] a, int n) {
+        return select(a, 0, n, n / 2);
+    }
+
+    private static double medianInPlace(double[] w, int n) {
+        int k = n / 2;
+        double upper = select(w, 0, n, k);
+        if ((n & 1) == 1) return upper;
+        // lower middle is the maximum of the left partition
+        double lower = w[0];
+        for (int i = 1; i < k; i++) {
+            if (w[i] > lower) lower = w[i];
+        }
+        return 0.5 * (lower + upper);
+    }
+
+    private static double[] copy(double[] x, int n, double[] work) {
+        double[] w = (work != null && work.length >= n) ? work : new double[n];
+        System.arraycopy(x, 0, w, 0, n);
+        return w;
+    }
+
+    private static void swap(double[] a, int i, int j) {
+        double t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Immutable snapshot of the coefficients of a biquad cascade, stored as
+ * second order sections in the flat {b0, b1, b2, a1, a2} layout used by
+ * CascadeKernels (a0 normalized to 1).
+ * <p>
+ * One instance can be shared by any number of SosFilter states, also across
+ * threads, since nothing in it ever changes after construction.
+ */
+public final class SosCoefficients {
+
+    private final double[] m_coeffs;
+    private final int m_numStages;
+
+    SosCoefficients(double[] coeffs, int numStages) {
+        m_numStages = numStages;
+        m_coeffs = new double[numStages * CascadeKernels.COEFF_STRIDE];
+        System.arraycopy(coeffs, 0, m_coeffs, 0, m_coeffs.length);
+    }
+
+    public int getNumStages() {
+        return m_numStages;
+    }
+
+    public double getB0(int stage) {
+        return m_coeffs[stage * CascadeKernels.COEFF_STRIDE];
+    }
+
+    public double getB1(int stage) {
+        return m_coeffs[stage * CascadeKernels.COEFF_STRIDE + 1];
+    }
+
+    public double getB2(int stage) {
+        return m_coeffs[stage * CascadeKernels.COEFF_STRIDE + 2];
+    }
+
+    public double getA1(int stage) {
+        return m_coeffs[stage * CascadeKernels.COEFF_STRIDE + 3];
+    }
+
+    public double getA2(int stage) {
+        return m_coeffs[stage * CascadeKernels.COEFF_STRIDE + 4];
+    }
+
+    // shared flat array; callers in this package must not modify it
+    double[] array() {
+        return m_coeffs;
+    }
+
+    /**
+     * Writes {re, im} of the response at normalizedFrequency (cycles per
+     * sample) to reIm[0], reIm[1].
+     */
+    public void response(double normalizedFrequency, double[] reIm) {
+        CascadeKernels.response(m_coeffs, m_numStages, normalizedFrequency, reIm, 0);
+    }
+
+    /**
+     * Magnitude and phase (or null) over a frequency grid, see Cascade.
+     */
+    public void response(double[] normalizedFrequencies, double[] magnitude, double[] phase) {
+        CascadeKernels.magnitudePhase(m_coeffs, m_numStages, normalizedFrequencies, magnitude, phase);
+    }
+
+    /**
+     * Group delay in samples at normalizedFrequency (cycles per sample).
+     */
+    public double groupDelay(double normalizedFrequency) {
+        return CascadeKernels.groupDelay(m_coeffs, m_numStages, normalizedFrequency);
+    }
+}
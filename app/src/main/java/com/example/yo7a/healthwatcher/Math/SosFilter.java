@@ -0,0 +1,52 @@
+package com.example.yo7a.healthwatcher.Math;
+
+/**
+ * Filter state running on shared, immutable SosCoefficients.
+ * <p>
+ * Many SosFilter instances (one per channel, per activity, ...) can use the
+ * same coefficient set, e.g. one handed out by FilterDesignCache. Each
+ * instance owns only its state array.
+ */
+public class SosFilter {
+
+    private final SosCoefficients m_coefficients;
+    private final double[] m_state;
+    private final int m_directFormType;
+
+    public SosFilter(SosCoefficients coefficients) {
+        this(coefficients, DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED);
+    }
+
+    /**
+     * @param coefficients   shared coefficient set
+     * @param directFormType DirectFormAbstract.DIRECT_FORM_I, DIRECT_FORM_II
+     *                       or DIRECT_FORM_II_TRANSPOSED
+     */
+    public SosFilter(SosCoefficients coefficients, int directFormType) {
+        m_coefficients = coefficients;
+        m_state = new double[coefficients.getNumStages() * CascadeKernels.STATE_STRIDE];
+        m_directFormType = directFormType;
+    }
+
+    public SosCoefficients getCoefficients() {
+        return m_coefficients;
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(m_state, 0);
+    }
+
+    public double filter(double in) {
+        return CascadeKernels.processSample(m_directFormType, m_coefficients.array(),
+                m_state, m_coefficients.getNumStages(), in);
+    }
+
+    /**
+     * Filters in[off..off+len) into out[off..off+len); in and out may be the
+     * same array.
+     */
+    public void filter(double[] in, double[] out, int off, int len) {
+        CascadeKernels.processBlock(m_directFormType, m_coefficients.array(),
+                m_state, m_coefficients.getNumStages(), in, out, off, len);
+    }
+}
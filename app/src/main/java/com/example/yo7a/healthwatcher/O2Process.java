@@ -10,16 +10,29 @@ import android.view.SurfaceView;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
-import java.util.ArrayList;
+import com.example.yo7a.healthwatcher.Math.DoubleRingBuffer;
+import com.example.yo7a.healthwatcher.Math.FloatRingBuffer;
+
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Improved O2Process:
  * - Uses camera PPG (red + blue channels) to estimate SpO2 via AC/DC ratio method.
- * - Extracts pulse (BPM) using robust dominant-frequency detection (SignalProcessing).
+ * - The ratio is formed per beat by SpO2Estimator and robustly averaged; a
+ *   StoppingController ends the measurement as soon as the SpO2 confidence
+ *   interval is narrow on a run of beats (counted from SpO2Estimator.MIN_BEATS
+ *   on), pulse comes from the beats.
+ * - If no per-beat estimate settles within the time limit, the whole window is
+ *   analysed once: pulse by robust dominant-frequency detection
+ *   (SignalProcessing), AC / DC from std / mean.
  * - Preprocessing: detrend, window, normalize.
- * - Signal quality checks: frame brightness, stability, SNR.
- * - Smoothing across short windows and adaptive stopping rules.
+ * - Samples are kept in ring buffers; the analysis runs in double or, if the
+ *   DspPrecision.EXTRA extra says FLOAT, in single precision: the per-beat
+ *   band-pass as well as the whole-window analysis. Only the FLOAT session
+ *   stores its samples as float, so the DOUBLE one stays the full precision
+ *   reference.
+ * - Signal quality checks: frame brightness, beat confidence and perfusion
+ *   per beat; stability and SNR of the whole window.
  *
  * Notes:
  * - SpO2 mapping uses a linear calibration (typical approximate mapping).
@@ -38,9 +51,14 @@ public class O2Process extends Activity {
 
     private ProgressBar progO2;
 
-    private final ArrayList<Double> redAvgList = new ArrayList<>();
-    private final ArrayList<Double> blueAvgList = new ArrayList<>();
+    // frame means of the session's precision; the other pair stays null
+    private DoubleRingBuffer redAvgBuf, blueAvgBuf;
+    private FloatRingBuffer redAvgBufF, blueAvgBufF;
     private int frameCounter = 0;
+    private SpO2Estimator spo2Estimator;
+    private final StoppingController stopping = new StoppingController(STOP_POLICY);
+    private boolean adjustShown = false;
+    private DspPrecision precision = DspPrecision.DOUBLE;
 
     private long startTime = 0;
     private double samplingFreq;
@@ -48,10 +66,9 @@ public class O2Process extends Activity {
     private static final AtomicBoolean processing = new AtomicBoolean(false);
 
     // Measurement parameters (tune if needed)
-    private static final double MIN_SECONDS = 12.0;         // minimum collection window before analyze
-    private static final double MAX_SECONDS = 60.0;         // max allowed collection time
+    private static final StoppingController.Policy STOP_POLICY = StoppingController.Policy.SPO2;
     private static final int MIN_FRAMES = 30;               // minimum frames required
-    private static final int SMOOTH_WINDOW = 3;             // moving average on final values
+    private static final int MAX_BUFFERED_FRAMES = (int) (STOP_POLICY.maxSeconds * 60); // time limit at up to 60 fps
     private static final double SNR_THRESHOLD = 4.0;        // required SNR (peak/noise) to accept
     private static final double STABILITY_STD_MEAN_MIN = 0.002; // too-flat threshold
     private static final double STABILITY_STD_MEAN_MAX = 0.25;  // too-noisy threshold
@@ -61,10 +78,6 @@ public class O2Process extends Activity {
     private static final double SPO2_A = 110.0;
     private static final double SPO2_B = 25.0;
 
-    // smoothing buffers
-    private final ArrayList<Double> spo2History = new ArrayList<>();
-    private final ArrayList<Integer> pulseHistory = new ArrayList<>();
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -72,6 +85,15 @@ public class O2Process extends Activity {
 
         Data = new UserDB(getApplicationContext());
         user = getIntent().getStringExtra("Usr");
+        precision = DspPrecision.fromName(getIntent().getStringExtra(DspPrecision.EXTRA));
+        spo2Estimator = new SpO2Estimator(precision);
+        if (precision == DspPrecision.FLOAT) {
+            redAvgBufF = new FloatRingBuffer(MAX_BUFFERED_FRAMES);
+            blueAvgBufF = new FloatRingBuffer(MAX_BUFFERED_FRAMES);
+        } else {
+            redAvgBuf = new DoubleRingBuffer(MAX_BUFFERED_FRAMES);
+            blueAvgBuf = new DoubleRingBuffer(MAX_BUFFERED_FRAMES);
+        }
 
         preview = findViewById(R.id.preview);
         previewHolder = preview.getHolder();
@@ -140,8 +162,13 @@ public class O2Process extends Activity {
             }
 
             // Append samples
-            redAvgList.add(redAvg);
-            blueAvgList.add(blueAvg);
+            if (precision == DspPrecision.FLOAT) {
+                redAvgBufF.add((float) redAvg);
+                blueAvgBufF.add((float) blueAvg);
+            } else {
+                redAvgBuf.add(redAvg);
+                blueAvgBuf.add(blueAvg);
+            }
             frameCounter++;
 
             long now = System.currentTimeMillis();
@@ -150,248 +177,240 @@ public class O2Process extends Activity {
             // update sampling estimate (after short initial period)
             if (elapsedSec > 0.5) samplingFreq = frameCounter / elapsedSec;
 
+            // per-beat ratio of ratios; ends the measurement as soon as it settles.
+            // The interval stays open (infinite error) until MIN_BEATS ratios are in
+            StoppingController.Decision decision;
+            if (spo2Estimator.add(redAvg, blueAvg, elapsedSec)) {
+                double ratio = spo2Estimator.getRatio();
+                decision = stopping.update(elapsedSec, spo2FromRatio(ratio),
+                        spo2HalfWidth(ratio, spo2Estimator.getRatioError()));
+            } else {
+                decision = stopping.poll(elapsedSec);
+            }
+            if (decision == StoppingController.Decision.DONE) {
+                int pulse = (int) Math.round(spo2Estimator.getBeatRateBpm());
+                showResult(spo2FromRatio(spo2Estimator.getRatio()), pulse);
+                return;
+            }
+
+            // ask for the finger to be repositioned as soon as the beats go bad
+            boolean adjust = spo2Estimator.shouldAdjustFinger();
+            if (adjust && !adjustShown) showShortToast("Adjust fingertip: cover camera and flash, hold still");
+            adjustShown = adjust;
+
             // update progress
             if (progO2 != null) {
-                int p = Math.min(100, (int) Math.round(Math.min(elapsedSec / MAX_SECONDS, 1.0) * 100.0));
+                int p = (int) Math.round(stopping.getTimeFraction(elapsedSec) * 100.0);
                 progO2.setProgress(p);
             }
 
-            // Only analyze after a reasonable minimum time to capture AC components
-            if (elapsedSec >= MIN_SECONDS && frameCounter >= MIN_FRAMES) {
-
-                // Use last window up to MAX_SECONDS worth of samples
-                int desiredFrames = (int) Math.round(Math.max(MIN_FRAMES, Math.min(frameCounter, Math.round(Math.max(1.0, samplingFreq) * Math.min(elapsedSec, MAX_SECONDS)))));
-                // keep newest samples if buffer larger
-                while (redAvgList.size() > desiredFrames) {
-                    redAvgList.remove(0);
-                    blueAvgList.remove(0);
-                }
-                frameCounter = redAvgList.size();
-
-                // Convert to double arrays
-                int N = frameCounter;
-                double[] redSamples = new double[N];
-                double[] blueSamples = new double[N];
-                double meanR = 0.0, meanB = 0.0;
-                for (int i = 0; i < N; i++) {
-                    redSamples[i] = redAvgList.get(i);
-                    blueSamples[i] = blueAvgList.get(i);
-                    meanR += redSamples[i];
-                    meanB += blueSamples[i];
-                }
-                meanR /= N;
-                meanB /= N;
-
-                // Stability metrics
-                double varR = 0.0, varB = 0.0;
-                for (int i = 0; i < N; i++) {
-                    double dr = redSamples[i] - meanR;
-                    double db = blueSamples[i] - meanB;
-                    varR += dr * dr;
-                    varB += db * db;
-                }
-                double stdR = Math.sqrt(varR / N);
-                double stdB = Math.sqrt(varB / N);
-                double stabilityR = (meanR > 0.0) ? (stdR / meanR) : 0.0;
-                double stabilityB = (meanB > 0.0) ? (stdB / meanB) : 0.0;
-
-                // Reject too-flat or too-noisy signals
-                if (stabilityR < STABILITY_STD_MEAN_MIN && stabilityB < STABILITY_STD_MEAN_MIN) {
-                    // too flat → maybe no pulsatile signal yet; allow more time up to MAX_SECONDS
-                    if (elapsedSec < MAX_SECONDS) {
-                        processing.set(false);
-                        return;
-                    }
-                } else if (stabilityR > STABILITY_STD_MEAN_MAX || stabilityB > STABILITY_STD_MEAN_MAX) {
-                    showShortToast("Signal noisy — reposition fingertip");
-                    resetBuffers();
-                    startTime = System.currentTimeMillis();
-                    processing.set(false);
+            if (decision == StoppingController.Decision.ABORT) {
+                showShortToast("No pulse found, reposition fingertip and try again");
+                resetBuffers();
+                startTime = System.currentTimeMillis();
+            } else if (decision == StoppingController.Decision.TIMEOUT) {
+                // settle for an unconverged per-beat estimate, then for the whole window
+                if (spo2Estimator.getAcceptedBeats() >= SpO2Estimator.MIN_BEATS) {
+                    int pulse = (int) Math.round(spo2Estimator.getBeatRateBpm());
+                    showResult(spo2FromRatio(spo2Estimator.getRatio()), pulse);
                     return;
                 }
+                if (frameCounter >= MIN_FRAMES && analyzeWindow(elapsedSec)) return;
+                // still no valid result at the time limit, fail gracefully
+                showShortToast("Measurement timed out, try again");
+                resetBuffers();
+                startTime = System.currentTimeMillis();
+            }
 
-                // Preprocess for spectral analysis: remove linear trend and window
-                // Use helper SignalProcessing utilities if available
-                double[] redCopy = redSamples.clone();
-                double[] blueCopy = blueSamples.clone();
-                SignalProcessing.removeLinearTrend(redCopy);
-                SignalProcessing.removeLinearTrend(blueCopy);
-                SignalProcessing.applyHammingWindow(redCopy);
-                SignalProcessing.applyHammingWindow(blueCopy);
-
-                // zero-pad to power of two
-                int fftSize = SignalProcessing.nextPowerOfTwo(N);
-                double[] realR = new double[fftSize];
-                double[] imagR = new double[fftSize];
-                double[] realB = new double[fftSize];
-                double[] imagB = new double[fftSize];
-                for (int i = 0; i < N; i++) {
-                    realR[i] = redCopy[i];
-                    realB[i] = blueCopy[i];
-                }
-                for (int i = N; i < fftSize; i++) {
-                    realR[i] = 0.0;
-                    realB[i] = 0.0;
-                }
-
-                // Run FFT (internal helper)
-                FftInternal.fftRadix2(realR, imagR);
-                FftInternal.fftRadix2(realB, imagB);
-
-                // magnitude spectra
-                double[] magsR = new double[fftSize / 2];
-                double[] magsB = new double[fftSize / 2];
-                for (int i = 0; i < magsR.length; i++) {
-                    magsR[i] = Math.hypot(realR[i], imagR[i]);
-                    magsB[i] = Math.hypot(realB[i], imagB[i]);
-                }
-
-                // frequency resolution
-                double sf = (samplingFreq > 0.0) ? samplingFreq : (N / Math.max(1.0, elapsedSec));
-                double freqRes = sf / fftSize;
-
-                // define physiological search band for heart rate: 0.7 Hz (42 bpm) to 4.0 Hz (240 bpm)
-                double minHz = 0.7;
-                double maxHz = 4.0;
-                int minBin = Math.max(1, (int) Math.floor(minHz / freqRes));
-                int maxBin = Math.min(magsR.length - 1, (int) Math.ceil(maxHz / freqRes));
-
-                // find peak in red and blue spectra
-                int peakR = minBin; double peakMagR = 0.0;
-                int peakB = minBin; double peakMagB = 0.0;
-                for (int i = minBin; i <= maxBin; i++) {
-                    if (magsR[i] > peakMagR) { peakMagR = magsR[i]; peakR = i; }
-                    if (magsB[i] > peakMagB) { peakMagB = magsB[i]; peakB = i; }
-                }
-
-                // compute SNR-ish: ratio of peak to median of spectrum
-                double noiseR = 1e-12; double noiseB = 1e-12;
-                double sumR = 0.0, sumB = 0.0; int cnt = 0;
-                for (int i = minBin; i <= maxBin; i++) {
-                    if (i >= peakR - 2 && i <= peakR + 2) continue;
-                    sumR += magsR[i];
-                    sumB += magsB[i];
-                    cnt++;
-                }
-                if (cnt > 0) { noiseR = sumR / cnt; noiseB = sumB / cnt; }
-                double snrR = peakMagR / Math.max(noiseR, 1e-12);
-                double snrB = peakMagB / Math.max(noiseB, 1e-12);
-
-                // Reject if SNR too low
-                if (snrR < SNR_THRESHOLD && snrB < SNR_THRESHOLD) {
-                    if (elapsedSec < MAX_SECONDS) { processing.set(false); return; }
-                }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            processing.set(false);
+        }
+    };
 
-                // Convert peak bin to frequency and BPM (use sub-bin quadratic interpolation)
-                double[] magsForInterp = magsR; int k = peakR;
-                double shift = SignalProcessing.quadraticInterp(magsForInterp, k);
-                double refinedBin = k + shift;
-                double freqHz = refinedBin * freqRes;
-                int pulseBpm = (int) Math.round(freqHz * 60.0);
-
-                // fallback: use green channel-based FFT via SignalProcessing.findDominantFrequencyHz if available
-                if (pulseBpm < 30 || pulseBpm > 220) {
-                    double[] outSNR = new double[1];
-                    double freqHzFallback = SignalProcessing.findDominantFrequencyHz(redCopy, sf, minHz, maxHz, outSNR);
-                    if (!Double.isNaN(freqHzFallback) && freqHzFallback > 0.1) {
-                        pulseBpm = (int) Math.round(freqHzFallback * 60.0);
-                    }
-                }
+    /**
+     * Whole-window estimate, used once when no per-beat estimate settled within
+     * the time limit.
+     *
+     * @return true if a result was shown
+     */
+    private boolean analyzeWindow(double elapsedSec) {
+        // Use last window up to the time limit worth of samples
+        int desiredFrames = (int) Math.round(Math.max(MIN_FRAMES, Math.min(frameCounter, Math.round(Math.max(1.0, samplingFreq) * Math.min(elapsedSec, STOP_POLICY.maxSeconds)))));
+        // analyze the newest samples only
+        boolean useFloat = precision == DspPrecision.FLOAT;
+        frameCounter = Math.min(desiredFrames, useFloat ? redAvgBufF.size() : redAvgBuf.size());
+
+        int N = frameCounter;
+        double[] redSamples = null;
+        double[] blueSamples = null;
+        float[] redF = null;
+        float[] blueF = null;
+        double meanR, meanB, stdR, stdB;
+        if (useFloat) {
+            redF = new float[N];
+            blueF = new float[N];
+            redAvgBufF.copyLast(N, redF);
+            blueAvgBufF.copyLast(N, blueF);
+            meanR = FloatSignalProcessing.mean(redF, N);
+            meanB = FloatSignalProcessing.mean(blueF, N);
+            stdR = FloatSignalProcessing.std(redF, N, meanR);
+            stdB = FloatSignalProcessing.std(blueF, N, meanB);
+        } else {
+            // Convert to double arrays
+            redSamples = new double[N];
+            blueSamples = new double[N];
+            redAvgBuf.copyLast(N, redSamples);
+            blueAvgBuf.copyLast(N, blueSamples);
+            meanR = 0.0;
+            meanB = 0.0;
+            for (int i = 0; i < N; i++) {
+                meanR += redSamples[i];
+                meanB += blueSamples[i];
+            }
+            meanR /= N;
+            meanB /= N;
 
-                // AC / DC estimation for SpO2:
-                // AC estimated as std (after detrend); DC as mean (before detrend)
-                double acR = std(redSamples, meanR);
-                double acB = std(blueSamples, meanB);
-                double dcR = meanR;
-                double dcB = meanB;
+            // Stability metrics
+            stdR = std(redSamples, meanR);
+            stdB = std(blueSamples, meanB);
+        }
+        double stabilityR = (meanR > 0.0) ? (stdR / meanR) : 0.0;
+        double stabilityB = (meanB > 0.0) ? (stdB / meanB) : 0.0;
 
-                if (dcR <= 0 || dcB <= 0) {
-                    processing.set(false);
-                    return;
-                }
+        // Reject too-flat (no finger, no pulse) or too-noisy signals
+        if (stabilityR < STABILITY_STD_MEAN_MIN && stabilityB < STABILITY_STD_MEAN_MIN) {
+            return false;
+        }
+        if (stabilityR > STABILITY_STD_MEAN_MAX || stabilityB > STABILITY_STD_MEAN_MAX) {
+            return false;
+        }
 
-                double ratio = (acR / dcR) / (acB / dcB);
+        // Preprocess for spectral analysis: remove linear trend and window
+        int fftSize = SignalProcessing.nextPowerOfTwo(N);
+        double[][] mags;
+        double[] redCopy = null;
+        float[] redCopyF = null;
+        if (useFloat) {
+            redCopyF = redF.clone();
+            float[] blueCopyF = blueF.clone();
+            FloatSignalProcessing.removeLinearTrend(redCopyF, N);
+            FloatSignalProcessing.removeLinearTrend(blueCopyF, N);
+            FloatSignalProcessing.applyHammingWindow(redCopyF, N);
+            FloatSignalProcessing.applyHammingWindow(blueCopyF, N);
+            mags = FloatSignalProcessing.magnitudeSpectra(new float[][]{redCopyF, blueCopyF}, N, fftSize);
+        } else {
+            redCopy = redSamples.clone();
+            double[] blueCopy = blueSamples.clone();
+            SignalProcessing.removeLinearTrend(redCopy);
+            SignalProcessing.removeLinearTrend(blueCopy);
+            SignalProcessing.applyHammingWindow(redCopy);
+            SignalProcessing.applyHammingWindow(blueCopy);
+
+            // zero-pad to power of two; red and blue share one complex FFT
+            mags = SignalProcessing.magnitudeSpectra(new double[][]{redCopy, blueCopy}, fftSize);
+        }
+        double[] magsR = mags[0];
+        double[] magsB = mags[1];
+
+        // frequency resolution
+        double sf = (samplingFreq > 0.0) ? samplingFreq : (N / Math.max(1.0, elapsedSec));
+        double freqRes = sf / fftSize;
+
+        // define physiological search band for heart rate: 0.7 Hz (42 bpm) to 4.0 Hz (240 bpm)
+        double minHz = 0.7;
+        double maxHz = 4.0;
+        int minBin = Math.max(1, (int) Math.floor(minHz / freqRes));
+        int maxBin = Math.min(magsR.length - 1, (int) Math.ceil(maxHz / freqRes));
+
+        // find peak in red and blue spectra
+        int peakR = minBin; double peakMagR = 0.0;
+        int peakB = minBin; double peakMagB = 0.0;
+        for (int i = minBin; i <= maxBin; i++) {
+            if (magsR[i] > peakMagR) { peakMagR = magsR[i]; peakR = i; }
+            if (magsB[i] > peakMagB) { peakMagB = magsB[i]; peakB = i; }
+        }
 
-                // Map ratio to SpO2 via linear calibration: Spo2 = A - B * ratio
-                double spo2 = SPO2_A - SPO2_B * ratio;
+        // compute SNR-ish: ratio of peak to mean of the rest of the band
+        double noiseR = 1e-12; double noiseB = 1e-12;
+        double sumR = 0.0, sumB = 0.0; int cnt = 0;
+        for (int i = minBin; i <= maxBin; i++) {
+            if (i >= peakR - 2 && i <= peakR + 2) continue;
+            sumR += magsR[i];
+            sumB += magsB[i];
+            cnt++;
+        }
+        if (cnt > 0) { noiseR = sumR / cnt; noiseB = sumB / cnt; }
+        double snrR = peakMagR / Math.max(noiseR, 1e-12);
+        double snrB = peakMagB / Math.max(noiseB, 1e-12);
+
+        // Reject a window without a pulse; the SpO2 needs both channels (slightly lenient)
+        if (snrR < SNR_THRESHOLD && snrB < SNR_THRESHOLD) return false;
+        if (Math.min(snrR, snrB) < SNR_THRESHOLD / 1.5) return false;
+
+        // Convert peak bin to frequency and BPM (use sub-bin quadratic interpolation)
+        double[] magsForInterp = magsR; int k = peakR;
+        double shift = SignalProcessing.quadraticInterp(magsForInterp, k);
+        double refinedBin = k + shift;
+        double freqHz = refinedBin * freqRes;
+        int pulseBpm = (int) Math.round(freqHz * 60.0);
+
+        // fallback: use green channel-based FFT via SignalProcessing.findDominantFrequencyHz if available
+        if (pulseBpm < 30 || pulseBpm > 220) {
+            double[] outSNR = new double[1];
+            double freqHzFallback = useFloat
+                    ? FloatSignalProcessing.findDominantFrequencyHz(redCopyF, N, sf, minHz, maxHz, outSNR)
+                    : SignalProcessing.findDominantFrequencyHz(redCopy, sf, minHz, maxHz, outSNR);
+            if (!Double.isNaN(freqHzFallback) && freqHzFallback > 0.1) {
+                pulseBpm = (int) Math.round(freqHzFallback * 60.0);
+            }
+        }
 
-                // Sanity clamp and smoothing
-                if (spo2 > 100) spo2 = 100;
-                if (spo2 < 60) spo2 = 60;
+        // AC / DC estimation for SpO2:
+        // AC estimated as std (after detrend); DC as mean (before detrend)
+        double acR = stdR;
+        double acB = stdB;
+        double dcR = meanR;
+        double dcB = meanB;
 
-                // compute combined SNR (min of both)
-                double combinedSNR = Math.min(snrR, snrB);
+        if (dcR <= 0 || dcB <= 0) return false;
 
-                // Only accept if combined SNR good and pulse plausible
-                boolean pulseOk = pulseBpm >= 30 && pulseBpm <= 220;
-                boolean spo2Ok = combinedSNR >= (SNR_THRESHOLD / 1.5); // slightly lenient
-                if (!pulseOk || !spo2Ok) {
-                    // allow more time to collect up to MAX_SECONDS
-                    if (elapsedSec < MAX_SECONDS) {
-                        processing.set(false);
-                        return;
-                    }
-                }
+        if (pulseBpm < 30 || pulseBpm > 220) return false;
 
-                // Store history and compute moving averages
-                addHistory(spo2History, spo2, SMOOTH_WINDOW);
-                addHistory(pulseHistory, pulseBpm, SMOOTH_WINDOW);
+        double ratio = (acR / dcR) / (acB / dcB);
 
-                double avgSpo2 = avg(spo2History);
-                int avgPulse = (int) Math.round(avgInt(pulseHistory));
+        showResult(spo2FromRatio(ratio), pulseBpm);
+        return true;
+    }
 
-                // Final sanity clamp
-                if (avgSpo2 < 60 || avgSpo2 > 100) {
-                    if (elapsedSec < MAX_SECONDS) { processing.set(false); return; }
-                }
+    private static double spo2FromRatio(double ratio) {
+        // Map ratio to SpO2 via linear calibration: Spo2 = A - B * ratio
+        double spo2 = SPO2_A - SPO2_B * ratio;
 
-                // Success: send result to O2Result
-                Intent intent = new Intent(O2Process.this, O2Result.class);
-                intent.putExtra("o2Value", (int) Math.round(avgSpo2));
-                intent.putExtra("pulse", avgPulse);
-                intent.putExtra("Usr", user);
-                startActivity(intent);
-                finish();
-                resetBuffers();
-                processing.set(false);
-                return;
-            }
+        // Sanity clamp
+        if (spo2 > 100) spo2 = 100;
+        if (spo2 < 60) spo2 = 60;
+        return spo2;
+    }
 
-            // if elapsed exceeds MAX_SECONDS and still no valid result, fail gracefully
-            if (elapsedSec >= MAX_SECONDS) {
-                showShortToast("Measurement timed out, try again");
-                resetBuffers();
-                startTime = System.currentTimeMillis();
-            }
+    // half width of the SpO2 interval (95%) for a ratio with the given relative standard error
+    private static double spo2HalfWidth(double ratio, double relativeError) {
+        return SPO2_B * ratio * 1.96 * relativeError;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            processing.set(false);
-        }
-    };
+    private void showResult(double spo2, int pulse) {
+        // Success: send result to O2Result
+        Intent intent = new Intent(O2Process.this, O2Result.class);
+        intent.putExtra("o2Value", (int) Math.round(spo2));
+        intent.putExtra("pulse", pulse);
+        intent.putExtra("Usr", user);
+        startActivity(intent);
+        finish();
+        resetBuffers();
+    }
 
     // small helpers
-    private void addHistory(ArrayList<Double> hist, double v, int max) {
-        hist.add(v);
-        if (hist.size() > max) hist.remove(0);
-    }
-    private void addHistory(ArrayList<Integer> hist, int v, int max) {
-        hist.add(v);
-        if (hist.size() > max) hist.remove(0);
-    }
-    private double avg(ArrayList<Double> hist) {
-        if (hist.isEmpty()) return 0.0;
-        double s = 0.0;
-        for (double v : hist) s += v;
-        return s / hist.size();
-    }
-    private double avgInt(ArrayList<Integer> hist) {
-        if (hist.isEmpty()) return 0.0;
-        double s = 0.0;
-        for (int v : hist) s += v;
-        return s / hist.size();
-    }
     private double std(double[] arr, double mean) {
         double s = 0.0;
         for (double v : arr) {
@@ -400,22 +419,6 @@ public class O2Process extends Activity {
         }
         return Math.sqrt(s / arr.length);
     }
-    private double std(Double[] arr, double mean) {
-        double s = 0.0;
-        for (double v : arr) {
-            double d = v - mean;
-            s += d * d;
-        }
-        return Math.sqrt(s / arr.length);
-    }
-    private double std(ArrayList<Double> arr, double mean) {
-        double s = 0.0;
-        for (double v : arr) {
-            double d = v - mean;
-            s += d * d;
-        }
-        return Math.sqrt(s / arr.size());
-    }
 
     private final SurfaceHolder.Callback surfaceCallback = new SurfaceHolder.Callback() {
         @Override
@@ -457,14 +460,21 @@ public class O2Process extends Activity {
     }
 
     private void resetBuffers() {
-        redAvgList.clear();
-        blueAvgList.clear();
+        if (redAvgBuf != null) {
+            redAvgBuf.clear();
+            blueAvgBuf.clear();
+        }
+        if (redAvgBufF != null) {
+            redAvgBufF.clear();
+            blueAvgBufF.clear();
+        }
         frameCounter = 0;
         startTime = System.currentTimeMillis();
         samplingFreq = 0.0;
         if (progO2 != null) progO2.setProgress(0);
-        spo2History.clear();
-        pulseHistory.clear();
+        spo2Estimator.reset();
+        stopping.reset();
+        adjustShown = false;
     }
 
     @Override
@@ -480,43 +490,4 @@ public class O2Process extends Activity {
         mainToast = Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_SHORT);
         mainToast.show();
     }
-
-    // Minimal internal FFT helper (used above) — reuse your SignalProcessing / FftInternals if available.
-    // If you already have FftInternal/SignalProcessing.fftRadix2 accessible, you can remove this class and call that method.
-    static final class FftInternal {
-        static void fftRadix2(double[] real, double[] imag) {
-            int n = real.length;
-            int levels = 31 - Integer.numberOfLeadingZeros(n);
-            if ((1 << levels) != n) throw new IllegalArgumentException("FFT length not power of 2");
-            // bit reverse
-            for (int i = 0; i < n; i++) {
-                int j = Integer.reverse(i) >>> (32 - levels);
-                if (j > i) {
-                    double tr = real[i]; double ti = imag[i];
-                    real[i] = real[j]; imag[i] = imag[j];
-                    real[j] = tr; imag[j] = ti;
-                }
-            }
-            // Cooley-Tukey
-            for (int size = 2; size <= n; size <<= 1) {
-                int half = size >> 1;
-                double tableStep = -2.0 * Math.PI / size;
-                for (int i = 0; i < n; i += size) {
-                    for (int j = 0; j < half; j++) {
-                        double angle = j * tableStep;
-                        double wr = Math.cos(angle);
-                        double wi = Math.sin(angle);
-                        double tr = wr * real[i + j + half] - wi * imag[i + j + half];
-                        double ti = wi * real[i + j + half] + wr * imag[i + j + half];
-                        real[i + j + half] = real[i + j] - tr;
-                        imag[i + j + half] = imag[i + j] - ti;
-                        real[i + j] += tr;
-                        imag[i + j] += ti;
-                    }
-                }
-            }
-        }
-    }
 }
-
-
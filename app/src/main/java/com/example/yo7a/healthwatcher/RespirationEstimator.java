@@ -0,0 +1,258 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.Math.LombScargle;
+
+/**
+ * Respiratory rate from the respiratory modulations of the PPG beat stream.
+ *
+ * - Breathing modulates the pulse three ways: the baseline intensity (RIIV),
+ *   the pulse amplitude (RIAV) and the beat intervals (RIFV, respiratory sinus
+ *   arrhythmia). add() takes one value of each per beat; the series are kept
+ *   over a sliding window of the newest WINDOW_SECONDS.
+ * - Every series is sampled at the beat times, so its rate comes from a
+ *   Lomb-Scargle periodogram of the (linearly detrended) series without
+ *   resampling. The highest peak between MIN_RESP_HZ and MAX_RESP_HZ (and
+ *   below half the beat rate) is the series' rate, its false alarm
+ *   probability its quality: q = -log10(FAP).
+ * - Each series' rate has a standard error of sqrt(6) / (2 pi T sqrt(z)) Hz
+ *   for a span T and normalized peak power z (the frequency error of a
+ *   least squares sinusoid fit).
+ * - The series agreeing with the best one (within AGREEMENT) are fused by an
+ *   inverse variance weighted mean, whose 95% interval is getHalfWidth(), so
+ *   the interval belongs to the reported rate. The estimate is updated with
+ *   every beat and has converged once at least two series agree and their
+ *   summed quality reaches MIN_QUALITY, so clean recordings finish after a
+ *   few breaths.
+ *
+ * Rates are in breaths per minute. No allocations happen after construction.
+ */
+public final class RespirationEstimator {
+
+    public static final int RIIV = 0;
+    public static final int RIAV = 1;
+    public static final int RIFV = 2;
+    public static final int SERIES = 3;
+
+    public static final double WINDOW_SECONDS = 32.0;
+    public static final double MIN_RESP_HZ = 0.08;
+    public static final double MAX_RESP_HZ = 0.6;
+    // shortest span analysed, a little over one cycle at 6 breaths per minute
+    public static final double MIN_SPAN_SECONDS = 12.0;
+    public static final double MIN_QUALITY = 4.0;
+
+    // relative rate difference up to which two series agree
+    private static final double AGREEMENT = 0.12;
+    // a series with a higher false alarm probability takes no part in the fusion
+    private static final double MAX_SERIES_FAP = 0.1;
+    private static final int MIN_BEATS = 8;
+    private static final int OVERSAMPLING = 4;
+
+    private final int capacity;
+    private final double[] times;
+    private final double[][] values;
+    private int head = 0;
+    private int count = 0;
+
+    // analysis scratch
+    private final double[] spT;
+    private final double[] spY;
+    private final double[] power;
+    private final LombScargle lomb;
+
+    private final double[] seriesRate = new double[SERIES];
+    private final double[] seriesFap = new double[SERIES];
+    private final double[] seriesSigma = new double[SERIES];
+    private double rate = Double.NaN;
+    private double quality = 0.0;
+    private double halfWidth = Double.POSITIVE_INFINITY;
+    private int agreeing = 0;
+
+    public RespirationEstimator() {
+        // enough for BeatDetector.MAX_BPM over the whole window
+        capacity = (int) Math.ceil(WINDOW_SECONDS * BeatDetector.MAX_BPM / 60.0) + 1;
+        times = new double[capacity];
+        values = new double[SERIES][capacity];
+        spT = new double[capacity];
+        spY = new double[capacity];
+        int maxFreqs = (int) Math.ceil(MAX_RESP_HZ * OVERSAMPLING * WINDOW_SECONDS) + 1;
+        power = new double[maxFreqs];
+        lomb = new LombScargle(maxFreqs);
+        clearSeries();
+    }
+
+    /**
+     * Adds one clean beat and updates the estimate.
+     *
+     * @param beatTime  time of the beat in seconds
+     * @param intensity mean raw intensity over the beat (RIIV)
+     * @param amplitude peak to trough amplitude of the beat (RIAV)
+     * @param ibi       interval to the previous beat in seconds (RIFV), NaN if unknown
+     * @return true if the estimate was updated
+     */
+    public boolean add(double beatTime, double intensity, double amplitude, double ibi) {
+        while (count > 0 && (count == capacity || beatTime - times[head] > WINDOW_SECONDS)) {
+            head = (head + 1) % capacity;
+            count--;
+        }
+        int pos = (head + count) % capacity;
+        times[pos] = beatTime;
+        values[RIIV][pos] = intensity;
+        values[RIAV][pos] = amplitude;
+        values[RIFV][pos] = ibi;
+        count++;
+
+        if (count < MIN_BEATS) return false;
+        double span = beatTime - times[head];
+        if (span < MIN_SPAN_SECONDS) return false;
+        // the series are sampled once per beat
+        double beatRateHz = (count - 1) / span;
+        double fMax = Math.min(MAX_RESP_HZ, 0.5 * beatRateHz);
+        for (int s = 0; s < SERIES; s++) analyse(s, span, fMax);
+        fuse();
+        return true;
+    }
+
+    private void analyse(int s, double span, double fMax) {
+        seriesRate[s] = Double.NaN;
+        seriesFap[s] = 1.0;
+        seriesSigma[s] = Double.POSITIVE_INFINITY;
+        double[] v = values[s];
+        int n = 0;
+        double first = times[head];
+        for (int i = 0; i < count; i++) {
+            int p = (head + i) % capacity;
+            if (Double.isNaN(v[p])) continue;
+            spT[n] = times[p] - first;
+            spY[n] = v[p];
+            n++;
+        }
+        if (n < MIN_BEATS) return;
+        detrend(spT, spY, n);
+
+        double df = 1.0 / (OVERSAMPLING * span);
+        int nf = Math.min(power.length, (int) Math.floor(fMax / df));
+        if (nf < 2) return;
+        lomb.periodogram(spT, spY, n, df, nf, power);
+        double f = lomb.findPeak(power, df, nf, MIN_RESP_HZ, fMax);
+        if (Double.isNaN(f)) return;
+        seriesRate[s] = 60.0 * f;
+        seriesFap[s] = lomb.getFalseAlarmProbability();
+        double z = lomb.getPeakPower();
+        if (z > 0) seriesSigma[s] = 60.0 * Math.sqrt(6.0) / (2.0 * Math.PI * span * Math.sqrt(z));
+    }
+
+    // least squares line in time removed from y
+    private static void detrend(double[] t, double[] y, int n) {
+        double st = 0, sy = 0;
+        for (int i = 0; i < n; i++) {
+            st += t[i];
+            sy += y[i];
+        }
+        double mt = st / n, my = sy / n;
+        double stt = 0, sty = 0;
+        for (int i = 0; i < n; i++) {
+            double dt = t[i] - mt;
+            stt += dt * dt;
+            sty += dt * (y[i] - my);
+        }
+        double slope = (stt > 0) ? sty / stt : 0.0;
+        for (int i = 0; i < n; i++) {
+            y[i] -= my + slope * (t[i] - mt);
+        }
+    }
+
+    private void fuse() {
+        rate = Double.NaN;
+        quality = 0.0;
+        halfWidth = Double.POSITIVE_INFINITY;
+        agreeing = 0;
+        int best = -1;
+        for (int s = 0; s < SERIES; s++) {
+            if (Double.isNaN(seriesRate[s]) || seriesFap[s] > MAX_SERIES_FAP) continue;
+            if (best < 0 || seriesFap[s] < seriesFap[best]) best = s;
+        }
+        if (best < 0) return;
+
+        double weighted = 0.0;
+        double information = 0.0;
+        double qualityWeighted = 0.0;
+        for (int s = 0; s < SERIES; s++) {
+            if (Double.isNaN(seriesRate[s]) || seriesFap[s] > MAX_SERIES_FAP) continue;
+            if (Math.abs(seriesRate[s] - seriesRate[best]) > AGREEMENT * seriesRate[best]) continue;
+            double w = 1.0 / (seriesSigma[s] * seriesSigma[s]);
+            weighted += w * seriesRate[s];
+            information += w;
+            double q = getSeriesQuality(s);
+            qualityWeighted += q * seriesRate[s];
+            quality += q;
+            agreeing++;
+        }
+        if (information > 0) {
+            rate = weighted / information;
+            halfWidth = 1.96 / Math.sqrt(information);
+        } else {
+            // no peak power to weigh by; the rate comes without an interval
+            rate = qualityWeighted / quality;
+        }
+    }
+
+    /** Fused rate in breaths per minute, NaN if no series has a significant peak. */
+    public double getRate() {
+        return rate;
+    }
+
+    /** Summed quality of the series taking part in the fused rate. */
+    public double getQuality() {
+        return quality;
+    }
+
+    /** Half width of the 95% confidence interval of the fused rate in breaths per minute. */
+    public double getHalfWidth() {
+        return halfWidth;
+    }
+
+    /** Number of series taking part in the fused rate. */
+    public int getAgreeingSeries() {
+        return agreeing;
+    }
+
+    public boolean isConverged() {
+        return agreeing >= 2 && quality >= MIN_QUALITY;
+    }
+
+    /** Rate of one series (RIIV, RIAV or RIFV) in breaths per minute, NaN if none. */
+    public double getSeriesRate(int series) {
+        return seriesRate[series];
+    }
+
+    /** False alarm probability of the peak of one series. */
+    public double getSeriesFap(int series) {
+        return seriesFap[series];
+    }
+
+    /** Quality -log10(FAP) of one series, capped at 16. */
+    public double getSeriesQuality(int series) {
+        return Math.min(16.0, -Math.log10(Math.max(1e-16, seriesFap[series])));
+    }
+
+    /** Number of beats in the window. */
+    public int getCount() {
+        return count;
+    }
+
+    private void clearSeries() {
+        java.util.Arrays.fill(seriesRate, Double.NaN);
+        java.util.Arrays.fill(seriesFap, 1.0);
+        java.util.Arrays.fill(seriesSigma, Double.POSITIVE_INFINITY);
+        rate = Double.NaN;
+        quality = 0.0;
+        halfWidth = Double.POSITIVE_INFINITY;
+        agreeing = 0;
+    }
+
+    public void reset() {
+        head = 0;
+        count = 0;
+        clearSeries();
+    }
+}
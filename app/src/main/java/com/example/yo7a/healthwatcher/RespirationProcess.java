@@ -11,7 +11,10 @@ import android.view.SurfaceView;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
+import com.example.yo7a.healthwatcher.Math.Correlation;
 import com.example.yo7a.healthwatcher.Math.Fft;
+import com.example.yo7a.healthwatcher.Math.PolyphaseDecimator;
+import com.example.yo7a.healthwatcher.Math.RobustStats;
 
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -20,12 +23,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * RespirationProcess (improved)
  *
  * - Collects green channel PPG samples from camera (more respiratory info than red)
- * - Preprocessing: detrend, mean removal, smoothing, normalize
- * - Two independent estimators:
- *     1) Autocorrelation-based peak on the low-frequency band (robust to noise/motion)
- *     2) FFT-based dominant frequency (coarse)
- * - Cross-validates estimates and uses SNR / stability heuristics to decide final RR
- * - Attempts to reduce measurement failures and early-exit if signal is stable
+ * - Detects beats on the green channel and feeds their intensity, amplitude and
+ *   interval to a RespirationEstimator, which fuses the three respiratory
+ *   modulations beat by beat; a StoppingController ends the measurement as
+ *   soon as their fused confidence interval is narrow on a run of beats
+ * - Fallback at the time limit without a settled estimate:
+ *     - Band-passes and decimates the green channel to ~3 Hz while frames arrive
+ *     - Preprocessing: detrend, mean removal, normalize
+ *     - Two independent estimators:
+ *         1) Autocorrelation-based peak on the low-frequency band (robust to noise/motion)
+ *         2) FFT-based dominant frequency (coarse)
+ *     - Cross-validates estimates and uses SNR / stability heuristics to decide final RR
  */
 public class RespirationProcess extends Activity {
 
@@ -51,11 +59,30 @@ public class RespirationProcess extends Activity {
     private long startTime = 0;
     private double samplingFreq;
 
+    // reused FFT correlation buffers; regrown only if the window gets longer
+    private Correlation correlation;
+    // respiration band prefilter; designed for the nominal preview rate, re-tuned as samplingFreq settles
+    private final BandPassPrefilter respFilter = BandPassPrefilter.respiration(30.0);
+    // anti-alias + downsample to ~TARGET_RESP_FS; factor fixed once the rate estimate is usable
+    private PolyphaseDecimator decimator = new PolyphaseDecimator(decimationFactor(30.0));
+    private boolean decimatorTuned = false;
+    // beats for the respiratory modulations; raw green is averaged over each beat for RIIV
+    private final BandPassPrefilter hrFilter = BandPassPrefilter.heartRate(30.0);
+    private final BeatDetector beatDetector = new BeatDetector();
+    private final BeatQualityIndex beatQuality = new BeatQualityIndex();
+    private boolean adjustShown = false;
+    private final RespirationEstimator respEstimator = new RespirationEstimator();
+    private final StoppingController stopping = new StoppingController(StoppingController.Policy.RESPIRATION);
+    private double beatGreenSum = 0.0;
+    private int beatFrames = 0;
+
     private int RR = 0;
-    private static final double REQUIRED_SECONDS = 20.0; // 20s is usually enough for respiration
+    private static final double WINDOW_SECONDS = 20.0;   // window of the fallback analysis
     private static final int MIN_FRAMES = 30;            // minimal frames to attempt
     private static final double MIN_RESP_HZ = 0.08;      // ~4.8 bpm (very low)
     private static final double MAX_RESP_HZ = 0.6;       // ~36 bpm (upper reasonable)
+    private static final double TARGET_RESP_FS = 3.0;    // decimated rate, Nyquist well above MAX_RESP_HZ
+    private static final int MIN_SAMPLES = 24;           // minimal decimated samples to attempt (~8s)
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -129,132 +156,191 @@ public class RespirationProcess extends Activity {
                 return;
             }
 
-            greenAvgList.add(greenAvg);
-            redAvgList.add(redAvg);
-            frameCounter++;
-
             long now = System.currentTimeMillis();
             double elapsedSec = (now - startTime) / 1000.0;
 
             // Update sampling frequency if sufficient time
-            if (elapsedSec > 0.5) samplingFreq = frameCounter / elapsedSec;
-
-            // UI progress
-            if (progResp != null) {
-                int progress = (int) Math.min(100, (elapsedSec / REQUIRED_SECONDS) * 100.0);
-                progResp.setProgress(progress);
+            if (elapsedSec > 0.5) samplingFreq = (frameCounter + 1) / elapsedSec;
+            if (elapsedSec > 1.0) {
+                respFilter.setSamplingFreq(samplingFreq);
+                hrFilter.setSamplingFreq(samplingFreq);
             }
 
-            // Only analyze when we have enough data
-            if (elapsedSec >= REQUIRED_SECONDS && frameCounter >= MIN_FRAMES) {
-
-                int desiredSamples = (int) Math.max(MIN_FRAMES, Math.round(REQUIRED_SECONDS * Math.max(1.0, samplingFreq)));
-                if (greenAvgList.size() > desiredSamples) {
-                    int toDrop = greenAvgList.size() - desiredSamples;
-                    for (int d = 0; d < toDrop; d++) {
-                        greenAvgList.remove(0);
-                        redAvgList.remove(0);
-                    }
-                    frameCounter = greenAvgList.size();
+            if (elapsedSec > 1.0 && !decimatorTuned) {
+                decimatorTuned = true;
+                int factor = decimationFactor(samplingFreq);
+                if (factor != decimator.getFactor()) {
+                    decimator = new PolyphaseDecimator(factor);
+                    greenAvgList.clear();
                 }
+            }
 
-                int N = greenAvgList.size();
-                if (N < MIN_FRAMES) {
-                    processing.set(false);
-                    return;
-                }
+            // green buffer holds the decimated respiration-band signal; red stays raw
+            if (decimator.add(respFilter.process(greenAvg))) {
+                greenAvgList.add(decimator.getOutput());
+            }
+            redAvgList.add(redAvg);
+            frameCounter++;
 
-                double[] samples = new double[N];
-                for (int i = 0; i < N; i++) samples[i] = greenAvgList.get(i);
-
-                removeLinearTrend(samples);
-                double mean = 0.0;
-                for (double v : samples) mean += v;
-                mean /= N;
-                for (int i = 0; i < N; i++) samples[i] -= mean;
-
-                double[] smooth = new double[N];
-                for (int i = 0; i < N; i++) {
-                    double s = samples[i];
-                    if (i > 0) s = (s + samples[i - 1]) * 0.5;
-                    if (i > 1) s = (s + samples[i - 2]) / 2.0;
-                    smooth[i] = s;
+            // intensity drops with each pulse; beat times are shifted back by the prefilter delay
+            double greenBp = hrFilter.process(greenAvg);
+            double beatClock = elapsedSec - hrFilter.getGroupDelaySeconds();
+            boolean beat = beatDetector.add(-greenBp, beatClock);
+            beatQuality.addSample(-greenBp, greenAvg, beatClock);
+            boolean usable = false;
+            if (beat) {
+                double intensity = beatGreenSum / Math.max(1, beatFrames);
+                beatGreenSum = 0.0;
+                beatFrames = 0;
+                beatQuality.scoreBeat(beatDetector.getBeatTime(), beatDetector.getIbi(),
+                        beatDetector.getConfidence());
+                if (beatQuality.isAcceptable()
+                        && beatDetector.getConfidence() >= BeatDetector.CLEAN_CONFIDENCE) {
+                    respEstimator.add(beatDetector.getBeatTime(), intensity,
+                            beatDetector.getBeatAmplitude(), beatDetector.getIbi());
+                    usable = true;
                 }
+            }
+            beatGreenSum += greenAvg;
+            beatFrames++;
+
+            // a single series has no confirmation yet
+            StoppingController.Decision decision = usable
+                    ? stopping.update(elapsedSec,
+                    respEstimator.getAgreeingSeries() >= 2 ? respEstimator.getRate() : Double.NaN,
+                    respEstimator.getHalfWidth())
+                    : stopping.poll(elapsedSec);
+            if (decision == StoppingController.Decision.DONE) {
+                showResult((int) Math.round(respEstimator.getRate()));
+                return;
+            }
 
-                double ssum = 0.0;
-                for (int i = 0; i < N; i++) ssum += smooth[i] * smooth[i];
-                double rms = Math.sqrt(ssum / N);
-                if (rms <= 1e-9) {
-                    showShortToast("Signal too weak, reposition finger");
+            // ask for the finger to be repositioned as soon as the beats go bad
+            boolean adjust = beatQuality.shouldAdjustFinger();
+            if (adjust && !adjustShown) showShortToast("Adjust finger: cover the lens fully and hold still");
+            adjustShown = adjust;
+
+            // UI progress
+            if (progResp != null) {
+                int progress = (int) Math.round(stopping.getTimeFraction(elapsedSec) * 100.0);
+                progResp.setProgress(progress);
+            }
+
+            if (decision == StoppingController.Decision.ABORT) {
+                showShortToast("No pulse found, reposition finger and stay still");
+                resetBuffers();
+                startTime = System.currentTimeMillis();
+            } else if (decision == StoppingController.Decision.TIMEOUT) {
+                // settle for the best unconverged fused rate, then for the window analysis
+                int finalRR = (int) Math.round(respEstimator.getRate());
+                if (Double.isNaN(respEstimator.getRate()) || finalRR < 6 || finalRR > 40) {
+                    finalRR = (frameCounter >= MIN_FRAMES) ? analyzeWindow() : -1;
+                }
+                if (finalRR < 6 || finalRR > 40) {
+                    showShortToast("Respiration measurement failed, reposition finger and stay still");
                     resetBuffers();
                     startTime = System.currentTimeMillis();
                     processing.set(false);
                     return;
                 }
-                for (int i = 0; i < N; i++) smooth[i] /= rms;
+                showResult(finalRR);
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG, "Frame processing error", e);
+        } finally {
+            processing.set(false);
+        }
+    };
 
-                double autocorrFreqHz = estimateFrequencyAutocorr(smooth, samplingFreq, MIN_RESP_HZ, MAX_RESP_HZ);
+    /**
+     * Window estimate from the decimated green channel, used when no beat
+     * estimate settled within the time limit.
+     *
+     * @return respiratory rate in breaths per minute, or -1
+     */
+    private int analyzeWindow() {
+        double decimatedFs = samplingFreq / decimator.getFactor();
+        int desiredSamples = (int) Math.max(MIN_SAMPLES, Math.round(WINDOW_SECONDS * Math.max(0.1, decimatedFs)));
+        if (greenAvgList.size() > desiredSamples) {
+            greenAvgList.subList(0, greenAvgList.size() - desiredSamples).clear();
+        }
+        int desiredFrames = (int) Math.max(MIN_FRAMES, Math.round(WINDOW_SECONDS * Math.max(1.0, samplingFreq)));
+        if (redAvgList.size() > desiredFrames) {
+            redAvgList.subList(0, redAvgList.size() - desiredFrames).clear();
+            frameCounter = redAvgList.size();
+        }
 
-                int fftSize = 1;
-                while (fftSize < N) fftSize <<= 1;
-                Double[] fftInput = new Double[fftSize];
-                for (int i = 0; i < fftSize; i++) fftInput[i] = (i < N) ? smooth[i] : 0.0;
-                double fftFreqHz = Fft.FFT(fftInput, fftSize, samplingFreq);
+        int N = greenAvgList.size();
+        if (N < MIN_SAMPLES) return -1;
 
-                double rrAuto = (Double.isNaN(autocorrFreqHz) || autocorrFreqHz <= 0) ? Double.NaN : autocorrFreqHz * 60.0;
-                double rrFft  = (Double.isNaN(fftFreqHz) || fftFreqHz <= 0) ? Double.NaN : fftFreqHz * 60.0;
+        double[] samples = new double[N];
+        for (int i = 0; i < N; i++) samples[i] = greenAvgList.get(i);
 
-                Log.d(TAG, "RR estimates: autocorr=" + rrAuto + " bpm, fft=" + rrFft + " bpm");
+        removeLinearTrend(samples);
+        double mean = 0.0;
+        for (double v : samples) mean += v;
+        mean /= N;
+        for (int i = 0; i < N; i++) samples[i] -= mean;
 
-                double signalEnergy = 0.0;
-                for (double v : smooth) signalEnergy += v * v;
-                double noiseProxy = computeNoiseProxy(smooth);
-                double snr = (noiseProxy > 0) ? (signalEnergy / (noiseProxy * N)) : 0.0;
+        // the decimator's low-pass already removed the frame-rate noise
+        double[] smooth = samples;
 
-                int finalRR = -1;
+        double ssum = 0.0;
+        for (int i = 0; i < N; i++) ssum += smooth[i] * smooth[i];
+        double rms = Math.sqrt(ssum / N);
+        if (rms <= 1e-9) return -1;
+        for (int i = 0; i < N; i++) smooth[i] /= rms;
 
-                if (!Double.isNaN(rrAuto) && rrAuto >= 6 && rrAuto <= 40) {
-                    if (snr > 0.4) {
-                        finalRR = (int)Math.round(rrAuto);
-                    }
-                }
+        double autocorrFreqHz = estimateFrequencyAutocorr(smooth, decimatedFs, MIN_RESP_HZ, MAX_RESP_HZ);
 
-                if (finalRR < 0 && !Double.isNaN(rrFft) && rrFft >= 6 && rrFft <= 40) {
-                    finalRR = (int)Math.round(rrFft);
-                }
+        int fftSize = 1;
+        while (fftSize < N) fftSize <<= 1;
+        Double[] fftInput = new Double[fftSize];
+        for (int i = 0; i < fftSize; i++) fftInput[i] = (i < N) ? smooth[i] : 0.0;
+        double fftFreqHz = Fft.FFT(fftInput, fftSize, decimatedFs);
 
-                if (!Double.isNaN(rrAuto) && !Double.isNaN(rrFft) && rrAuto >= 6 && rrAuto <= 40 && rrFft >= 6 && rrFft <= 40) {
-                    double relDiff = Math.abs(rrAuto - rrFft) / Math.max(1.0, (rrAuto + rrFft) / 2.0);
-                    if (relDiff < 0.20) {
-                        finalRR = (int)Math.round((rrAuto + rrFft) * 0.5);
-                    }
-                }
+        double rrAuto = (Double.isNaN(autocorrFreqHz) || autocorrFreqHz <= 0) ? Double.NaN : autocorrFreqHz * 60.0;
+        double rrFft  = (Double.isNaN(fftFreqHz) || fftFreqHz <= 0) ? Double.NaN : fftFreqHz * 60.0;
 
-                if (finalRR < 6 || finalRR > 40) {
-                    showShortToast("Respiration measurement failed, reposition finger and stay still");
-                    resetBuffers();
-                    startTime = System.currentTimeMillis();
-                    processing.set(false);
-                    return;
-                }
+        Log.d(TAG, "RR estimates: autocorr=" + rrAuto + " bpm, fft=" + rrFft + " bpm");
 
-                RR = finalRR;
+        double signalEnergy = 0.0;
+        for (double v : smooth) signalEnergy += v * v;
+        double noiseProxy = computeNoiseProxy(smooth);
+        double snr = (noiseProxy > 0) ? (signalEnergy / (noiseProxy * N)) : 0.0;
 
-                Intent i = new Intent(RespirationProcess.this, RespirationResult.class);
-                i.putExtra("RR", RR);
-                i.putExtra("Usr", user);
-                startActivity(i);
-                finish();
-                resetBuffers();
+        int finalRR = -1;
 
+        if (!Double.isNaN(rrAuto) && rrAuto >= 6 && rrAuto <= 40) {
+            if (snr > 0.4) {
+                finalRR = (int)Math.round(rrAuto);
             }
+        }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Frame processing error", e);
-        } finally {
-            processing.set(false);
+        if (finalRR < 0 && !Double.isNaN(rrFft) && rrFft >= 6 && rrFft <= 40) {
+            finalRR = (int)Math.round(rrFft);
         }
-    };
+
+        if (!Double.isNaN(rrAuto) && !Double.isNaN(rrFft) && rrAuto >= 6 && rrAuto <= 40 && rrFft >= 6 && rrFft <= 40) {
+            double relDiff = Math.abs(rrAuto - rrFft) / Math.max(1.0, (rrAuto + rrFft) / 2.0);
+            if (relDiff < 0.20) {
+                finalRR = (int)Math.round((rrAuto + rrFft) * 0.5);
+            }
+        }
+        return finalRR;
+    }
+
+    private void showResult(int rr) {
+        RR = rr;
+
+        Intent i = new Intent(RespirationProcess.this, RespirationResult.class);
+        i.putExtra("RR", RR);
+        i.putExtra("Usr", user);
+        startActivity(i);
+        finish();
+        resetBuffers();
+    }
 
     private double estimateFrequencyAutocorr(double[] x, double fs, double minHz, double maxHz) {
         int n = x.length;
@@ -263,15 +349,13 @@ public class RespirationProcess extends Activity {
         int maxLag = Math.min(n - 1, (int) Math.floor(fs / minHz));
         int minLag = Math.max(1, (int) Math.floor(fs / maxHz));
 
-        double[] acorr = new double[maxLag + 1];
-        for (int lag = 0; lag <= maxLag; lag++) {
-            double s = 0;
-            for (int i = 0; i + lag < n; i++) s += x[i] * x[i + lag];
-            acorr[lag] = s / (n - lag);
+        // unbiased, normalized autocorrelation via FFT (O(L log L) instead of O(n * maxLag))
+        if (correlation == null || !correlation.fits(n, maxLag)) {
+            // some headroom so small changes in fs / window length don't force a rebuild
+            correlation = new Correlation(n + n / 4, maxLag + maxLag / 4);
         }
-
-        double a0 = Math.max(1e-12, Math.abs(acorr[0]));
-        for (int k = 0; k <= maxLag; k++) acorr[k] /= a0;
+        double[] acorr = new double[maxLag + 1];
+        correlation.autocorrelation(x, n, maxLag, acorr, true, true);
 
         int bestLag = -1;
         double bestVal = Double.NEGATIVE_INFINITY;
@@ -299,19 +383,13 @@ public class RespirationProcess extends Activity {
         return freqHz;
     }
 
+    private static int decimationFactor(double fs) {
+        return Math.max(1, (int) Math.floor(fs / TARGET_RESP_FS));
+    }
+
     private double computeNoiseProxy(double[] x) {
-        int n = x.length;
-        double median = 0;
-        double[] copy = new double[n];
-        System.arraycopy(x, 0, copy, 0, n);
-        java.util.Arrays.sort(copy);
-        if (n % 2 == 1) median = copy[n / 2];
-        else median = 0.5 * (copy[n / 2 - 1] + copy[n / 2]);
-
-        double[] dev = new double[n];
-        for (int i = 0; i < n; i++) dev[i] = Math.abs(x[i] - median);
-        java.util.Arrays.sort(dev);
-        double mad = (n % 2 == 1) ? dev[n / 2] : 0.5 * (dev[n / 2 - 1] + dev[n / 2]);
+        // median + MAD by selection (no sorts); one scratch copy reused for both
+        double mad = RobustStats.mad(x, x.length, null);
         return Math.max(1e-12, mad);
     }
 
@@ -380,6 +458,17 @@ public class RespirationProcess extends Activity {
         frameCounter = 0;
         greenAvgList.clear();
         redAvgList.clear();
+        respFilter.reset();
+        decimator.reset();
+        decimatorTuned = false;
+        hrFilter.reset();
+        beatDetector.reset();
+        beatQuality.reset();
+        adjustShown = false;
+        respEstimator.reset();
+        stopping.reset();
+        beatGreenSum = 0.0;
+        beatFrames = 0;
         if (progResp != null) progResp.setProgress(0);
         progP = 0;
     }
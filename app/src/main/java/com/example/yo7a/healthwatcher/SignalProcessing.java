@@ -4,6 +4,11 @@ public final class SignalProcessing {
 
     private SignalProcessing() {}
 
+    // weights of the fundamental and its harmonics in harmonicSumPeak()
+    private static final double[] HARMONIC_WEIGHTS = {1.0, 0.5, 0.25};
+    // a candidate fundamental must reach this fraction of the band maximum
+    private static final double MIN_FUNDAMENTAL_FRACTION = 0.2;
+
     /**
      * Remove linear trend from samples (in-place).
      * Uses simple least-squares slope removal (fast and stable).
@@ -39,6 +44,15 @@ public final class SignalProcessing {
         }
     }
 
+    /**
+     * In-place radix-2 complex FFT (length a power of two), the transform
+     * behind the spectra of this class, for the streaming estimators of this
+     * package; FftInternal itself stays private to this file.
+     */
+    static void fftRadix2(double[] real, double[] imag) {
+        FftInternal.fftRadix2(real, imag);
+    }
+
     /**
      * Compute next power-of-two >= n
      */
@@ -141,22 +155,179 @@ public final class SignalProcessing {
         double[] mags = new double[fftSize / 2];
         for (int i = 0; i < mags.length; i++) mags[i] = Math.hypot(real[i], imag[i]);
 
-        // frequency bin resolution
+        return peakFrequencyHz(mags, samplingFreqHz / fftSize, minHz, maxHz, outSNR);
+    }
+
+    /**
+     * Multi-channel variant of findDominantFrequencyHz for signals sampled together
+     * (e.g. green + red fallback). Every channel gets the same detrend/window/zero-pad
+     * treatment, but the spectra come from magnitudeSpectra(), so two channels cost a
+     * single complex FFT.
+     *
+     * - channels: equally long input signals (not modified)
+     * - outFreqHz: receives the dominant frequency per channel (NaN if not computable)
+     * - outSNR: if non-null receives the SNR estimate per channel
+     */
+    public static void findDominantFrequenciesHz(double[][] channels, double samplingFreqHz,
+                                                 double minHz, double maxHz,
+                                                 double[] outFreqHz, double[] outSNR) {
+        int count = channels.length;
+        int n = (count > 0 && channels[0] != null) ? channels[0].length : 0;
+        if (n < 4) {
+            for (int c = 0; c < count; c++) {
+                outFreqHz[c] = Double.NaN;
+                if (outSNR != null) outSNR[c] = 0.0;
+            }
+            return;
+        }
+
+        double[][] prepared = new double[count][];
+        for (int c = 0; c < count; c++) {
+            double[] x = channels[c].clone();
+            removeLinearTrend(x);
+            applyHammingWindow(x);
+            prepared[c] = x;
+        }
+
+        int fftSize = nextPowerOfTwo(n);
+        double[][] mags = magnitudeSpectra(prepared, fftSize);
         double freqRes = samplingFreqHz / fftSize;
+        double[] snr = new double[1];
+        for (int c = 0; c < count; c++) {
+            outFreqHz[c] = peakFrequencyHz(mags[c], freqRes, minHz, maxHz, snr);
+            if (outSNR != null) outSNR[c] = snr[0];
+        }
+    }
 
-        // convert search band to bins
-        int minBin = Math.max(1, (int) Math.floor(minHz / freqRes));
-        int maxBin = Math.min(mags.length - 1, (int) Math.ceil(maxHz / freqRes));
+    /**
+     * Magnitude spectra (first fftSize/2 bins) of several real channels.
+     *
+     * Channels are packed two at a time into one complex FFT (a in the real part,
+     * b in the imaginary part) and separated with conjugate symmetry:
+     *   A[k] = (Z[k] + conj(Z[N-k])) / 2,   B[k] = (Z[k] - conj(Z[N-k])) / 2i
+     * so a pair of channels costs one FFT instead of two. An odd last channel is
+     * transformed on its own. Inputs shorter than fftSize are zero-padded.
+     */
+    public static double[][] magnitudeSpectra(double[][] channels, int fftSize) {
+        int count = channels.length;
+        int half = fftSize / 2;
+        double[][] mags = new double[count][half];
+        double[] real = new double[fftSize];
+        double[] imag = new double[fftSize];
 
-        // find peak within band
-        double maxMag = 0.0;
-        int maxIdx = minBin;
+        for (int c = 0; c < count; c += 2) {
+            double[] a = channels[c];
+            double[] b = (c + 1 < count) ? channels[c + 1] : null;
+            int na = Math.min(a.length, fftSize);
+            System.arraycopy(a, 0, real, 0, na);
+            java.util.Arrays.fill(real, na, fftSize, 0.0);
+            if (b != null) {
+                int nb = Math.min(b.length, fftSize);
+                System.arraycopy(b, 0, imag, 0, nb);
+                java.util.Arrays.fill(imag, nb, fftSize, 0.0);
+            } else {
+                java.util.Arrays.fill(imag, 0.0);
+            }
+
+            FftInternal.fftRadix2(real, imag);
+
+            double[] magsA = mags[c];
+            if (b == null) {
+                for (int k = 0; k < half; k++) magsA[k] = Math.hypot(real[k], imag[k]);
+                continue;
+            }
+            double[] magsB = mags[c + 1];
+            for (int k = 0; k < half; k++) {
+                int m = (k == 0) ? 0 : fftSize - k;
+                double zr = real[k], zi = imag[k];
+                double cr = real[m], ci = imag[m];
+                magsA[k] = 0.5 * Math.hypot(zr + cr, zi - ci);
+                magsB[k] = 0.5 * Math.hypot(zi + ci, cr - zr);
+            }
+        }
+        return mags;
+    }
+
+    /**
+     * Bin in [minBin, maxBin] whose harmonic series carries the most energy.
+     *
+     * - A candidate k scores sum_h HARMONIC_WEIGHTS[h-1] * mags near h*k; the
+     *   h-th harmonic of a fundamental anywhere inside bin k lies within
+     *   h*k +- h/2, so the largest bin of that range is taken. Harmonics
+     *   beyond the end of the spectrum count as zero.
+     * - The falling weights let the true fundamental outscore its octave
+     *   (whose harmonics are the even ones only) as long as the second
+     *   harmonic is below about twice the fundamental, and outscore its
+     *   subharmonic, whose odd harmonics fall into noise.
+     * - Only candidates that are local maxima holding at least
+     *   MIN_FUNDAMENTAL_FRACTION of the band maximum compete: a fundamental
+     *   must be seen in the spectrum itself, not made up from its harmonics.
+     *   The band maximum always qualifies, so a spectrum without harmonics
+     *   gives the plain largest bin.
+     *
+     * O(band bins * harmonics^2), no allocation.
+     */
+    static int harmonicSumPeak(double[] mags, int minBin, int maxBin) {
+        int last = mags.length - 1;
+        double bandMax = 0.0;
+        int bandMaxIdx = minBin;
         for (int i = minBin; i <= maxBin; i++) {
-            if (mags[i] > maxMag) {
-                maxMag = mags[i];
-                maxIdx = i;
+            if (mags[i] > bandMax) {
+                bandMax = mags[i];
+                bandMaxIdx = i;
+            }
+        }
+        double floor = MIN_FUNDAMENTAL_FRACTION * bandMax;
+
+        int best = bandMaxIdx;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int k = minBin; k <= maxBin; k++) {
+            double m = mags[k];
+            if (m < floor) continue;
+            if (k > 0 && mags[k - 1] > m) continue;
+            if (k < last && mags[k + 1] > m) continue;
+            double score = harmonicSum(mags, k);
+            if (score > bestScore) {
+                bestScore = score;
+                best = k;
             }
         }
+        return best;
+    }
+
+    /** Harmonic-sum score of bin k as a fundamental, see harmonicSumPeak(). */
+    static double harmonicSum(double[] mags, int k) {
+        int last = mags.length - 1;
+        double score = HARMONIC_WEIGHTS[0] * mags[k];
+        for (int h = 2; h <= HARMONIC_WEIGHTS.length; h++) {
+            int lo = (int) Math.round(h * (k - 0.5));
+            int hi = Math.min(last, (int) Math.round(h * (k + 0.5)));
+            double near = 0.0;
+            for (int i = lo; i <= hi; i++) {
+                if (mags[i] > near) near = mags[i];
+            }
+            score += HARMONIC_WEIGHTS[h - 1] * near;
+        }
+        return score;
+    }
+
+    /**
+     * Peak search on a magnitude spectrum inside [minHz, maxHz] with quadratic
+     * sub-bin refinement. freqRes is the bin width in Hz.
+     * Returns the refined frequency in Hz and the SNR via outSNR[0] (optional).
+     *
+     * The fundamental is chosen by harmonic sum (see harmonicSumPeak), so a
+     * pulse wave whose second harmonic outgrows the fundamental (pronounced
+     * dicrotic notch) does not read as twice its rate. Harmonics are taken
+     * from the whole spectrum up to Nyquist, not only from the search band.
+     */
+    public static double peakFrequencyHz(double[] mags, double freqRes,
+                                         double minHz, double maxHz, double[] outSNR) {
+        // convert search band to bins
+        int minBin = Math.max(1, (int) Math.floor(minHz / freqRes));
+        int maxBin = Math.min(mags.length - 1, (int) Math.ceil(maxHz / freqRes));
+
+        int maxIdx = harmonicSumPeak(mags, minBin, maxBin);
 
         // compute sub-bin interpolation
         double shift = quadraticInterp(mags, maxIdx);
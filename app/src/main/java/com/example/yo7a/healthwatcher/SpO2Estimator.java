@@ -0,0 +1,201 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.Math.RobustStats;
+
+/**
+ * Streaming per-beat ratio-of-ratios for SpO2 from the red and blue camera channels.
+ *
+ * - Frames are pushed one at a time with add(red, blue, t). Both channels run
+ *   through one shared heart rate band-pass (single precision in a FLOAT
+ *   session) and beats are detected on the red one, so every call is O(1)
+ *   and nothing is allocated after construction.
+ * - Between two beat reports the band-passed minimum and maximum of each
+ *   channel (AC, peak to trough) and the mean raw level (DC) are tracked. A
+ *   beat report closes the segment, which then spans one pulse period.
+ * - A beat gives R = (AC_red / DC_red) / (AC_blue / DC_blue) if the detector
+ *   scored it clean, it passed the BeatQualityIndex and both perfusion indices
+ *   AC / DC are plausible; motion artefacts thus only cost the beats they hit.
+ *   The BeatQualityIndex scores the red pulse shape but takes its raw level
+ *   (clipping, motion steps) from blue, as red runs close to CLIP_LEVEL.
+ * - The newest RATIO_BEATS values of R are aggregated by a trimmed mean. Its
+ *   relative standard error comes from the median absolute deviation; below
+ *   MIN_BEATS values the MAD cannot see an outlier, so the error stays
+ *   infinite until then. The caller's StoppingController decides when the
+ *   error is small enough.
+ */
+public final class SpO2Estimator {
+
+    public static final int MIN_BEATS = 8;
+    public static final int RATIO_BEATS = 16;
+
+    private static final double TRIM = 0.25;
+    // MAD to standard deviation for normally distributed values
+    private static final double MAD_TO_SIGMA = 1.4826;
+    private static final double NOMINAL_FPS = 30.0;
+    // AC / DC of one beat outside this range is no finger pulse
+    private static final double MIN_PERFUSION = 1e-4;
+    private static final double MAX_PERFUSION = 0.5;
+    // frame rate estimate is used to re-tune the prefilter after this time
+    private static final double RATE_SETTLE_SECONDS = 1.0;
+
+    private final BandPassPrefilter filter;
+    private final BeatDetector beatDetector = new BeatDetector();
+    private final BeatQualityIndex beatQuality = new BeatQualityIndex();
+    private final double[] frame = new double[2];
+
+    private int frames = 0;
+    private double startTime;
+
+    // current segment
+    private double redMin, redMax, blueMin, blueMax;
+    private double redSum, blueSum;
+    private int segmentFrames = 0;
+
+    // ring of the newest per-beat ratios
+    private final double[] ratios = new double[RATIO_BEATS];
+    private final double[] work = new double[RATIO_BEATS];
+    private int ratioPos = 0;
+    private int ratioCount = 0;
+    private int acceptedBeats = 0;
+    private double lastRatio = Double.NaN;
+
+    public SpO2Estimator() {
+        this(DspPrecision.DOUBLE);
+    }
+
+    /**
+     * @param precision arithmetic of the band-pass prefilter
+     */
+    public SpO2Estimator(DspPrecision precision) {
+        filter = BandPassPrefilter.heartRate(NOMINAL_FPS, 2, precision);
+        resetSegment();
+    }
+
+    /**
+     * Pushes one frame.
+     *
+     * @param red  mean red level of the frame
+     * @param blue mean blue level of the frame
+     * @param t    frame time in seconds
+     * @return true if this frame completed a beat whose ratio was accepted
+     */
+    public boolean add(double red, double blue, double t) {
+        if (frames == 0) startTime = t;
+        frames++;
+        double elapsed = t - startTime;
+        if (elapsed > RATE_SETTLE_SECONDS) filter.setSamplingFreq((frames - 1) / elapsed);
+
+        frame[0] = red;
+        frame[1] = blue;
+        filter.process(frame);
+        double redBp = frame[0];
+        double blueBp = frame[1];
+
+        // intensity drops with each pulse
+        double beatClock = t - filter.getGroupDelaySeconds();
+        boolean beat = beatDetector.add(-redBp, beatClock);
+        // with the torch on red sits just below saturation; the clip and
+        // level terms are taken from blue, which stays far from it
+        beatQuality.addSample(-redBp, blue, beatClock);
+        boolean accepted = false;
+        if (beat) {
+            beatQuality.scoreBeat(beatDetector.getBeatTime(), beatDetector.getIbi(),
+                    beatDetector.getConfidence());
+            if (!beatQuality.isAcceptable()) beatDetector.rejectBeat();
+            accepted = closeSegment();
+            resetSegment();
+        }
+
+        if (redBp < redMin) redMin = redBp;
+        if (redBp > redMax) redMax = redBp;
+        if (blueBp < blueMin) blueMin = blueBp;
+        if (blueBp > blueMax) blueMax = blueBp;
+        redSum += red;
+        blueSum += blue;
+        segmentFrames++;
+        return accepted;
+    }
+
+    private boolean closeSegment() {
+        if (segmentFrames < 2) return false;
+        if (Double.isNaN(beatDetector.getIbi())
+                || beatDetector.getConfidence() < BeatDetector.CLEAN_CONFIDENCE) return false;
+        double dcRed = redSum / segmentFrames;
+        double dcBlue = blueSum / segmentFrames;
+        if (dcRed <= 0 || dcBlue <= 0) return false;
+        double piRed = (redMax - redMin) / dcRed;
+        double piBlue = (blueMax - blueMin) / dcBlue;
+        if (piRed < MIN_PERFUSION || piRed > MAX_PERFUSION) return false;
+        if (piBlue < MIN_PERFUSION || piBlue > MAX_PERFUSION) return false;
+
+        lastRatio = piRed / piBlue;
+        ratios[ratioPos] = lastRatio;
+        ratioPos = (ratioPos + 1) % RATIO_BEATS;
+        if (ratioCount < RATIO_BEATS) ratioCount++;
+        acceptedBeats++;
+        return true;
+    }
+
+    private void resetSegment() {
+        redMin = blueMin = Double.POSITIVE_INFINITY;
+        redMax = blueMax = Double.NEGATIVE_INFINITY;
+        redSum = blueSum = 0.0;
+        segmentFrames = 0;
+    }
+
+    /** Ratio of the last accepted beat. */
+    public double getLastRatio() {
+        return lastRatio;
+    }
+
+    /** Number of beats accepted since the last reset. */
+    public int getAcceptedBeats() {
+        return acceptedBeats;
+    }
+
+    /**
+     * Trimmed mean of the newest (up to RATIO_BEATS) per-beat ratios, or NaN
+     * before the first accepted beat.
+     */
+    public double getRatio() {
+        return RobustStats.trimmedMean(ratios, ratioCount, TRIM, work);
+    }
+
+    /** Median absolute deviation of the newest ratios relative to their median. */
+    public double getRatioSpread() {
+        if (ratioCount == 0) return Double.NaN;
+        double median = RobustStats.median(ratios, ratioCount, work);
+        return RobustStats.mad(ratios, ratioCount, work) / median;
+    }
+
+    /**
+     * Relative standard error of getRatio(), estimated from getRatioSpread();
+     * infinite while fewer than MIN_BEATS ratios are in.
+     */
+    public double getRatioError() {
+        if (ratioCount < MIN_BEATS) return Double.POSITIVE_INFINITY;
+        return MAD_TO_SIGMA * getRatioSpread() / Math.sqrt(ratioCount);
+    }
+
+    /** See BeatQualityIndex.shouldAdjustFinger(). */
+    public boolean shouldAdjustFinger() {
+        return beatQuality.shouldAdjustFinger();
+    }
+
+    /** Heart rate from the red channel beats, see BeatDetector.getBeatRateBpm(). */
+    public double getBeatRateBpm() {
+        return beatDetector.getBeatRateBpm();
+    }
+
+    public void reset() {
+        frames = 0;
+        filter.reset();
+        beatDetector.reset();
+        beatQuality.reset();
+        resetSegment();
+        ratioPos = 0;
+        ratioCount = 0;
+        acceptedBeats = 0;
+        lastRatio = Double.NaN;
+    }
+}
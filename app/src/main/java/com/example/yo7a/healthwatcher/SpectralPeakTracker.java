@@ -0,0 +1,188 @@
+package com.example.yo7a.healthwatcher;
+
+/**
+ * Heart rate track through a rolling spectrogram by dynamic programming (Viterbi).
+ *
+ * - Every analysis hop adds one spectrum (e.g. the Welch average of the newest segments,
+ *   WelchPsdEstimator.getPsd()) as a column; only the newest `columns`
+ *   are kept in a ring.
+ * - Columns are stored by bin, so all kept columns must share one bin width.
+ *   The caller's width follows the measured frame rate; once it has moved by
+ *   more than RESOLUTION_TOLERANCE from the width of the kept columns, the
+ *   spectrogram is dropped and the track starts over at the new width.
+ * - A column scores each bin of [minHz, maxHz] by the log of its harmonic sum
+ *   (SignalProcessing.harmonicSum()) relative to the column's best, so every
+ *   column weighs the same and a strong second harmonic does not win.
+ * - Between two columns the rate may move by at most maxSlopeBpmPerSec times
+ *   their time difference; inside that limit a move costs JUMP_PENALTY times
+ *   its square relative to the limit. Each hop the best path through all kept
+ *   columns is searched from scratch, and its end is the current rate: a
+ *   single noisy column cannot pull the track away from where its neighbours
+ *   agree, and old columns drop out instead of pinning the track forever.
+ * - The end bin is refined by quadratic interpolation on the newest column,
+ *   whose SNR (SignalProcessing.computeSNR()) comes with it.
+ *
+ * Work per hop is O(columns * band bins * allowed jump); nothing is allocated
+ * after construction.
+ */
+public final class SpectralPeakTracker {
+
+    /** Columns needed before add() reports a track. */
+    public static final int MIN_COLUMNS = 3;
+    /** Relative change of the bin width that restarts the spectrogram. */
+    public static final double RESOLUTION_TOLERANCE = 0.02;
+
+    // cost of a move by the full allowed slope, in units of log relative score
+    private static final double JUMP_PENALTY = 1.0;
+    // relative harmonic sums below this count as this (log of zero)
+    private static final double MIN_SCORE = 1e-3;
+
+    private final int bins;
+    private final int columns;
+    private final double minHz;
+    private final double maxHz;
+    private final double maxSlopeBpmPerSec;
+
+    // rolling spectrogram of log relative scores, oldest at pos once full
+    private final double[][] emission;
+    private final double[] times;
+    private int pos = 0;
+    private int count = 0;
+    // bin width of the kept columns
+    private double columnRes = Double.NaN;
+
+    // scratch
+    private final double[] mags;
+    private final double[] score;
+    private final double[] next;
+
+    private double frequencyHz = Double.NaN;
+    private double snr = 0.0;
+
+    /**
+     * @param bins              length of the spectra passed to add()
+     * @param minHz             lowest rate searched
+     * @param maxHz             highest rate searched
+     * @param maxSlopeBpmPerSec fastest change of rate the track may follow
+     * @param columns           spectra kept in the spectrogram
+     */
+    public SpectralPeakTracker(int bins, double minHz, double maxHz,
+                               double maxSlopeBpmPerSec, int columns) {
+        if (bins < 4 || !(minHz > 0) || !(maxHz > minHz)
+                || !(maxSlopeBpmPerSec > 0) || columns < MIN_COLUMNS) {
+            throw new IllegalArgumentException("invalid tracker parameters");
+        }
+        this.bins = bins;
+        this.columns = columns;
+        this.minHz = minHz;
+        this.maxHz = maxHz;
+        this.maxSlopeBpmPerSec = maxSlopeBpmPerSec;
+
+        emission = new double[columns][bins];
+        times = new double[columns];
+        mags = new double[bins];
+        score = new double[bins];
+        next = new double[bins];
+    }
+
+    /**
+     * Adds the power spectrum of one hop and updates the track.
+     *
+     * @param psd     power spectrum, at least `bins` values
+     * @param freqRes bin width in Hz
+     * @param t       time of the hop in seconds
+     * @return true once at least MIN_COLUMNS spectra are in and the track has a rate
+     */
+    public boolean add(double[] psd, double freqRes, double t) {
+        if (!(freqRes > 0)) return false;
+        // a kept bin no longer maps to the same rate
+        if (count > 0 && Math.abs(freqRes - columnRes) > RESOLUTION_TOLERANCE * columnRes) reset();
+        if (count == 0) columnRes = freqRes;
+        int minBin = Math.max(1, (int) Math.floor(minHz / freqRes));
+        int maxBin = Math.min(bins - 2, (int) Math.ceil(maxHz / freqRes));
+        if (maxBin <= minBin) return false;
+
+        for (int k = 0; k < bins; k++) mags[k] = Math.sqrt(Math.max(0.0, psd[k]));
+
+        // new column: log harmonic sum relative to the best bin of the band
+        double[] column = emission[pos];
+        double floor = Math.log(MIN_SCORE);
+        java.util.Arrays.fill(column, floor);
+        double best = 0.0;
+        for (int k = minBin; k <= maxBin; k++) {
+            column[k] = SignalProcessing.harmonicSum(mags, k);
+            if (column[k] > best) best = column[k];
+        }
+        for (int k = minBin; k <= maxBin; k++) {
+            column[k] = (best > 0) ? Math.log(Math.max(MIN_SCORE, column[k] / best)) : floor;
+        }
+        times[pos] = t;
+        pos = (pos + 1) % columns;
+        if (count < columns) count++;
+        if (count < MIN_COLUMNS) return false;
+
+        // forward pass over the kept columns, oldest first
+        int first = (pos + columns - count) % columns;
+        System.arraycopy(emission[first], 0, score, 0, bins);
+        double previous = times[first];
+        for (int c = 1; c < count; c++) {
+            int col = (first + c) % columns;
+            double dt = Math.max(0.0, times[col] - previous);
+            previous = times[col];
+            int jump = Math.max(1, (int) (maxSlopeBpmPerSec * dt / 60.0 / freqRes));
+            double[] e = emission[col];
+            for (int k = minBin; k <= maxBin; k++) {
+                double from = Double.NEGATIVE_INFINITY;
+                int lo = Math.max(minBin, k - jump);
+                int hi = Math.min(maxBin, k + jump);
+                for (int j = lo; j <= hi; j++) {
+                    double d = (double) (k - j) / jump;
+                    double s = score[j] - JUMP_PENALTY * d * d;
+                    if (s > from) from = s;
+                }
+                next[k] = e[k] + from;
+            }
+            System.arraycopy(next, minBin, score, minBin, maxBin - minBin + 1);
+        }
+
+        int end = minBin;
+        for (int k = minBin + 1; k <= maxBin; k++) {
+            if (score[k] > score[end]) end = k;
+        }
+        // refine on the newest spectrum around the end of the path
+        int peak = end;
+        if (end > minBin && mags[end - 1] > mags[peak]) peak = end - 1;
+        if (end < maxBin && mags[end + 1] > mags[peak]) peak = end + 1;
+        frequencyHz = (peak + SignalProcessing.quadraticInterp(mags, peak)) * freqRes;
+        snr = SignalProcessing.computeSNR(mags, peak, 2);
+        return true;
+    }
+
+    /** Rate at the end of the best path in Hz, NaN before the first track. */
+    public double getFrequencyHz() {
+        return frequencyHz;
+    }
+
+    /** Rate at the end of the best path in bpm, NaN before the first track. */
+    public double getBpm() {
+        return frequencyHz * 60.0;
+    }
+
+    /** SNR of the newest spectrum at the end of the path. */
+    public double getSnr() {
+        return snr;
+    }
+
+    /** Spectra in the spectrogram. */
+    public int getColumnCount() {
+        return count;
+    }
+
+    public void reset() {
+        pos = 0;
+        count = 0;
+        columnRes = Double.NaN;
+        frequencyHz = Double.NaN;
+        snr = 0.0;
+    }
+}
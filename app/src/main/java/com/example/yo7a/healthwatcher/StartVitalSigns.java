@@ -1,8 +1,11 @@
 package com.example.yo7a.healthwatcher;
 
+import android.app.ActivityManager;
 import android.content.Intent;
 import android.os.Bundle;
+import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
@@ -11,6 +14,7 @@ public class StartVitalSigns extends AppCompatActivity {
 
     private String user = "";
     private int page = 0;
+    private CheckBox measureHrv;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -27,6 +31,10 @@ public class StartVitalSigns extends AppCompatActivity {
         Button startMeasurement = findViewById(R.id.startMeasurement);
         Button cancelMeasurement = findViewById(R.id.cancelMeasurement);
 
+        // HRV (with LF/HF) needs a longer heart rate session, offered on the heart rate page only
+        measureHrv = findViewById(R.id.measureHrv);
+        measureHrv.setVisibility(page == 1 ? View.VISIBLE : View.GONE);
+
         // Start measurement button click
         startMeasurement.setOnClickListener(v -> startMeasurementProcess());
 
@@ -64,11 +72,21 @@ public class StartVitalSigns extends AppCompatActivity {
         if (intent != null) {
             intent.putExtra("Usr", user);
             intent.putExtra("Page", page);
+            intent.putExtra(DspPrecision.EXTRA, sessionPrecision().name());
+            if (page == 1) intent.putExtra(HeartRateProcess.EXTRA_HRV, measureHrv.isChecked());
             startActivity(intent);
             finish();
         }
     }
 
+    /**
+     * Signal path precision for the measurement activities on this device
+     */
+    private DspPrecision sessionPrecision() {
+        ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        return DspPrecision.forDevice(am != null && am.isLowRamDevice());
+    }
+
     /**
      * Returns to the main menu (Primary activity)
      */
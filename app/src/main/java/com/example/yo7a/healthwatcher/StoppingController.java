@@ -0,0 +1,171 @@
+package com.example.yo7a.healthwatcher;
+
+/**
+ * Decides after every analysis hop whether a measurement is finished.
+ *
+ * - The activity calls update() whenever a hop brought usable data (a clean
+ *   beat, a spectrum above the SNR threshold), with the estimator's current
+ *   value and the half width of its 95% confidence interval, and poll() on
+ *   every other frame.
+ * - Sequential criterion: a hop is settled if its interval is no wider than
+ *   +-maxHalfWidth. The measurement is DONE once settledHops settled hops in
+ *   a row agree with the first of them within maxHalfWidth and minSeconds
+ *   have passed. Asking for a run instead of a single narrow interval keeps
+ *   the repeated look at the data from stopping on one lucky hop.
+ * - ABORT as soon as no usable hop came for abortSeconds (counted from
+ *   minSeconds at the earliest), so a missing or moving finger restarts the
+ *   measurement instead of running into the time limit; TIMEOUT at
+ *   maxSeconds, when the caller may still use the last estimate.
+ * - The limits of each measurement are a Policy; the presets below hold the
+ *   ones of the activities.
+ *
+ * Every call is O(1) and nothing is allocated.
+ */
+public final class StoppingController {
+
+    public enum Decision { CONTINUE, DONE, TIMEOUT, ABORT }
+
+    /** Stopping limits of one kind of measurement, in the estimate's unit and seconds. */
+    public static final class Policy {
+
+        /** Heart rate in bpm from beats and spectra. */
+        public static final Policy HEART_RATE = new Policy(0.0, 30.0, 3.0, 3, 8.0);
+        /**
+         * Heart rate with HRV: runs until the beats span HrvEngine.MIN_SPECTRAL_SECONDS
+         * (plus the detector's start-up), so LF/HF can be computed.
+         */
+        public static final Policy HRV = new Policy(70.0, 120.0, 3.0, 3, 8.0);
+        /** SpO2 in percent from per-beat ratios. */
+        public static final Policy SPO2 = new Policy(0.0, 60.0, 1.5, 3, 20.0);
+        /** Respiratory rate in breaths per minute from the beat modulations. */
+        public static final Policy RESPIRATION = new Policy(0.0, 40.0, 1.5, 3, 15.0);
+        /** Heart rate in bpm behind the BP estimate; the window needs 12 s first. */
+        public static final Policy BLOOD_PRESSURE = new Policy(12.0, 30.0, 3.0, 2, 10.0);
+        /** Heart rate in bpm behind the glucose estimate. */
+        public static final Policy GLUCOSE = new Policy(8.0, 20.0, 3.0, 2, 8.0);
+
+        public final double minSeconds;
+        public final double maxSeconds;
+        public final double maxHalfWidth;
+        public final int settledHops;
+        public final double abortSeconds;
+
+        /**
+         * @param minSeconds   earliest end of the measurement
+         * @param maxSeconds   time limit
+         * @param maxHalfWidth widest accepted 95% half width, in the estimate's unit
+         * @param settledHops  settled hops in a row needed to finish
+         * @param abortSeconds longest time without a usable hop
+         */
+        public Policy(double minSeconds, double maxSeconds, double maxHalfWidth,
+                      int settledHops, double abortSeconds) {
+            if (minSeconds < 0 || maxSeconds <= minSeconds || !(maxHalfWidth > 0)
+                    || settledHops < 1 || !(abortSeconds > 0)) {
+                throw new IllegalArgumentException("invalid stopping policy");
+            }
+            this.minSeconds = minSeconds;
+            this.maxSeconds = maxSeconds;
+            this.maxHalfWidth = maxHalfWidth;
+            this.settledHops = settledHops;
+            this.abortSeconds = abortSeconds;
+        }
+    }
+
+    private final Policy policy;
+
+    private double lastUsable = Double.NaN;
+    private double runStart = Double.NaN;
+    private int run = 0;
+    private int hops = 0;
+    private double estimate = Double.NaN;
+    private double halfWidth = Double.POSITIVE_INFINITY;
+    private Decision decision = Decision.CONTINUE;
+
+    public StoppingController(Policy policy) {
+        if (policy == null) throw new IllegalArgumentException("policy is null");
+        this.policy = policy;
+    }
+
+    /**
+     * A hop with usable data.
+     *
+     * @param t         seconds since the start of the measurement
+     * @param estimate  current estimate, NaN if the estimator has none yet
+     * @param halfWidth half width of its 95% confidence interval
+     */
+    public Decision update(double t, double estimate, double halfWidth) {
+        lastUsable = t;
+        hops++;
+        this.estimate = estimate;
+        this.halfWidth = halfWidth;
+        if (Double.isNaN(estimate) || !(halfWidth <= policy.maxHalfWidth)) {
+            run = 0;
+        } else if (run > 0 && Math.abs(estimate - runStart) <= policy.maxHalfWidth) {
+            run++;
+        } else {
+            runStart = estimate;
+            run = 1;
+        }
+        if (run >= policy.settledHops && t >= policy.minSeconds) {
+            return decision = Decision.DONE;
+        }
+        return poll(t);
+    }
+
+    /** A frame without usable data; only checks the time limits. */
+    public Decision poll(double t) {
+        double silentSince = Double.isNaN(lastUsable)
+                ? policy.minSeconds : Math.max(lastUsable, policy.minSeconds);
+        if (t >= policy.maxSeconds) {
+            decision = Decision.TIMEOUT;
+        } else if (t - silentSince >= policy.abortSeconds) {
+            decision = Decision.ABORT;
+        } else {
+            decision = Decision.CONTINUE;
+        }
+        return decision;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /** Decision of the last update() or poll(). */
+    public Decision getDecision() {
+        return decision;
+    }
+
+    /** Estimate of the last usable hop, NaN if none. */
+    public double getEstimate() {
+        return estimate;
+    }
+
+    public double getHalfWidth() {
+        return halfWidth;
+    }
+
+    /** Settled hops in a row up to the last usable one. */
+    public int getSettledRun() {
+        return run;
+    }
+
+    /** Usable hops since the last reset. */
+    public int getHopCount() {
+        return hops;
+    }
+
+    /** Progress towards the time limit in [0, 1]. */
+    public double getTimeFraction(double t) {
+        return Math.max(0.0, Math.min(1.0, t / policy.maxSeconds));
+    }
+
+    public void reset() {
+        lastUsable = Double.NaN;
+        runStart = Double.NaN;
+        run = 0;
+        hops = 0;
+        estimate = Double.NaN;
+        halfWidth = Double.POSITIVE_INFINITY;
+        decision = Decision.CONTINUE;
+    }
+}
@@ -58,7 +58,7 @@ class user {
 }
 
 public class UserDB extends SQLiteOpenHelper {
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
     private static final String DATABASE_NAME = "userDB.db";
 
     // Table and column names
@@ -79,6 +79,15 @@ public class UserDB extends SQLiteOpenHelper {
     private static final String DP = "DP";
     private static final String SpO2 = "SpO2";
 
+    // HRV columns (REAL, NULL until measured), see HrvEngine for the units
+    private static final String RMSSD = "RMSSD";
+    private static final String SDNN = "SDNN";
+    private static final String PNN50 = "PNN50";
+    private static final String SD1 = "SD1";
+    private static final String SD2 = "SD2";
+    private static final String LF_HF = "LF_HF";
+    private static final String[] HRV_COLUMNS = {RMSSD, SDNN, PNN50, SD1, SD2, LF_HF};
+
     SQLiteDatabase db;
 
     public UserDB(Context context) {
@@ -101,7 +110,13 @@ public class UserDB extends SQLiteOpenHelper {
                 + RR + " INTEGER DEFAULT 0, "
                 + SP + " INTEGER DEFAULT 0, "
                 + DP + " INTEGER DEFAULT 0, "
-                + SpO2 + " INTEGER DEFAULT 0"
+                + SpO2 + " INTEGER DEFAULT 0, "
+                + RMSSD + " REAL, "
+                + SDNN + " REAL, "
+                + PNN50 + " REAL, "
+                + SD1 + " REAL, "
+                + SD2 + " REAL, "
+                + LF_HF + " REAL"
                 + ");";
         db.execSQL(createTable);
         this.db = db;
@@ -109,6 +124,13 @@ public class UserDB extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion == 1) {
+            // version 2 only adds the HRV columns; keep the users
+            for (String column : HRV_COLUMNS) {
+                db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN " + column + " REAL");
+            }
+            return;
+        }
         db.execSQL("DROP TABLE IF EXISTS " + TABLE);
         onCreate(db);
     }
@@ -144,6 +166,20 @@ public class UserDB extends SQLiteOpenHelper {
         db.close();
     }
 
+    // Store the HRV metrics of a heart rate measurement; NaN is stored as NULL
+    public void updateHrv(String username, double rmssd, double sdnn, double pnn50,
+                          double sd1, double sd2, double lfHf) {
+        double[] values = {rmssd, sdnn, pnn50, sd1, sd2, lfHf};
+        db = this.getWritableDatabase();
+        ContentValues cv = new ContentValues();
+        for (int i = 0; i < HRV_COLUMNS.length; i++) {
+            if (Double.isNaN(values[i])) cv.putNull(HRV_COLUMNS[i]);
+            else cv.put(HRV_COLUMNS[i], values[i]);
+        }
+        db.update(TABLE, cv, "username = ?", new String[]{username});
+        db.close();
+    }
+
     // Check if username exists (1 = available, 0 = exists)
     public int checkUser(String user) {
         db = this.getReadableDatabase();
@@ -177,12 +213,30 @@ public class UserDB extends SQLiteOpenHelper {
         return value;
     }
 
+    // Get any real field for a user (NULL gives NaN)
+    public double getDoubleField(String user, String column) {
+        db = this.getReadableDatabase();
+        double value = Double.NaN;
+        Cursor cursor = db.rawQuery("SELECT " + column + " FROM " + TABLE + " WHERE " + USERNAME + " = ?", new String[]{user});
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            value = cursor.getDouble(0);
+        }
+        cursor.close();
+        return value;
+    }
+
     // Getters for vitals
     public int getHR(String user) { return getIntField(user, HR, 0); }
     public int getRR(String user) { return getIntField(user, RR, 0); }
     public int getSP(String user) { return getIntField(user, SP, 0); }
     public int getDP(String user) { return getIntField(user, DP, 0); }
     public int getSpO2(String user) { return getIntField(user, SpO2, 0); }
+    public double getRmssd(String user) { return getDoubleField(user, RMSSD); }
+    public double getSdnn(String user) { return getDoubleField(user, SDNN); }
+    public double getPnn50(String user) { return getDoubleField(user, PNN50); }
+    public double getSd1(String user) { return getDoubleField(user, SD1); }
+    public double getSd2(String user) { return getDoubleField(user, SD2); }
+    public double getLfHf(String user) { return getDoubleField(user, LF_HF); }
 
     // Existing getters
     public int getweight(String user) { return getIntField(user, WEIGHT, 80); }
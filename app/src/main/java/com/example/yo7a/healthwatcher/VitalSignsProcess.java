@@ -1,5 +1,6 @@
 package com.example.yo7a.healthwatcher;
 
+import android.app.ActivityManager;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.os.Bundle;
@@ -106,6 +107,8 @@ public class VitalSignsProcess extends AppCompatActivity {
                 }
         );
         Intent i = new Intent(this, activityClass);
+        ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        i.putExtra(DspPrecision.EXTRA, DspPrecision.forDevice(am != null && am.isLowRamDevice()).name());
         launcher.launch(i);
     }
 
@@ -0,0 +1,158 @@
+package com.example.yo7a.healthwatcher;
+
+/**
+ * Streaming Welch power spectral density estimator.
+ *
+ * - Samples are pushed one at a time with add().
+ * - Every `hop` samples (once a full segment is available) the newest segment is
+ *   detrended, Hamming windowed, zero-padded and transformed exactly once; its
+ *   periodogram is stored and added to a running sum.
+ * - Only the newest `maxSegments` periodograms are kept; the one falling out of
+ *   the window is subtracted from the running sum, so averaging costs O(bins).
+ * - getPsd() hands out the averaged spectrum, e.g. as the next column of a
+ *   SpectralPeakTracker.
+ *
+ * No allocations happen after construction.
+ */
+public final class WelchPsdEstimator {
+
+    private final int segmentLength;
+    private final int hop;
+    private final int maxSegments;
+    private final int fftSize;
+    private final int bins;
+
+    // ring buffer of the newest segmentLength samples
+    private final double[] history;
+    private int historyPos = 0;
+    private long totalSamples = 0;
+    private int sinceLastSegment = 0;
+
+    // stored periodograms (ring) and their running sum
+    private final double[][] periodograms;
+    private final double[] psdSum;
+    private int segmentPos = 0;
+    private int segmentCount = 0;
+
+    // scratch buffers
+    private final double[] window;
+    private final double[] real;
+    private final double[] imag;
+    private final double[] segment;
+    private final double windowPower;
+
+    /**
+     * @param segmentLength samples per segment (e.g. ~8 s of frames)
+     * @param hop           samples between consecutive segments (segmentLength/2 = 50% overlap)
+     * @param maxSegments   number of segments averaged at most
+     */
+    public WelchPsdEstimator(int segmentLength, int hop, int maxSegments) {
+        if (segmentLength < 4 || hop < 1 || hop > segmentLength || maxSegments < 1) {
+            throw new IllegalArgumentException("invalid Welch parameters");
+        }
+        this.segmentLength = segmentLength;
+        this.hop = hop;
+        this.maxSegments = maxSegments;
+        this.fftSize = SignalProcessing.nextPowerOfTwo(2 * segmentLength);
+        this.bins = fftSize / 2;
+
+        history = new double[segmentLength];
+        periodograms = new double[maxSegments][bins];
+        psdSum = new double[bins];
+
+        window = new double[segmentLength];
+        double power = 0.0;
+        for (int i = 0; i < segmentLength; i++) {
+            window[i] = 0.54 - 0.46 * Math.cos((2.0 * Math.PI * i) / (segmentLength - 1));
+            power += window[i] * window[i];
+        }
+        windowPower = power;
+
+        real = new double[fftSize];
+        imag = new double[fftSize];
+        segment = new double[segmentLength];
+    }
+
+    public void reset() {
+        historyPos = 0;
+        totalSamples = 0;
+        sinceLastSegment = 0;
+        segmentPos = 0;
+        segmentCount = 0;
+        java.util.Arrays.fill(psdSum, 0.0);
+    }
+
+    /**
+     * Push one sample. Returns true if a new segment was completed and averaged in.
+     */
+    public boolean add(double sample) {
+        history[historyPos] = sample;
+        historyPos = (historyPos + 1) % segmentLength;
+        totalSamples++;
+        sinceLastSegment++;
+
+        if (totalSamples < segmentLength || sinceLastSegment < hop) return false;
+        sinceLastSegment = 0;
+        addSegment();
+        return true;
+    }
+
+    private void addSegment() {
+        // unroll the ring, oldest sample first
+        for (int i = 0; i < segmentLength; i++) {
+            segment[i] = history[(historyPos + i) % segmentLength];
+        }
+        SignalProcessing.removeLinearTrend(segment);
+
+        for (int i = 0; i < segmentLength; i++) real[i] = segment[i] * window[i];
+        java.util.Arrays.fill(real, segmentLength, fftSize, 0.0);
+        java.util.Arrays.fill(imag, 0.0);
+        SignalProcessing.fftRadix2(real, imag);
+
+        double[] slot = periodograms[segmentPos];
+        boolean expiring = segmentCount == maxSegments;
+        double norm = 1.0 / windowPower;
+        for (int k = 0; k < bins; k++) {
+            double p = (real[k] * real[k] + imag[k] * imag[k]) * norm;
+            psdSum[k] += expiring ? (p - slot[k]) : p;
+            slot[k] = p;
+        }
+        if (!expiring) segmentCount++;
+        segmentPos = (segmentPos + 1) % maxSegments;
+
+        // refresh the running sum once per full turn of the ring so that
+        // add/subtract rounding cannot accumulate on long sessions
+        if (expiring && segmentPos == 0) {
+            java.util.Arrays.fill(psdSum, 0.0);
+            for (int s = 0; s < segmentCount; s++) {
+                double[] pg = periodograms[s];
+                for (int k = 0; k < bins; k++) psdSum[k] += pg[k];
+            }
+        }
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getSegmentLength() {
+        return segmentLength;
+    }
+
+    /** Samples between consecutive segments. */
+    public int getHop() {
+        return hop;
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    /**
+     * Averaged PSD (per-bin power, window-normalized) into out[0..fftSize/2).
+     */
+    public void getPsd(double[] out) {
+        double inv = (segmentCount > 0) ? 1.0 / segmentCount : 0.0;
+        for (int k = 0; k < bins; k++) out[k] = psdSum[k] * inv;
+    }
+}
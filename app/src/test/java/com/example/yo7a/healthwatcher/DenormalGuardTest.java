@@ -0,0 +1,60 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.Math.Butterworth;
+import com.example.yo7a.healthwatcher.Math.Cascade;
+import com.example.yo7a.healthwatcher.Math.DirectFormAbstract;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that filter states never go subnormal once the input goes quiet.
+ *
+ * The cost of the decay with and without the guard is measured by
+ * Math.DenormalBenchmark.
+ */
+public class DenormalGuardTest {
+
+    private static final int SILENCE = 200000;
+
+    // narrow low-frequency band at camera rate: poles close to the unit circle
+    private static Cascade respirationBand(int form) {
+        Butterworth b = new Butterworth();
+        b.bandPass(2, 30.0, 0.375, 0.65, form);
+        return b;
+    }
+
+    private static boolean subnormal(double v) {
+        return v != 0.0 && Math.abs(v) < Double.MIN_NORMAL;
+    }
+
+    @Test
+    public void perSampleOutputNeverGoesSubnormal() {
+        int[] forms = {DirectFormAbstract.DIRECT_FORM_I, DirectFormAbstract.DIRECT_FORM_II,
+                DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED};
+        for (int form : forms) {
+            Cascade c = respirationBand(form);
+            c.filter(1.0);
+            double last = 1.0;
+            for (int i = 0; i < SILENCE; i++) {
+                last = c.filter(0.0);
+                assertFalse("form " + form + " sample " + i, subnormal(last));
+            }
+            assertEquals(0.0, last, 0.0);
+        }
+    }
+
+    @Test
+    public void blockOutputNeverGoesSubnormal() {
+        Cascade c = respirationBand(DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED);
+        double[] block = new double[256];
+        block[0] = 1.0;
+        for (int b = 0; b < SILENCE / block.length; b++) {
+            c.filter(block, block, 0, block.length);
+            for (double v : block) assertFalse(subnormal(v));
+            java.util.Arrays.fill(block, 0.0);
+        }
+        assertEquals(0.0, c.filter(0.0), 0.0);
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.Math.DoubleFft1d;
+import com.example.yo7a.healthwatcher.Math.DoubleRingBuffer;
+import com.example.yo7a.healthwatcher.Math.FilterDesignCache;
+import com.example.yo7a.healthwatcher.Math.FloatCascade;
+import com.example.yo7a.healthwatcher.Math.FloatFft1d;
+import com.example.yo7a.healthwatcher.Math.FloatRingBuffer;
+import com.example.yo7a.healthwatcher.Math.SosCoefficients;
+import com.example.yo7a.healthwatcher.Math.SosFilter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the DspPrecision.FLOAT signal path against the double reference on
+ * synthetic camera PPG (channel means with 8-bit style quantization).
+ */
+public class FloatPipelineAccuracyTest {
+
+    private static final double FS = 30.0;
+    private static final int N = 600;           // 20 s window
+    // same linear calibration as O2Process
+    private static final double SPO2_A = 110.0;
+    private static final double SPO2_B = 25.0;
+
+    private static double[] ppg(double dc, double ac, double hz, long seed) {
+        Random rnd = new Random(seed);
+        double[] x = new double[N];
+        for (int i = 0; i < N; i++) {
+            double t = i / FS;
+            double v = dc + ac * Math.sin(2 * Math.PI * hz * t)
+                    + 0.3 * ac * Math.sin(4 * Math.PI * hz * t + 0.7)
+                    + 0.5 * Math.sin(2 * Math.PI * 0.25 * t)
+                    + 0.02 * i / FS
+                    + 0.1 * rnd.nextGaussian();
+            // channel means are averages of 8-bit pixels
+            x[i] = Math.round(v * 256.0) / 256.0;
+        }
+        return x;
+    }
+
+    private static float[] toFloat(double[] x) {
+        float[] f = new float[x.length];
+        for (int i = 0; i < x.length; i++) f[i] = (float) x[i];
+        return f;
+    }
+
+    @Test
+    public void bpmAgreesWithDoublePath() {
+        for (double bpm : new double[]{48, 72, 95, 130, 180}) {
+            double[] red = ppg(180, 1.5, bpm / 60.0, (long) bpm);
+            double d = SignalProcessing.findDominantFrequencyHz(red, FS, 0.7, 4.0, null) * 60.0;
+            double f = FloatSignalProcessing.findDominantFrequencyHz(toFloat(red), N, FS, 0.7, 4.0, null) * 60.0;
+            assertEquals("BPM at " + bpm, d, f, 0.05);
+            assertEquals(bpm, f, 2.0);
+        }
+    }
+
+    @Test
+    public void spo2AgreesWithDoublePath() {
+        double[] red = ppg(180, 1.5, 1.2, 1);
+        double[] blue = ppg(90, 0.4, 1.2, 2);
+        float[] redF = toFloat(red);
+        float[] blueF = toFloat(blue);
+
+        double meanR = 0, meanB = 0;
+        for (int i = 0; i < N; i++) {
+            meanR += red[i];
+            meanB += blue[i];
+        }
+        meanR /= N;
+        meanB /= N;
+        double varR = 0, varB = 0;
+        for (int i = 0; i < N; i++) {
+            varR += (red[i] - meanR) * (red[i] - meanR);
+            varB += (blue[i] - meanB) * (blue[i] - meanB);
+        }
+        double ratio = (Math.sqrt(varR / N) / meanR) / (Math.sqrt(varB / N) / meanB);
+
+        double meanRF = FloatSignalProcessing.mean(redF, N);
+        double meanBF = FloatSignalProcessing.mean(blueF, N);
+        double ratioF = (FloatSignalProcessing.std(redF, N, meanRF) / meanRF)
+                / (FloatSignalProcessing.std(blueF, N, meanBF) / meanBF);
+
+        assertEquals(SPO2_A - SPO2_B * ratio, SPO2_A - SPO2_B * ratioF, 0.01);
+    }
+
+    // the per-frame band-pass of a FLOAT session runs in FloatCascade
+    @Test
+    public void beatPathsAgreeWithDoublePath() {
+        double[] red = ppg(180, 1.5, 1.2, 5);
+        double[] blue = ppg(90, 0.4, 1.2, 6);
+        double[] green = ppg(120, 1.0, 1.2, 7);
+        BandPassPrefilter filter = BandPassPrefilter.heartRate(FS, 1);
+        BandPassPrefilter filterF = BandPassPrefilter.heartRate(FS, 1, DspPrecision.FLOAT);
+        SpO2Estimator spo2 = new SpO2Estimator();
+        SpO2Estimator spo2F = new SpO2Estimator(DspPrecision.FLOAT);
+        HeartRatePipeline hr = new HeartRatePipeline();
+        HeartRatePipeline hrF = new HeartRatePipeline(DspPrecision.FLOAT);
+        for (int i = 0; i < N; i++) {
+            double t = (i + 1) / FS;
+            assertEquals(filter.process(red[i]), filterF.process(red[i]), 1e-3);
+            spo2.add(red[i], blue[i], t);
+            spo2F.add(red[i], blue[i], t);
+            hr.add(green[i], red[i], t);
+            hrF.add(green[i], red[i], t);
+        }
+        assertTrue(spo2.getAcceptedBeats() >= SpO2Estimator.MIN_BEATS);
+        assertEquals(spo2.getAcceptedBeats(), spo2F.getAcceptedBeats());
+        assertEquals(SPO2_A - SPO2_B * spo2.getRatio(), SPO2_A - SPO2_B * spo2F.getRatio(), 0.01);
+        assertTrue(hr.getTracker().hasEstimate());
+        assertEquals(hr.getTracker().getBpm(), hrF.getTracker().getBpm(), 0.05);
+        assertEquals(72.0, hrF.getTracker().getBpm(), 2.0);
+    }
+
+    @Test
+    public void spectraMatchDoublePath() {
+        double[] red = ppg(180, 1.5, 1.2, 3);
+        double[] blue = ppg(90, 0.4, 1.2, 4);
+        int fftSize = SignalProcessing.nextPowerOfTwo(N);
+        double[][] d = SignalProcessing.magnitudeSpectra(new double[][]{red, blue}, fftSize);
+        double[][] f = FloatSignalProcessing.magnitudeSpectra(
+                new float[][]{toFloat(red), toFloat(blue)}, N, fftSize);
+        for (int c = 0; c < 2; c++) {
+            double peak = 0;
+            for (double v : d[c]) peak = Math.max(peak, v);
+            for (int k = 0; k < fftSize / 2; k++) {
+                assertEquals(d[c][k], f[c][k], 1e-5 * peak);
+            }
+        }
+    }
+
+    // re/im element by element, so a sign or phase error cannot hide in the magnitudes
+    @Test
+    public void fftMatchesDoubleFft1d() {
+        int n = 512;
+        double[] red = ppg(180, 1.5, 1.2, 6);
+        double[] complex = new double[2 * n];
+        for (int i = 0; i < n; i++) {
+            complex[2 * i] = red[i] - 180;
+            complex[2 * i + 1] = red[n - 1 - i] - 180;
+        }
+        double[] real = new double[n];
+        for (int i = 0; i < n; i++) real[i] = red[i] - 180;
+
+        double[] complexD = complex.clone();
+        float[] complexF = toFloat(complex);
+        new DoubleFft1d(n).complexForward(complexD);
+        new FloatFft1d(n).complexForward(complexF);
+        assertComplexClose(complexD, complexF);
+
+        double[] realD = real.clone();
+        float[] realF = toFloat(real);
+        new DoubleFft1d(n).realForward(realD);
+        new FloatFft1d(n).realForward(realF);
+        assertComplexClose(realD, realF);
+
+        new DoubleFft1d(n).realInverse(realD, true);
+        new FloatFft1d(n).realInverse(realF, true);
+        assertComplexClose(realD, realF);
+    }
+
+    private static void assertComplexClose(double[] d, float[] f) {
+        double peak = 0;
+        for (double v : d) peak = Math.max(peak, Math.abs(v));
+        for (int i = 0; i < d.length; i++) {
+            assertEquals((i % 2 == 0 ? "re " : "im ") + i / 2, d[i], f[i], 1e-5 * peak);
+        }
+    }
+
+    @Test
+    public void floatCascadeTracksDoubleCascade() {
+        SosCoefficients c = FilterDesignCache.getShared().bandPass(
+                FilterDesignCache.Family.BUTTERWORTH, 2, FS, 2.5, 4.0);
+        SosFilter ref = new SosFilter(c);
+        FloatCascade flt = new FloatCascade(c);
+        double[] x = ppg(0, 1.5, 1.2, 5);
+        double err = 0, energy = 0;
+        for (double v : x) {
+            double y = ref.filter(v);
+            double yf = flt.filter((float) v);
+            err += (y - yf) * (y - yf);
+            energy += y * y;
+        }
+        assertTrue(Math.sqrt(err / energy) < 1e-4);
+    }
+
+    @Test
+    public void ringBufferKeepsNewestSamples() {
+        FloatRingBuffer buf = new FloatRingBuffer(4);
+        for (int i = 0; i < 6; i++) buf.add(i);
+        assertEquals(4, buf.size());
+        float[] last = new float[3];
+        buf.copyLast(3, last);
+        assertArrayEquals(new float[]{3, 4, 5}, last, 0f);
+        assertEquals(2f, buf.get(0), 0f);
+
+        // the DOUBLE session keeps its samples unrounded
+        DoubleRingBuffer ref = new DoubleRingBuffer(4);
+        for (int i = 0; i < 6; i++) ref.add(i + 0.1);
+        double[] lastD = new double[3];
+        ref.copyLast(3, lastD);
+        assertEquals(3.1, lastD[0], 0.0);
+        assertEquals(5.1, lastD[2], 0.0);
+        assertEquals(2.1, ref.get(0), 0.0);
+    }
+}
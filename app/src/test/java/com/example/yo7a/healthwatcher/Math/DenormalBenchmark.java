@@ -0,0 +1,87 @@
+package com.example.yo7a.healthwatcher.Math;
+
+import java.util.Arrays;
+
+/**
+ * Benchmark of the denormal guard, run as a plain program from the test
+ * classpath (it is not a unit test):
+ *
+ *     java -cp <test classes>:<main classes> com.example.yo7a.healthwatcher.Math.DenormalBenchmark
+ *
+ * The respiration band-pass at camera rate (poles close to the unit circle)
+ * gets an impulse, then silence. Two copies of the same state run through the
+ * same CascadeKernels.processBlock, once with the state flush disabled and
+ * once enabled, chunk by chunk and interleaved, so the only difference is the
+ * guard. Without it the state decays into a subnormal rounding limit cycle and
+ * the kernel slows down on cores with slow subnormal arithmetic; with it the
+ * state goes to zero and the cost per sample stays flat.
+ */
+public final class DenormalBenchmark {
+
+    private static final int CHUNK = 20000;
+    private static final int CHUNKS = 40;
+    // chunks averaged for the "early" and "late" cost
+    private static final int SPAN = 5;
+
+    private DenormalBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        Butterworth design = new Butterworth();
+        design.bandPass(2, 30.0, 0.375, 0.65, DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED);
+        int stages = design.getNumBiquads();
+        Biquad[] biquads = new Biquad[stages];
+        for (int s = 0; s < stages; s++) biquads[s] = design.getBiquad(s);
+        double[] c = new double[stages * CascadeKernels.COEFF_STRIDE];
+        CascadeKernels.flatten(biquads, stages, c);
+
+        int form = DirectFormAbstract.DIRECT_FORM_II_TRANSPOSED;
+        double[] unguarded = new double[stages * CascadeKernels.STATE_STRIDE];
+        double[] guarded = new double[stages * CascadeKernels.STATE_STRIDE];
+        double[] block = new double[CHUNK];
+        double[] costUnguarded = new double[CHUNKS];
+        double[] costGuarded = new double[CHUNKS];
+        double sink = 0.0;
+
+        for (int r = 0; r < CHUNKS; r++) {
+            Arrays.fill(block, 0.0);
+            if (r == 0) block[0] = 1.0;
+            long t0 = System.nanoTime();
+            CascadeKernels.processBlock(form, c, unguarded, stages, block, block, 0, CHUNK, false);
+            long t1 = System.nanoTime();
+            sink += block[CHUNK - 1];
+
+            Arrays.fill(block, 0.0);
+            if (r == 0) block[0] = 1.0;
+            long t2 = System.nanoTime();
+            CascadeKernels.processBlock(form, c, guarded, stages, block, block, 0, CHUNK, true);
+            long t3 = System.nanoTime();
+            sink += block[CHUNK - 1];
+
+            costUnguarded[r] = (t1 - t0) / (double) CHUNK;
+            costGuarded[r] = (t3 - t2) / (double) CHUNK;
+        }
+
+        // the first chunk also pays for the JIT; skip it
+        System.out.printf("ns/sample       chunks 1..%d   last %d   state subnormal%n", SPAN, SPAN);
+        System.out.printf("flush disabled  %9.2f  %9.2f   %b%n", mean(costUnguarded, 1, SPAN),
+                mean(costUnguarded, CHUNKS - SPAN, SPAN), subnormal(unguarded));
+        System.out.printf("flush enabled   %9.2f  %9.2f   %b%n", mean(costGuarded, 1, SPAN),
+                mean(costGuarded, CHUNKS - SPAN, SPAN), subnormal(guarded));
+        // keeps the filtered values alive for the JIT
+        if (sink == 42.0) System.out.println(sink);
+    }
+
+    private static double mean(double[] v, int from, int n) {
+        double sum = 0.0;
+        for (int i = from; i < from + n; i++) sum += v[i];
+        return sum / n;
+    }
+
+    private static boolean subnormal(double[] state) {
+        for (double v : state) {
+            if (v != 0.0 && Math.abs(v) < Double.MIN_NORMAL) return true;
+        }
+        return false;
+    }
+}
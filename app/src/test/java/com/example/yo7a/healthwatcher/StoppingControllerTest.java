@@ -0,0 +1,366 @@
+package com.example.yo7a.healthwatcher;
+
+import com.example.yo7a.healthwatcher.StoppingController.Decision;
+import com.example.yo7a.healthwatcher.StoppingController.Policy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * StoppingController rules, and replays of synthetic camera PPG recordings
+ * through the estimators of the activities, reporting the time-to-result
+ * distribution of each policy.
+ */
+public class StoppingControllerTest {
+
+    private static final double FS = 30.0;
+    private static final int RUNS = 30;
+    // same linear calibration as O2Process
+    private static final double SPO2_A = 110.0;
+    private static final double SPO2_B = 25.0;
+
+    @Test
+    public void finishesAfterRunOfSettledHops() {
+        StoppingController c = new StoppingController(new Policy(0.0, 30.0, 2.0, 3, 5.0));
+        assertEquals(Decision.CONTINUE, c.update(1.0, 70.0, 5.0));
+        assertEquals(Decision.CONTINUE, c.update(2.0, 70.0, 1.5));
+        assertEquals(Decision.CONTINUE, c.update(3.0, 71.0, 1.5));
+        // a jump beyond the half width restarts the run
+        assertEquals(Decision.CONTINUE, c.update(4.0, 75.0, 1.5));
+        assertEquals(1, c.getSettledRun());
+        assertEquals(Decision.CONTINUE, c.update(5.0, 75.5, 1.5));
+        assertEquals(Decision.DONE, c.update(6.0, 74.5, 1.5));
+    }
+
+    @Test
+    public void waitsForMinSeconds() {
+        StoppingController c = new StoppingController(new Policy(10.0, 30.0, 2.0, 2, 5.0));
+        for (int t = 1; t < 10; t++) {
+            assertEquals(Decision.CONTINUE, c.update(t, 70.0, 1.0));
+        }
+        assertEquals(Decision.DONE, c.update(10.0, 70.0, 1.0));
+    }
+
+    @Test
+    public void abortsWithoutUsableHops() {
+        StoppingController c = new StoppingController(new Policy(2.0, 30.0, 2.0, 2, 5.0));
+        // the silence is counted from minSeconds
+        assertEquals(Decision.CONTINUE, c.poll(6.9));
+        assertEquals(Decision.ABORT, c.poll(7.0));
+        c.reset();
+        c.update(8.0, Double.NaN, Double.NaN);
+        assertEquals(Decision.CONTINUE, c.poll(12.9));
+        assertEquals(Decision.ABORT, c.poll(13.0));
+    }
+
+    @Test
+    public void timesOut() {
+        StoppingController c = new StoppingController(new Policy(0.0, 10.0, 2.0, 2, 5.0));
+        for (int t = 1; t < 10; t++) {
+            assertEquals(Decision.CONTINUE, c.update(t, 70.0 + 5 * (t % 2), 1.0));
+        }
+        assertEquals(Decision.TIMEOUT, c.update(10.0, 70.0, 1.0));
+        assertEquals(70.0, c.getEstimate(), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPolicy() {
+        new Policy(10.0, 5.0, 1.0, 1, 1.0);
+    }
+
+    /**
+     * Synthetic finger recording: pulse, respiration, drift, noise and 8-bit
+     * style quantization; dc and ac are those of the main channel.
+     */
+    private static final class Recording {
+        final Random rnd;
+        final double bpm, rr, dc, ac, noise;
+        double t = 0.0, phase = 0.0;
+        double level, pulse;
+
+        Recording(double bpm, double rr, double dc, double ac, double noise, long seed) {
+            this.rnd = new Random(seed);
+            this.bpm = bpm;
+            this.rr = rr;
+            this.dc = dc;
+            this.ac = ac;
+            this.noise = noise;
+        }
+
+        /** Advances one frame. */
+        void next() {
+            double dt = (1.0 + 0.05 * rnd.nextGaussian()) / FS;
+            t += dt;
+            double resp = Math.sin(2 * Math.PI * rr / 60.0 * t);
+            // respiratory sinus arrhythmia of +-4%
+            phase += dt * bpm / 60.0 * (1.0 + 0.04 * resp);
+            double ph = phase - Math.floor(phase);
+            pulse = (ph < 0.15
+                    ? Math.exp(-Math.pow((ph - 0.15) / 0.06, 2))
+                    : Math.exp(-Math.pow((ph - 0.15) / 0.25, 2)))
+                    + 0.15 * Math.exp(-Math.pow((ph - 0.45) / 0.05, 2));
+            pulse *= 1.0 + 0.2 * resp;
+            level = 1.0 + 0.01 * resp + 0.01 * Math.sin(0.05 * t);
+        }
+
+        double channel(double channelDc, double channelAc) {
+            double v = channelDc * level - channelAc * pulse + noise * rnd.nextGaussian();
+            return Math.round(v * 256.0) / 256.0;
+        }
+    }
+
+    /** Collected outcome of one policy over many recordings. */
+    private static final class Outcome {
+        final double[] times = new double[RUNS];
+        final double[] errors = new double[RUNS];
+        int done = 0, timeouts = 0, aborts = 0;
+        // timeouts the activity still reports a result for
+        int timeoutResults = 0;
+
+        void add(Decision d, double t, double error) {
+            if (d == Decision.DONE) {
+                times[done] = t;
+                errors[done] = error;
+                done++;
+            } else if (d == Decision.ABORT) {
+                aborts++;
+            } else {
+                timeouts++;
+            }
+        }
+
+        double quantile(double q) {
+            double[] s = Arrays.copyOf(times, done);
+            Arrays.sort(s);
+            return s[Math.min(done - 1, (int) Math.floor(q * done))];
+        }
+
+        double rmsError() {
+            double e = 0;
+            for (int i = 0; i < done; i++) e += errors[i] * errors[i];
+            return Math.sqrt(e / done);
+        }
+
+        void report(String name) {
+            if (done == 0) {
+                System.out.printf("%-12s done 0/%d  timeouts %d  aborts %d%n", name, RUNS, timeouts, aborts);
+                return;
+            }
+            System.out.printf("%-12s done %d/%d  timeouts %d (%d with result)  aborts %d  time p10 %.1f"
+                            + "  median %.1f  p90 %.1f  max %.1f s  rms error %.2f%n",
+                    name, done, RUNS, timeouts, timeoutResults, aborts, quantile(0.1), quantile(0.5),
+                    quantile(0.9), quantile(1.0), rmsError());
+        }
+    }
+
+    // HeartRateProcess: the same pipeline, fed a green and a red channel
+    private static Decision replayHeartRate(Recording rec, HeartRatePipeline pipeline) {
+        while (true) {
+            rec.next();
+            double green = rec.channel(rec.dc, rec.ac);
+            double red = rec.channel(1.6 * rec.dc, 0.5 * rec.ac);
+            Decision d = pipeline.add(green, red, rec.t);
+            if (d != Decision.CONTINUE) return d;
+        }
+    }
+
+    // O2Process: per-beat ratios of the SpO2Estimator
+    private static Decision replaySpo2(Recording rec, StoppingController stop, SpO2Estimator est,
+                                      double blueAc) {
+        while (true) {
+            rec.next();
+            double red = rec.channel(rec.dc, rec.ac);
+            double blue = rec.channel(90.0, blueAc);
+            Decision d;
+            if (est.add(red, blue, rec.t)) {
+                double ratio = est.getRatio();
+                d = stop.update(rec.t, SPO2_A - SPO2_B * ratio,
+                        SPO2_B * ratio * 1.96 * est.getRatioError());
+            } else {
+                d = stop.poll(rec.t);
+            }
+            if (d != Decision.CONTINUE) return d;
+        }
+    }
+
+    // RespirationProcess: clean beats through the RespirationEstimator
+    private static Decision replayRespiration(Recording rec, StoppingController stop, RespirationEstimator est) {
+        BandPassPrefilter filter = BandPassPrefilter.heartRate(FS);
+        BeatDetector detector = new BeatDetector();
+        BeatQualityIndex quality = new BeatQualityIndex();
+        double sum = 0;
+        int frames = 0;
+        while (true) {
+            rec.next();
+            double green = rec.channel(rec.dc, rec.ac);
+            double bp = filter.process(green);
+            double clock = rec.t - filter.getGroupDelaySeconds();
+            boolean beat = detector.add(-bp, clock);
+            quality.addSample(-bp, green, clock);
+            boolean usable = false;
+            if (beat) {
+                double intensity = sum / Math.max(1, frames);
+                sum = 0;
+                frames = 0;
+                quality.scoreBeat(detector.getBeatTime(), detector.getIbi(), detector.getConfidence());
+                if (quality.isAcceptable() && detector.getConfidence() >= BeatDetector.CLEAN_CONFIDENCE) {
+                    est.add(detector.getBeatTime(), intensity, detector.getBeatAmplitude(), detector.getIbi());
+                    usable = true;
+                }
+            }
+            sum += green;
+            frames++;
+            Decision d = usable
+                    ? stop.update(rec.t, est.getAgreeingSeries() >= 2 ? est.getRate() : Double.NaN,
+                    est.getHalfWidth())
+                    : stop.poll(rec.t);
+            if (d != Decision.CONTINUE) return d;
+        }
+    }
+
+    @Test
+    public void heartRateReplay() {
+        Outcome out = new Outcome();
+        Random rnd = new Random(1);
+        for (int run = 0; run < RUNS; run++) {
+            double bpm = 50 + 90 * rnd.nextDouble();
+            Recording rec = new Recording(bpm, 12 + 6 * rnd.nextDouble(), 120, 1.5, 0.1, run);
+            HeartRatePipeline pipeline = new HeartRatePipeline();
+            Decision d = replayHeartRate(rec, pipeline);
+            out.add(d, rec.t, pipeline.getTracker().getBpm() - bpm);
+            // the activity still shows a valid rate at the time limit
+            if (d == Decision.TIMEOUT && pipeline.getResultBpm() > 0) out.timeoutResults++;
+        }
+        out.report("heart rate");
+        assertTrue(out.done >= RUNS * 9 / 10);
+        assertTrue(out.quantile(0.9) < Policy.HEART_RATE.maxSeconds / 2);
+        assertTrue(out.rmsError() < Policy.HEART_RATE.maxHalfWidth);
+    }
+
+    @Test
+    public void hrvReplayReachesLfHf() {
+        // the HRV session has to outlast HrvEngine.MIN_SPECTRAL_SECONDS of beats
+        Outcome out = new Outcome();
+        Random rnd = new Random(7);
+        for (int run = 0; run < RUNS; run++) {
+            double bpm = 50 + 90 * rnd.nextDouble();
+            Recording rec = new Recording(bpm, 12 + 6 * rnd.nextDouble(), 120, 1.5, 0.1, 700 + run);
+            HeartRatePipeline pipeline = new HeartRatePipeline(DspPrecision.DOUBLE, Policy.HRV);
+            Decision d = replayHeartRate(rec, pipeline);
+            out.add(d, rec.t, pipeline.getTracker().getBpm() - bpm);
+            assertTrue(rec.t >= Policy.HRV.minSeconds);
+            HrvEngine hrv = pipeline.getHrv();
+            assertTrue(hrv.computeSpectral());
+            // the breathing modulation lies in the HF band
+            assertTrue(hrv.getLfHfRatio() < 1.0);
+        }
+        out.report("hrv");
+        assertEquals(RUNS, out.done);
+        assertTrue(out.rmsError() < Policy.HRV.maxHalfWidth);
+    }
+
+    @Test
+    public void spo2Replay() {
+        Outcome out = new Outcome();
+        Random rnd = new Random(2);
+        for (int run = 0; run < RUNS; run++) {
+            double ratio = 0.5 + 0.4 * rnd.nextDouble();
+            // per-channel perfusion: red AC / 180 = ratio * blue AC / 90
+            double blueAc = 0.6;
+            double redAc = ratio * blueAc * 2.0;
+            Recording rec = new Recording(60 + 40 * rnd.nextDouble(), 15, 180, redAc, 0.05, 100 + run);
+            StoppingController stop = new StoppingController(Policy.SPO2);
+            SpO2Estimator est = new SpO2Estimator();
+            Decision d = replaySpo2(rec, stop, est, blueAc);
+            out.add(d, rec.t, SPO2_B * (est.getRatio() - ratio));
+        }
+        out.report("spo2");
+        assertTrue(out.done >= RUNS * 9 / 10);
+        assertTrue(out.quantile(0.9) < Policy.SPO2.maxSeconds / 2);
+        assertTrue(out.rmsError() < Policy.SPO2.maxHalfWidth);
+    }
+
+    @Test
+    public void spo2ReplayAtCameraNoise() {
+        // frame noise of a real preview; a few beats must not settle the interval
+        Outcome out = new Outcome();
+        Random rnd = new Random(6);
+        for (int run = 0; run < RUNS; run++) {
+            double ratio = 0.5 + 0.4 * rnd.nextDouble();
+            double blueAc = 0.6;
+            double redAc = ratio * blueAc * 2.0;
+            Recording rec = new Recording(60 + 40 * rnd.nextDouble(), 15, 180, redAc, 0.3, 600 + run);
+            StoppingController stop = new StoppingController(Policy.SPO2);
+            SpO2Estimator est = new SpO2Estimator();
+            Decision d = replaySpo2(rec, stop, est, blueAc);
+            if (d == Decision.DONE) assertTrue(est.getAcceptedBeats() >= SpO2Estimator.MIN_BEATS);
+            out.add(d, rec.t, SPO2_B * (est.getRatio() - ratio));
+        }
+        out.report("spo2 noisy");
+        assertTrue(out.done >= RUNS / 2);
+    }
+
+    @Test
+    public void spo2ReplayNearRedSaturation() {
+        // with the torch on red sits around 240..254, across BeatQualityIndex.CLIP_LEVEL
+        Outcome out = new Outcome();
+        Random rnd = new Random(5);
+        for (int run = 0; run < RUNS; run++) {
+            double ratio = 0.5 + 0.4 * rnd.nextDouble();
+            double blueAc = 0.6;
+            double redAc = ratio * blueAc * 249.0 / 90.0;
+            Recording rec = new Recording(60 + 40 * rnd.nextDouble(), 15, 249, redAc, 0.05, 500 + run);
+            StoppingController stop = new StoppingController(Policy.SPO2);
+            SpO2Estimator est = new SpO2Estimator();
+            Decision d = replaySpo2(rec, stop, est, blueAc);
+            out.add(d, rec.t, SPO2_B * (est.getRatio() - ratio));
+            assertTrue(est.getAcceptedBeats() > 0);
+            assertFalse(est.shouldAdjustFinger());
+        }
+        out.report("spo2 red 249");
+        assertTrue(out.done >= RUNS * 9 / 10);
+        assertTrue(out.quantile(0.9) < Policy.SPO2.maxSeconds / 2);
+        assertTrue(out.rmsError() < Policy.SPO2.maxHalfWidth);
+    }
+
+    @Test
+    public void respirationReplay() {
+        Outcome out = new Outcome();
+        Random rnd = new Random(3);
+        for (int run = 0; run < RUNS; run++) {
+            double rr = 10 + 10 * rnd.nextDouble();
+            Recording rec = new Recording(60 + 30 * rnd.nextDouble(), rr, 120, 1.5, 0.1, 200 + run);
+            StoppingController stop = new StoppingController(Policy.RESPIRATION);
+            RespirationEstimator est = new RespirationEstimator();
+            Decision d = replayRespiration(rec, stop, est);
+            out.add(d, rec.t, est.getRate() - rr);
+        }
+        out.report("respiration");
+        assertTrue(out.done >= RUNS * 8 / 10);
+        assertTrue(out.quantile(0.9) < Policy.RESPIRATION.maxSeconds);
+        assertTrue(out.rmsError() < 2 * Policy.RESPIRATION.maxHalfWidth);
+    }
+
+    @Test
+    public void unusableRecordingAbortsEarly() {
+        Outcome out = new Outcome();
+        double[] abortTimes = new double[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            // no pulse at all: a finger-less lens or heavy motion
+            Recording rec = new Recording(70, 15, 120, 0.0, 1.0, 300 + run);
+            Decision d = replayHeartRate(rec, new HeartRatePipeline());
+            out.add(d, rec.t, 0.0);
+            abortTimes[run] = rec.t;
+        }
+        Arrays.sort(abortTimes);
+        System.out.printf("%-12s aborts %d/%d  median %.1f s  max %.1f s%n", "no pulse",
+                out.aborts, RUNS, abortTimes[RUNS / 2], abortTimes[RUNS - 1]);
+        assertEquals(0, out.done);
+        assertTrue(out.aborts >= RUNS * 9 / 10);
+        assertTrue(abortTimes[RUNS / 2] < Policy.HEART_RATE.maxSeconds / 2);
+    }
+}